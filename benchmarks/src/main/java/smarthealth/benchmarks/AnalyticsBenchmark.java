@@ -0,0 +1,72 @@
+package smarthealth.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import smarthealth.Appointment;
+import smarthealth.AppointmentColumns;
+import smarthealth.SmartHealthSystem;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the date-range analytics over every appointment, scanned from the appointment columns and, for comparison, from the appointment objects
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class AnalyticsBenchmark {
+
+    //Wide enough to cover every synthetic appointment
+    private static LocalDateTime from(DataState state) {
+        return state.origin.minusYears(1).atStartOfDay();
+    }
+
+    private static LocalDateTime to(DataState state) {
+        return state.origin.plusYears(1).atStartOfDay();
+    }
+
+    @Benchmark
+    public AppointmentColumns.Summary summary(DataState state) {
+        return SmartHealthSystem.appointmentSummary(from(state), to(state));
+    }
+
+    @Benchmark
+    public Map<String, Integer> doctorWorkload(DataState state) {
+        return SmartHealthSystem.doctorWorkload(from(state), to(state));
+    }
+
+    @Benchmark
+    public int[] byHour(DataState state) {
+        return SmartHealthSystem.appointmentsByHour(from(state), to(state));
+    }
+
+    @Benchmark
+    public long summaryFromObjects(DataState state) {
+        long minutes = 0;
+        int completed = 0;
+        for (Appointment a: SmartHealthSystem.getAppointments().between(from(state), to(state))) {
+            minutes += a.getDurationMinutes();
+            completed += a.isCompleted() ? 1 : 0;
+        }
+        return minutes + completed;
+    }
+
+    @Benchmark
+    public Map<String, Integer> doctorWorkloadFromObjects(DataState state) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Appointment a: SmartHealthSystem.getAppointments().between(from(state), to(state))) {
+            counts.merge(a.getDoctorId(), 1, Integer::sum);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,62 @@
+package smarthealth.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import smarthealth.Appointment;
+import smarthealth.BookingResult;
+import smarthealth.SmartHealthSystem;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the conflict checks behind scheduling an appointment
+ * <p>Busy slots are tomorrow morning, when every doctor is booked back to back; free slots are after {@value SyntheticData#LAST_HOUR}:00, when the synthetic data books nothing. Booking a busy slot runs the full validation and locking path without changing any state.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class BookingBenchmark {
+
+    @Benchmark
+    public Appointment doctorConflictBusy(DataState state) {
+        return SmartHealthSystem.getAppointments().findDoctorConflict(SyntheticData.doctorId(state.randomDoctor()), busySlot(state), Appointment.DEFAULT_DURATION_MINUTES);
+    }
+
+    @Benchmark
+    public Appointment doctorConflictFree(DataState state) {
+        return SmartHealthSystem.getAppointments().findDoctorConflict(SyntheticData.doctorId(state.randomDoctor()), freeSlot(state), Appointment.DEFAULT_DURATION_MINUTES);
+    }
+
+    @Benchmark
+    public Appointment patientConflict(DataState state) {
+        return SmartHealthSystem.getAppointments().findPatientConflict(state.randomPatient(), freeSlot(state), Appointment.DEFAULT_DURATION_MINUTES);
+    }
+
+    @Benchmark
+    public LocalDateTime nextFreeDoctorSlot(DataState state) {
+        return SmartHealthSystem.getAppointments().nextFreeDoctorSlot(SyntheticData.doctorId(state.randomDoctor()), state.origin.atTime(SyntheticData.FIRST_HOUR, 0), Appointment.DEFAULT_DURATION_MINUTES);
+    }
+
+    @Benchmark
+    public BookingResult bookBusySlot(DataState state) {
+        return SmartHealthSystem.bookAppointment(state.randomPatient(), SyntheticData.doctorId(state.randomDoctor()), "Benchmark", busySlot(state), Appointment.DEFAULT_DURATION_MINUTES);
+    }
+
+    //Every doctor is booked back to back tomorrow morning
+    private static LocalDateTime busySlot(DataState state) {
+        return state.origin.plusDays(1).atTime(SyntheticData.FIRST_HOUR, 0).plusMinutes((long) SyntheticData.SLOT_MINUTES * ThreadLocalRandom.current().nextInt(SyntheticData.SLOTS_PER_DAY));
+    }
+
+    private static LocalDateTime freeSlot(DataState state) {
+        return state.origin.atTime(SyntheticData.LAST_HOUR, 0).plusDays(ThreadLocalRandom.current().nextInt(7));
+    }
+}
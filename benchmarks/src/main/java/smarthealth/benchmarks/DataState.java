@@ -0,0 +1,61 @@
+package smarthealth.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import smarthealth.SmartHealthSystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * Class representing a smart health system loaded with a synthetic data set, shared by the benchmarks
+ * <p>Each trial writes a fresh {@link SyntheticData} set of the requested size to a temporary directory and loads it through {@link SmartHealthSystem#loadData()}, the same path the application takes on start-up.
+ */
+@State(Scope.Benchmark)
+public class DataState {
+
+    @Param({"10000", "1000000", "10000000"})
+    public int records;
+
+    public int patientCount;
+    public int doctorCount;
+    public LocalDate origin;
+    public Path directory;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        origin = LocalDate.now();
+        patientCount = SyntheticData.patientCount(records);
+        doctorCount = SyntheticData.doctorCount(records);
+        directory = Files.createTempDirectory("smarthealth-bench");
+        SyntheticData.generate(records, SyntheticData.DEFAULT_SEED, origin).writeTo(directory);
+        SmartHealthSystem.setDataDirectory(directory);
+        SmartHealthSystem.loadData();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path p: (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    public String randomPatient() {
+        return SyntheticData.patientId(ThreadLocalRandom.current().nextInt(patientCount));
+    }
+
+    public int randomDoctor() {
+        return ThreadLocalRandom.current().nextInt(doctorCount);
+    }
+}
@@ -0,0 +1,41 @@
+package smarthealth.benchmarks;
+
+import org.openjdk.jol.info.GraphLayout;
+import smarthealth.StringDictionary;
+
+import java.time.LocalDate;
+import java.util.Collection;
+
+/**
+ * Class representing the heap footprint report of the patient, doctor and appointment objects of a synthetic data set
+ * <p>Walks the object graphs with JOL and prints the bytes each kind of entity takes, counting everything the entities reference apart from the shared {@link StringDictionary} instances, which are reported once.
+ * <pre>
+ * java -cp benchmarks.jar smarthealth.benchmarks.FootprintReport [appointments]
+ * </pre>
+ */
+public final class FootprintReport {
+
+    private FootprintReport() {
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        SyntheticData data = SyntheticData.generate(count, SyntheticData.DEFAULT_SEED, LocalDate.now());
+        System.out.println("Footprint of " + count + " appointments, " + data.getPatients().size() + " patients and " + data.getDoctors().size() + " doctors");
+        System.out.printf("%-14s %14s %12s%n", "Entity", "Total bytes", "Per entity");
+        report("Patient", data.getPatients().values());
+        report("Doctor", data.getDoctors().values());
+        report("Appointment", data.getAppointments().values());
+        //Shared by all entities, so counted once and apart from them
+        long dictionaries = GraphLayout.parseInstance(StringDictionary.SPECIALIZATIONS, StringDictionary.REASONS, StringDictionary.CONDITIONS,
+                StringDictionary.MEDICATIONS, StringDictionary.DOCTOR_IDS).totalSize();
+        System.out.printf("%-14s %14d%n", "Dictionaries", dictionaries);
+    }
+
+    private static void report(String name, Collection<?> entities) {
+        Object[] array = entities.toArray();
+        //The array holding the entities is not part of their footprint
+        long total = GraphLayout.parseInstance(array).totalSize() - GraphLayout.parseInstance((Object) new Object[array.length]).totalSize();
+        System.out.printf("%-14s %14d %12.1f%n", name, total, (double) total / Math.max(1, array.length));
+    }
+}
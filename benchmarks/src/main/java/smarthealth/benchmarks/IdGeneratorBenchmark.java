@@ -0,0 +1,50 @@
+package smarthealth.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import smarthealth.SmartHealthSystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of appointment ID allocation, alone and contended by as many threads as there are processors
+ * <p>The allocator does not depend on the amount of data, so it runs against an empty system.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IdGeneratorBenchmark {
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        SmartHealthSystem.setDataDirectory(Files.createTempDirectory("smarthealth-bench"));
+        SmartHealthSystem.loadData();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String single() {
+        return SmartHealthSystem.idGenerator();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String contended() {
+        return SmartHealthSystem.idGenerator();
+    }
+}
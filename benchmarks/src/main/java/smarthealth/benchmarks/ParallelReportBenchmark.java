@@ -0,0 +1,63 @@
+package smarthealth.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import smarthealth.ReportEngine;
+import smarthealth.SmartHealthSystem;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the sharded all-time report aggregation at increasing parallelism, giving its scaling curve
+ * <p>Run with {@code -p records=10000000} (and a large heap) on a machine with at least as many cores as the largest parallelism; on fewer cores the extra shards only add merge work.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class ParallelReportBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class PoolState {
+        @Param({"1", "2", "4", "8"})
+        public int parallelism;
+
+        public ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void start() {
+            pool = new ForkJoinPool(parallelism);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public ReportEngine.Aggregates aggregate(DataState data, PoolState state) {
+        return SmartHealthSystem.getAppointments().aggregate(null, null, LocalDateTime.now(), state.pool);
+    }
+
+    @Benchmark
+    public void generateReport(DataState data, PoolState state) throws IOException {
+        SmartHealthSystem.generateReport(Writer.nullWriter(), null, null, state.pool);
+    }
+}
@@ -0,0 +1,49 @@
+package smarthealth.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import smarthealth.Appointment;
+import smarthealth.Patient;
+import smarthealth.SmartHealthSystem;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of saving and loading the snapshot files
+ * <p>Each invocation is timed on its own, as a snapshot of millions of records takes seconds. Loading maps the files and decodes records lazily, so the round trip also reads every patient and appointment back.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class PersistenceBenchmark {
+
+    @Benchmark
+    public void storeData(DataState state) {
+        SmartHealthSystem.storeData();
+    }
+
+    @Benchmark
+    public void loadData(DataState state) {
+        SmartHealthSystem.loadData();
+    }
+
+    @Benchmark
+    public void roundTrip(DataState state, Blackhole blackhole) {
+        SmartHealthSystem.storeData();
+        SmartHealthSystem.loadData();
+        for (Patient p: SmartHealthSystem.allPatients()) {
+            blackhole.consume(p);
+        }
+        for (Appointment a: SmartHealthSystem.getAppointments().all()) {
+            blackhole.consume(a);
+        }
+    }
+}
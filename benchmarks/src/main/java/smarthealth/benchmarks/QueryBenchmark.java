@@ -0,0 +1,73 @@
+package smarthealth.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import smarthealth.Appointment;
+import smarthealth.AvailabilityCalendar;
+import smarthealth.Patient;
+import smarthealth.Prescription;
+import smarthealth.SmartHealthSystem;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the record queries behind the console's display records menu
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx16g")
+public class QueryBenchmark {
+
+    @Benchmark
+    public Patient patient(DataState state) {
+        return SmartHealthSystem.getPatient(state.randomPatient());
+    }
+
+    @Benchmark
+    public List<Appointment> patientAppointments(DataState state) {
+        return SmartHealthSystem.patientAppointments(state.randomPatient());
+    }
+
+    @Benchmark
+    public List<Appointment> doctorAppointments(DataState state) {
+        return SmartHealthSystem.doctorAppointments(SyntheticData.doctorId(state.randomDoctor()));
+    }
+
+    @Benchmark
+    public List<Appointment> upcomingWeek(DataState state) {
+        return SmartHealthSystem.upcomingAppointments(7);
+    }
+
+    @Benchmark
+    public List<Appointment> overdue(DataState state) {
+        return SmartHealthSystem.overdueAppointments();
+    }
+
+    @Benchmark
+    public List<Prescription> patientPrescriptions(DataState state) {
+        return SmartHealthSystem.patientPrescriptions(state.randomPatient());
+    }
+
+    @Benchmark
+    public List<Prescription> expiredPrescriptions(DataState state) {
+        return SmartHealthSystem.expiredPrescriptions();
+    }
+
+    @Benchmark
+    public List<Prescription> refillPrescriptions(DataState state) {
+        return SmartHealthSystem.refillPrescriptions();
+    }
+
+    @Benchmark
+    public AvailabilityCalendar.Slot earliestFreeSlot(DataState state) {
+        return SmartHealthSystem.earliestFreeSlot("Cardiology", 14, SyntheticData.SLOT_MINUTES);
+    }
+}
@@ -0,0 +1,156 @@
+package smarthealth.benchmarks;
+
+import smarthealth.Appointment;
+import smarthealth.Doctor;
+import smarthealth.Patient;
+import smarthealth.Prescription;
+import smarthealth.RecordFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Class representing a repeatable synthetic data set for the smart health system
+ * <p>The same number of records, seed and origin date always give the same patients, doctors, appointments and prescriptions. Each doctor gets a run of back-to-back {@value #SLOT_MINUTES} minute appointments from 08:00 over a few days on both sides of the origin, so roughly half of them are in the past, and nothing is booked from {@value #LAST_HOUR}:00 on, which leaves a known free slot every day.
+ * <pre>
+ * java -cp benchmarks.jar smarthealth.benchmarks.SyntheticData [directory] [appointments] [seed]
+ * </pre>
+ */
+public final class SyntheticData {
+
+    public static final long DEFAULT_SEED = 42;
+    public static final int SLOT_MINUTES = 30;
+    public static final int SLOTS_PER_DAY = 16;
+    public static final int FIRST_HOUR = 8;
+    public static final int LAST_HOUR = FIRST_HOUR + SLOTS_PER_DAY * SLOT_MINUTES / 60;
+    //Appointments per patient and per doctor, which fix the entity counts relative to the number of appointments
+    public static final int APPOINTMENTS_PER_PATIENT = 5;
+    public static final int APPOINTMENTS_PER_DOCTOR = 200;
+
+    private static final String[] SPECIALIZATIONS = {"Cardiology", "Dermatology", "Endocrinology", "Gastroenterology", "General Practice", "Neurology",
+            "Obstetrics", "Oncology", "Ophthalmology", "Orthopedics", "Pediatrics", "Psychiatry"};
+    private static final String[] CONDITIONS = {"Asthma", "Diabetes", "Hypertension", "Migraine", "Allergy", "Arthritis", "Anemia", "Insomnia"};
+    private static final String[] MEDICATIONS = {"Amoxicillin", "Ibuprofen", "Metformin", "Lisinopril", "Atorvastatin", "Omeprazole", "Salbutamol", "Sertraline"};
+    private static final String[] REASONS = {"Check-up", "Follow-up", "Consultation", "Test results", "Vaccination", "Prescription review"};
+
+    private final int appointmentCount;
+    private final LocalDate origin;
+    private final Map<String, Patient> patients = new HashMap<>();
+    private final Map<String, Doctor> doctors = new HashMap<>();
+    private final Map<String, Appointment> appointments = new HashMap<>();
+
+    private SyntheticData(int appointmentCount, LocalDate origin) {
+        this.appointmentCount = appointmentCount;
+        this.origin = origin;
+    }
+
+    /**
+     * Generates a data set with the given number of appointments, {@link #patientCount} patients and {@link #doctorCount} doctors
+     */
+    public static SyntheticData generate(int appointmentCount, long seed, LocalDate origin) {
+        SyntheticData data = new SyntheticData(appointmentCount, origin);
+        SplittableRandom random = new SplittableRandom(seed);
+        int doctorCount = doctorCount(appointmentCount);
+        for (int i = 0; i < doctorCount; i++) {
+            Doctor d = new Doctor(doctorId(i), "Doctor " + i, SPECIALIZATIONS[random.nextInt(SPECIALIZATIONS.length)], 30 + random.nextInt(40),
+                    "555-" + (1000 + i % 9000), "doctor" + i + "@clinic.example");
+            d.setRegistrationDate(origin.atStartOfDay().minusDays(random.nextInt(3650)));
+            data.doctors.put(d.getId(), d);
+        }
+        int patientCount = patientCount(appointmentCount);
+        int prescriptionId = 0;
+        for (int i = 0; i < patientCount; i++) {
+            List<String> history = new ArrayList<>();
+            for (int h = random.nextInt(3); h > 0; h--) {
+                history.add(CONDITIONS[random.nextInt(CONDITIONS.length)]);
+            }
+            Patient p = new Patient(patientId(i), "Patient " + i, 1 + random.nextInt(95), i + " Main Street", "555-" + (1000 + i % 9000), history);
+            p.setRegistrationDate(origin.atStartOfDay().minusDays(random.nextInt(3650)));
+            for (int n = random.nextInt(3); n > 0; n--) {
+                LocalDateTime start = origin.atStartOfDay().minusDays(random.nextInt(90));
+                Prescription pr = new Prescription(++prescriptionId, random.nextInt(doctorCount), i, MEDICATIONS[random.nextInt(MEDICATIONS.length)],
+                        (1 + random.nextInt(4)) * 100 + "mg", start, start.plusDays(7 + random.nextInt(120)));
+                pr.setRefill(random.nextInt(10) < 3);
+                p.addPrescription(pr);
+            }
+            data.patients.put(p.getId(), p);
+        }
+        LocalDateTime today = origin.atStartOfDay();
+        for (int i = 0; i < appointmentCount; i++) {
+            LocalDateTime time = data.slot(i);
+            Appointment a = new Appointment(appointmentId(i), doctorId(i % doctorCount), patientId(random.nextInt(patientCount)),
+                    REASONS[random.nextInt(REASONS.length)], time, SLOT_MINUTES);
+            //Most appointments before the origin took place, the rest are left overdue
+            boolean attended = random.nextInt(10) != 0;
+            if (time.isBefore(today) && attended) {
+                a.markCompleted();
+            }
+            data.appointments.put(a.getAppointmentId(), a);
+        }
+        return data;
+    }
+
+    public static int patientCount(int appointmentCount) {
+        return Math.max(1, appointmentCount / APPOINTMENTS_PER_PATIENT);
+    }
+
+    public static int doctorCount(int appointmentCount) {
+        return Math.max(10, appointmentCount / APPOINTMENTS_PER_DOCTOR);
+    }
+
+    public static String patientId(int index) {
+        return "P" + index;
+    }
+
+    public static String doctorId(int index) {
+        return "D" + index;
+    }
+
+    //Numeric like the IDs handed out by SmartHealthSystem.idGenerator
+    public static String appointmentId(int index) {
+        return Long.toString(index + 1L);
+    }
+
+    /**
+     * Returns the start of the i-th appointment; appointment i belongs to doctor i modulo the number of doctors
+     */
+    public LocalDateTime slot(int index) {
+        int doctorCount = doctorCount(appointmentCount);
+        int perDoctor = (appointmentCount + doctorCount - 1) / doctorCount;
+        int days = (perDoctor + SLOTS_PER_DAY - 1) / SLOTS_PER_DAY;
+        int n = index / doctorCount;
+        return origin.atTime(FIRST_HOUR, 0).minusDays(days / 2).plusDays(n / SLOTS_PER_DAY).plusMinutes((long) SLOT_MINUTES * (n % SLOTS_PER_DAY));
+    }
+
+    public int getAppointmentCount() { return appointmentCount; }
+    public Map<String, Patient> getPatients() { return patients; }
+    public Map<String, Doctor> getDoctors() { return doctors; }
+    public Map<String, Appointment> getAppointments() { return appointments; }
+
+    /**
+     * Writes the data set as the snapshot files {@link smarthealth.SmartHealthSystem#loadData()} reads, removing any journal left in the directory
+     */
+    public void writeTo(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        RecordFile.write(directory.resolve("patients.db"), RecordFile.PATIENTS, patients);
+        RecordFile.write(directory.resolve("doctors.db"), RecordFile.DOCTORS, doctors);
+        RecordFile.write(directory.resolve("appointments.db"), RecordFile.APPOINTMENTS, appointments);
+        Files.deleteIfExists(directory.resolve("journal.log"));
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Path.of(args.length > 0 ? args[0] : ".");
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+        generate(count, seed, LocalDate.now()).writeTo(directory);
+        System.out.println("Wrote " + count + " appointments, " + patientCount(count) + " patients and " + doctorCount(count) + " doctors to " + directory.toAbsolutePath());
+    }
+}
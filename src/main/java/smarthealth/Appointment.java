@@ -0,0 +1,207 @@
+package smarthealth;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Class representing an appointment between a patient and a doctor
+ * <p>Stored compactly: numeric IDs (the ones {@link SmartHealthSystem#idGenerator()} hands out) as a long, the doctor ID as a code into a {@link StringDictionary}, the reason as the shared instance from {@link StringDictionary#REASONS} when it has one, and the start as epoch seconds.
+ * <p>Once {@link AppointmentColumns} holds the appointment, the object is a view over its row there: the start, duration and completed flag are read from and written to the row, and the fields here only hold them while the appointment has no row.
+ */
+public class Appointment implements Serializable {
+
+    //Appointment ID when it is a plain decimal number, otherwise -1 and the ID is kept as text
+    private long appointmentNumber = -1;
+    private String appointmentText;
+    private int doctorId;
+    private String patientId;
+    private String reason;
+    private long datetime;
+    private boolean completion;
+    private int durationMinutes;
+    //Columns holding the start, duration and completion of this appointment, null while it has no row; written after the row, so a reader seeing the columns sees the row too
+    private transient volatile AppointmentColumns columns;
+    private transient int columnRow = -1;
+    @Serial
+    private static final long serialVersionUID = 1L;
+    //Fields of the serialized form, which predates the compact layout and is kept so older snapshots still load
+    @Serial
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("appointmentId", String.class),
+            new ObjectStreamField("doctorId", String.class),
+            new ObjectStreamField("patientId", String.class),
+            new ObjectStreamField("reason", String.class),
+            new ObjectStreamField("datetime", LocalDateTime.class),
+            new ObjectStreamField("completion", boolean.class),
+            new ObjectStreamField("durationMinutes", int.class)
+    };
+
+    //Length assumed for appointments booked without an explicit duration (including ones saved before durations existed)
+    public static final int DEFAULT_DURATION_MINUTES = 30;
+
+    public Appointment(String id, String doctor, String patient, String reason, LocalDateTime time) {
+        this(id, doctor, patient, reason, time, DEFAULT_DURATION_MINUTES);
+    }
+
+    public Appointment(String id, String doctor, String patient, String reason, LocalDateTime time, int duration) {
+        setAppointmentId(id);
+        this.doctorId = StringDictionary.DOCTOR_IDS.code(doctor);
+        this.patientId = patient;
+        this.reason = StringDictionary.REASONS.intern(reason);
+        this.datetime = CompactFields.epoch(time);
+        this.durationMinutes = duration;
+    }
+
+    public String getAppointmentId() {
+        return appointmentNumber >= 0 ? Long.toString(appointmentNumber) : appointmentText;
+    }
+    public String getDoctorId() {
+        return StringDictionary.DOCTOR_IDS.value(this.doctorId);
+    }
+    public String getPatientId() {
+        return this.patientId;
+    }
+    public String getReason() {
+        return this.reason;
+    }
+    public boolean isOverdue() {
+        if ((!isCompleted()) && (getDateTime().isBefore(LocalDateTime.now()))) {
+            return true;
+        }
+        return false;
+    }
+    public LocalDateTime getDateTime() {
+        return CompactFields.time(getEpochSecond());
+    }
+    public boolean isCompleted() {
+        AppointmentColumns view = columns;
+        return view != null ? view.isCompleted(columnRow) : completion;
+    }
+    public int getDurationMinutes() {
+        AppointmentColumns view = columns;
+        if (view != null) {
+            return view.duration(columnRow);
+        }
+        return durationMinutes > 0 ? durationMinutes : DEFAULT_DURATION_MINUTES;
+    }
+    public LocalDateTime getEndDateTime() {
+        return getDateTime().plusMinutes(getDurationMinutes());
+    }
+
+    public void setAppointmentId(String id) {
+        if (isPlainNumber(id)) {
+            this.appointmentNumber = Long.parseLong(id);
+            this.appointmentText = null;
+        } else {
+            this.appointmentNumber = -1;
+            this.appointmentText = id;
+        }
+    }
+    public void setDoctorId(String id) {
+        this.doctorId = StringDictionary.DOCTOR_IDS.code(id);
+    }
+    public void setPatientId(String id) {
+        this.patientId = id;
+    }
+    public void setReason(String reason) {
+        this.reason = StringDictionary.REASONS.intern(reason);
+    }
+    public void markCompleted() {
+        AppointmentColumns view = columns;
+        if (view != null) {
+            view.setCompleted(columnRow);
+        } else {
+            this.completion = true;
+        }
+    }
+    public void setDateTime(LocalDateTime datetime) {
+        AppointmentColumns view = columns;
+        if (view != null) {
+            view.setStart(columnRow, CompactFields.epoch(datetime));
+        } else {
+            this.datetime = CompactFields.epoch(datetime);
+        }
+    }
+    public void setDurationMinutes(int duration) {
+        AppointmentColumns view = columns;
+        if (view != null) {
+            view.setDuration(columnRow, duration > 0 ? duration : DEFAULT_DURATION_MINUTES);
+        } else {
+            this.durationMinutes = duration;
+        }
+    }
+
+    int getDoctorCode() { return doctorId; }
+    long getEpochSecond() {
+        AppointmentColumns view = columns;
+        return view != null ? view.start(columnRow) : datetime;
+    }
+
+    //Makes this appointment a view over the given row, which already holds its values
+    void attach(AppointmentColumns columns, int row) {
+        this.columnRow = row;
+        this.columns = columns;
+    }
+
+    //Copies the values back from the row into the fields, before the row is reused
+    void detach() {
+        AppointmentColumns view = columns;
+        if (view == null) {
+            return;
+        }
+        datetime = view.start(columnRow);
+        durationMinutes = view.duration(columnRow);
+        completion = view.isCompleted(columnRow);
+        columns = null;
+        columnRow = -1;
+    }
+
+    //Only IDs that print back exactly the same are stored as numbers
+    private static boolean isPlainNumber(String id) {
+        if (id == null || id.isEmpty() || id.length() > 18 || (id.charAt(0) == '0' && id.length() > 1)) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (id.charAt(i) < '0' || id.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("appointmentId", getAppointmentId());
+        fields.put("doctorId", getDoctorId());
+        fields.put("patientId", patientId);
+        fields.put("reason", getReason());
+        fields.put("datetime", getDateTime());
+        fields.put("completion", isCompleted());
+        fields.put("durationMinutes", getDurationMinutes());
+        out.writeFields();
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        setAppointmentId((String) fields.get("appointmentId", null));
+        doctorId = StringDictionary.DOCTOR_IDS.code((String) fields.get("doctorId", null));
+        patientId = (String) fields.get("patientId", null);
+        reason = StringDictionary.REASONS.intern((String) fields.get("reason", null));
+        datetime = CompactFields.epoch((LocalDateTime) fields.get("datetime", null));
+        completion = fields.get("completion", false);
+        durationMinutes = fields.get("durationMinutes", 0);
+        columnRow = -1;
+    }
+
+    @Override
+    public String toString() {
+        return "Appointment Reason: " + getReason() + ", Date & Time: " + getDateTime() + ", Completed: " + isCompleted();
+    }
+}
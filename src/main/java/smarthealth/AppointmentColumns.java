@@ -0,0 +1,553 @@
+package smarthealth;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Class representing the columnar copy of the appointments, for analytic scans
+ * <p>Each appointment is a row across parallel primitive arrays: the doctor ordinal (its {@link StringDictionary#DOCTOR_IDS} code), a patient ordinal, the start in epoch minutes, the duration and a completed flag. A scan over a date range walks these arrays front to back without touching an {@link Appointment} object, so it runs at memory bandwidth with no allocation, and the counting loops are simple enough for the JIT to vectorize.
+ * <p>The columns are the only copy of an appointment's start, duration and completed flag: once {@link #add} gives an {@link Appointment} its row, the object is a view that reads and writes them here, so a reschedule or completion reaches the scans without being mirrored. Writers take the write lock only for the few stores of one row, reads of one row and scans take the read lock; the parallel {@link #aggregate} takes it only to read where the columns end.
+ */
+public class AppointmentColumns {
+
+    private static final int INITIAL_ROWS = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final StringDictionary patientOrdinals = new StringDictionary();
+    private int[] doctor = new int[INITIAL_ROWS];
+    private int[] patient = new int[INITIAL_ROWS];
+    private int[] startMinute = new int[INITIAL_ROWS];
+    private int[] duration = new int[INITIAL_ROWS];
+    private byte[] completed = new byte[INITIAL_ROWS];
+    //Seconds past the start minute, which no scan needs but the appointment views do
+    private byte[] second = new byte[INITIAL_ROWS];
+    private int size;
+
+    /**
+     * Summary of the appointments starting in a date range
+     */
+    public static final class Summary {
+        private final int total;
+        private final int completed;
+        private final long bookedMinutes;
+
+        Summary(int total, int completed, long bookedMinutes) {
+            this.total = total;
+            this.completed = completed;
+            this.bookedMinutes = bookedMinutes;
+        }
+
+        public int getTotal() { return total; }
+        public int getCompleted() { return completed; }
+        public int getPending() { return total - completed; }
+        public long getBookedMinutes() { return bookedMinutes; }
+    }
+
+    /**
+     * Report aggregates of the appointments starting in a date range, counted by {@link #aggregate}
+     * <p>The upcoming/overdue split is fixed at the time the aggregates were counted, whatever time is asked for.
+     */
+    public static final class Totals implements ReportEngine.Aggregates {
+        private final StringDictionary patientNames;
+        private final int[] doctorCounts;
+        private final int[] patientCounts;
+        private int total;
+        private int completed;
+        private int upcoming;
+        private int overdue;
+        private String topSpecialization;
+        private int topSpecializationCount;
+
+        private Totals(StringDictionary patientNames, int doctors, int patients) {
+            this.patientNames = patientNames;
+            this.doctorCounts = new int[doctors];
+            this.patientCounts = new int[patients];
+        }
+
+        //Sums the doctor counts per specialization, once every row is counted
+        private Totals rank(Map<String, Doctor> doctors) {
+            Map<String, int[]> specializations = new HashMap<>();
+            for (Doctor d: doctors.values()) {
+                int count = getDoctorWorkload(d.getId());
+                if (count == 0 || d.getSpecialization() == null) {
+                    continue;
+                }
+                int[] sum = specializations.computeIfAbsent(d.getSpecialization(), k -> new int[1]);
+                sum[0] += count;
+                if (sum[0] > topSpecializationCount) {
+                    topSpecializationCount = sum[0];
+                    topSpecialization = d.getSpecialization();
+                }
+            }
+            return this;
+        }
+
+        public int getDoctorWorkload(String doctorId) { return count(doctorCounts, StringDictionary.DOCTOR_IDS.find(doctorId)); }
+        public int getPatientVisits(String patientId) { return count(patientCounts, patientNames.find(patientId)); }
+        public String getTopSpecialization() { return topSpecialization; }
+        public int getTopSpecializationCount() { return topSpecializationCount; }
+        public int getTotalAppointments() { return total; }
+        public int getCompletedAppointments() { return completed; }
+        public int getUpcomingCount(LocalDateTime now) { return upcoming; }
+        public int getOverdueCount(LocalDateTime now) { return overdue; }
+
+        private static int count(int[] counts, int ordinal) {
+            return ordinal >= 0 && ordinal < counts.length ? counts[ordinal] : 0;
+        }
+    }
+
+    /**
+     * Adds an appointment as a new row and makes the appointment a view over it
+     */
+    public void add(Appointment appointment) {
+        int patientOrdinal = patientOrdinals.code(appointment.getPatientId());
+        long start = appointment.getEpochSecond();
+        int minutes = appointment.getDurationMinutes();
+        boolean done = appointment.isCompleted();
+        lock.writeLock().lock();
+        try {
+            if (size == doctor.length) {
+                grow();
+            }
+            doctor[size] = appointment.getDoctorCode();
+            patient[size] = patientOrdinal;
+            startMinute[size] = minute(start);
+            second[size] = second(start);
+            duration[size] = minutes;
+            completed[size] = (byte) (done ? 1 : 0);
+            appointment.attach(this, size++);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Start of the row in epoch seconds
+    long start(int row) {
+        lock.readLock().lock();
+        try {
+            return startMinute[row] == Integer.MIN_VALUE ? CompactFields.NO_TIME : startMinute[row] * 60L + second[row];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int duration(int row) {
+        lock.readLock().lock();
+        try {
+            return duration[row];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean isCompleted(int row) {
+        lock.readLock().lock();
+        try {
+            return completed[row] != 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void setStart(int row, long epochSecond) {
+        lock.writeLock().lock();
+        try {
+            startMinute[row] = minute(epochSecond);
+            second[row] = second(epochSecond);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void setDuration(int row, int minutes) {
+        lock.writeLock().lock();
+        try {
+            duration[row] = minutes;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void setCompleted(int row) {
+        lock.writeLock().lock();
+        try {
+            completed[row] = 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops every row and adds the given appointments again, used after loading saved data
+     */
+    public void rebuild(Collection<Appointment> appointments) {
+        //Views over the rows about to be reused take their values back first
+        for (Appointment a: appointments) {
+            a.detach();
+        }
+        lock.writeLock().lock();
+        try {
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (Appointment a: appointments) {
+            add(a);
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of appointments, the completed ones and the booked minutes of the appointments starting in [from, to)
+     */
+    public Summary summary(LocalDateTime from, LocalDateTime to) {
+        int low = minute(from);
+        int high = minute(to);
+        lock.readLock().lock();
+        try {
+            int[] start = startMinute;
+            int total = 0;
+            int done = 0;
+            long minutes = 0;
+            //Branch-free so the loop vectorizes
+            for (int i = 0; i < size; i++) {
+                int inRange = (start[i] >= low ? 1 : 0) & (start[i] < high ? 1 : 0);
+                total += inRange;
+                done += inRange & completed[i];
+                minutes += inRange * duration[i];
+            }
+            return new Summary(total, done, minutes);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of appointments starting in [from, to) per doctor ID, busiest first
+     */
+    public Map<String, Integer> doctorWorkload(LocalDateTime from, LocalDateTime to) {
+        int low = minute(from);
+        int high = minute(to);
+        int[] counts;
+        lock.readLock().lock();
+        try {
+            //Sized under the lock: every ordinal in the columns was handed out before its row was added
+            counts = new int[StringDictionary.DOCTOR_IDS.size()];
+            int[] start = startMinute;
+            for (int i = 0; i < size; i++) {
+                if (start[i] >= low && start[i] < high) {
+                    counts[doctor[i]]++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return byCount(counts, StringDictionary.DOCTOR_IDS);
+    }
+
+    /**
+     * Returns the number of appointments starting in [from, to) per patient ID, most frequent first
+     */
+    public Map<String, Integer> patientVisits(LocalDateTime from, LocalDateTime to) {
+        int low = minute(from);
+        int high = minute(to);
+        int[] counts;
+        lock.readLock().lock();
+        try {
+            counts = new int[patientOrdinals.size()];
+            int[] start = startMinute;
+            for (int i = 0; i < size; i++) {
+                if (start[i] >= low && start[i] < high) {
+                    counts[patient[i]]++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return byCount(counts, patientOrdinals);
+    }
+
+    /**
+     * Returns how many appointments starting in [from, to) begin in each hour of the day (UTC wall clock, like the stored times)
+     */
+    public int[] hourOfDay(LocalDateTime from, LocalDateTime to) {
+        int[] counts = new int[24];
+        int low = minute(from);
+        int high = minute(to);
+        lock.readLock().lock();
+        try {
+            int[] start = startMinute;
+            for (int i = 0; i < size; i++) {
+                if (start[i] >= low && start[i] < high) {
+                    counts[Math.floorMod(start[i], 24 * 60) / 60]++;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the report aggregates of the appointments starting in [from, to) in parallel
+     * <p>The columns are read without the lock: only their length and arrays are taken under it, and as rows are only ever appended and a grown array is a copy, the rows up to that length stay readable while bookings go on. A row rescheduled or completed during the count may be counted as it was before or after the change.
+     * <p>The count runs in two parallel steps. First the rows are split into one part per worker of the pool, and each part counts its totals and the doctor and patient ordinals of its rows in range. A dictionary no larger than a part is counted into an array of the part's own; a larger one would cost more to allocate and add up than the rows themselves, so its ordinals are listed instead, grouped by which slice of the dictionary they fall in. Then one task per slice adds up its slice of every part into one array of doctor counts and one of patient counts, so the work and memory of counting stay bounded by the rows scanned, whatever the number of patients.
+     * @param from start of the range, or null for no lower bound
+     * @param to end of the range (exclusive), or null for no upper bound
+     * @param now time separating upcoming from overdue appointments
+     */
+    public Totals aggregate(LocalDateTime from, LocalDateTime to, LocalDateTime now, Map<String, Doctor> doctors, ForkJoinPool pool) {
+        int low = from == null ? Integer.MIN_VALUE : minute(from);
+        int high = to == null ? Integer.MAX_VALUE : minute(to);
+        Scan scan;
+        lock.readLock().lock();
+        try {
+            //Sized under the lock: every ordinal in the columns was handed out before its row was added
+            scan = new Scan(size, doctor, patient, startMinute, completed, StringDictionary.DOCTOR_IDS.size(), patientOrdinals.size(),
+                    low, high, minute(now), pool.getParallelism());
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Part> parts = new ArrayList<>();
+        for (int p = 0; p < scan.slices; p++) {
+            parts.add(new Part(scan, (int) ((long) scan.rows * p / scan.slices), (int) ((long) scan.rows * (p + 1) / scan.slices)));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> {
+            ForkJoinTask.invokeAll(parts);
+        }));
+        Totals totals = new Totals(patientOrdinals, scan.doctors, scan.patients);
+        List<Slice> slices = new ArrayList<>();
+        for (int s = 0; s < scan.slices; s++) {
+            slices.add(new Slice(scan, parts, s, totals));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> {
+            ForkJoinTask.invokeAll(slices);
+        }));
+        for (Part part: parts) {
+            totals.total += part.total;
+            totals.completed += part.completed;
+            totals.upcoming += part.upcoming;
+        }
+        totals.overdue = totals.total - totals.completed - totals.upcoming;
+        return totals.rank(doctors);
+    }
+
+    //The columns and bounds of one aggregate, as they were when it started
+    private static final class Scan {
+        private final int rows;
+        private final int[] doctor;
+        private final int[] patient;
+        private final int[] startMinute;
+        private final byte[] completed;
+        private final int doctors;
+        private final int patients;
+        private final int low;
+        private final int high;
+        private final int now;
+        private final int slices;
+        //Ordinals per slice, so ordinal / width is the slice of an ordinal
+        private final int doctorWidth;
+        private final int patientWidth;
+        //Whether a dictionary is no larger than a part, so each part can count it into an array of its own
+        private final boolean doctorsDense;
+        private final boolean patientsDense;
+
+        private Scan(int rows, int[] doctor, int[] patient, int[] startMinute, byte[] completed, int doctors, int patients, int low, int high, int now, int parallelism) {
+            this.rows = rows;
+            this.doctor = doctor;
+            this.patient = patient;
+            this.startMinute = startMinute;
+            this.completed = completed;
+            this.doctors = doctors;
+            this.patients = patients;
+            this.low = low;
+            this.high = high;
+            this.now = now;
+            this.slices = Math.max(1, Math.min(parallelism, rows));
+            this.doctorWidth = Math.max(1, (doctors + slices - 1) / slices);
+            this.patientWidth = Math.max(1, (patients + slices - 1) / slices);
+            this.doctorsDense = doctors <= rows / slices;
+            this.patientsDense = patients <= rows / slices;
+        }
+    }
+
+    //Counts the totals of rows [start, end) and the doctor and patient ordinals of the rows in range: into an array of the part's own for a dictionary no larger than the part, otherwise listed by slice
+    @SuppressWarnings("serial")
+    private static final class Part extends RecursiveAction {
+        private final Scan scan;
+        private final int start;
+        private final int end;
+        private int[] doctorCounts;
+        private int[] patientCounts;
+        private int[][] doctorOrdinals;
+        private int[][] patientOrdinals;
+        private int total;
+        private int completed;
+        private int upcoming;
+
+        private Part(Scan scan, int start, int end) {
+            this.scan = scan;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            int[] startColumn = scan.startMinute;
+            int[] doctorColumn = scan.doctor;
+            int[] patientColumn = scan.patient;
+            byte[] completedColumn = scan.completed;
+            int low = scan.low;
+            int high = scan.high;
+            boolean doctorsDense = scan.doctorsDense;
+            boolean patientsDense = scan.patientsDense;
+            //Counts of the dense dictionaries, and the length of each slice of the listed ones
+            int[] doctorSizes = doctorsDense ? new int[scan.doctors] : new int[scan.slices];
+            int[] patientSizes = patientsDense ? new int[scan.patients] : new int[scan.slices];
+            int matched = 0;
+            int done = 0;
+            int later = 0;
+            for (int i = start; i < end; i++) {
+                int time = startColumn[i];
+                if (time >= low && time < high) {
+                    doctorSizes[doctorsDense ? doctorColumn[i] : doctorColumn[i] / scan.doctorWidth]++;
+                    patientSizes[patientsDense ? patientColumn[i] : patientColumn[i] / scan.patientWidth]++;
+                    matched++;
+                    done += completedColumn[i];
+                    later += completedColumn[i] == 0 && time > scan.now ? 1 : 0;
+                }
+            }
+            total = matched;
+            completed = done;
+            upcoming = later;
+            if (doctorsDense) {
+                doctorCounts = doctorSizes;
+            } else {
+                doctorOrdinals = list(doctorColumn, doctorSizes, scan.doctorWidth);
+            }
+            if (patientsDense) {
+                patientCounts = patientSizes;
+            } else {
+                patientOrdinals = list(patientColumn, patientSizes, scan.patientWidth);
+            }
+        }
+
+        //Lists the ordinals of the rows in range by slice, into arrays of the sizes counted. A row rescheduled in or out of the range since it was counted is left out or cut short, as the count may see it before or after the change
+        private int[][] list(int[] column, int[] sizes, int width) {
+            int[][] ordinals = new int[sizes.length][];
+            for (int s = 0; s < sizes.length; s++) {
+                ordinals[s] = new int[sizes[s]];
+                sizes[s] = 0;
+            }
+            int[] startColumn = scan.startMinute;
+            for (int i = start; i < end; i++) {
+                int time = startColumn[i];
+                if (time >= scan.low && time < scan.high) {
+                    int slice = column[i] / width;
+                    if (sizes[slice] < ordinals[slice].length) {
+                        ordinals[slice][sizes[slice]++] = column[i];
+                    }
+                }
+            }
+            for (int s = 0; s < sizes.length; s++) {
+                if (sizes[s] < ordinals[s].length) {
+                    ordinals[s] = Arrays.copyOf(ordinals[s], sizes[s]);
+                }
+            }
+            return ordinals;
+        }
+    }
+
+    //Adds up one slice of the ordinals from every part into the counts; no other slice writes those counts
+    @SuppressWarnings("serial")
+    private static final class Slice extends RecursiveAction {
+        private final Scan scan;
+        private final List<Part> parts;
+        private final int slice;
+        private final Totals totals;
+
+        private Slice(Scan scan, List<Part> parts, int slice, Totals totals) {
+            this.scan = scan;
+            this.parts = parts;
+            this.slice = slice;
+            this.totals = totals;
+        }
+
+        @Override
+        protected void compute() {
+            for (Part part: parts) {
+                add(totals.doctorCounts, scan.doctorWidth, part.doctorCounts, part.doctorOrdinals);
+                add(totals.patientCounts, scan.patientWidth, part.patientCounts, part.patientOrdinals);
+            }
+        }
+
+        private void add(int[] into, int width, int[] counts, int[][] ordinals) {
+            if (counts != null) {
+                for (int i = slice * width, end = Math.min(into.length, (slice + 1) * width); i < end; i++) {
+                    into[i] += counts[i];
+                }
+            } else {
+                for (int ordinal: ordinals[slice]) {
+                    into[ordinal]++;
+                }
+            }
+        }
+    }
+
+    private void grow() {
+        int capacity = doctor.length * 2;
+        doctor = Arrays.copyOf(doctor, capacity);
+        patient = Arrays.copyOf(patient, capacity);
+        startMinute = Arrays.copyOf(startMinute, capacity);
+        duration = Arrays.copyOf(duration, capacity);
+        completed = Arrays.copyOf(completed, capacity);
+        second = Arrays.copyOf(second, capacity);
+    }
+
+    private static Map<String, Integer> byCount(int[] counts, StringDictionary names) {
+        Integer[] ordinals = new Integer[counts.length];
+        int n = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                ordinals[n++] = i;
+            }
+        }
+        Arrays.sort(ordinals, 0, n, (a, b) -> counts[b] != counts[a] ? Integer.compare(counts[b], counts[a]) : Integer.compare(a, b));
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            result.put(names.value(ordinals[i]), counts[ordinals[i]]);
+        }
+        return result;
+    }
+
+    //Epoch minutes fit an int until the year 6053; appointments without a time sort before every range
+    private static int minute(long epochSecond) {
+        return epochSecond == CompactFields.NO_TIME ? Integer.MIN_VALUE : (int) Math.floorDiv(epochSecond, 60);
+    }
+
+    private static byte second(long epochSecond) {
+        return epochSecond == CompactFields.NO_TIME ? 0 : (byte) Math.floorMod(epochSecond, 60);
+    }
+
+    private static int minute(LocalDateTime time) {
+        return minute(CompactFields.epoch(time));
+    }
+}
@@ -0,0 +1,570 @@
+package smarthealth;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Class representing the store of appointments, together with the indexes and statistics kept over them
+ * <p>Every change to an appointment goes through this class. Changes are serialized per doctor and per patient with striped locks, so the conflict check and the insert of a booking are atomic: two desks booking the same doctor or patient for the same time can never both succeed, while bookings for unrelated doctors and patients run in parallel.
+ */
+public class AppointmentRepository {
+
+    /**
+     * Receives every appointment change once the locks of the appointment's doctor and patient are released, so a slow listener does not hold up other bookings
+     * <p>Changes are handed over in the order they were made for each doctor, so changes to one appointment are seen in order.
+     */
+    public interface Listener {
+        void booked(Appointment appointment);
+        void rescheduled(Appointment appointment);
+        void completed(Appointment appointment);
+    }
+
+    private static final int LOCK_STRIPES = 256;
+    //Whole booking including the wait for locks, then its two phases under the locks
+    private static final Metrics.Timer BOOKING = Metrics.timer("booking");
+    private static final Metrics.Timer CONFLICT_CHECK = Metrics.timer("booking.conflictCheck");
+    private static final Metrics.Timer INSERT = Metrics.timer("booking.insert");
+    //Whole batch booking including the wait for locks
+    private static final Metrics.Timer BATCH = Metrics.timer("booking.batch");
+    private static final Metrics.Counter BOOKED = Metrics.counter("booking.booked");
+    private static final Metrics.Counter REJECTED = Metrics.counter("booking.rejected");
+    //Set -Dsmarthealth.columns=false to keep no columnar copy; the analytics then walk the appointment objects instead
+    private static final boolean COLUMNS = Boolean.parseBoolean(System.getProperty("smarthealth.columns", "true"));
+    //First appointment ID of this process, set apart per shard (-Dsmarthealth.idBase) so shards never hand out the same ID
+    private static final long ID_BASE = Long.getLong("smarthealth.idBase", 0);
+
+    private final Map<String, Appointment> appointments;
+    private final PatientRepository patients;
+    private final DoctorRepository doctors;
+    private final ScheduleIndex schedule = new ScheduleIndex();
+    private final AppointmentTimeIndex timeline = new AppointmentTimeIndex();
+    private final ClinicStatistics statistics = new ClinicStatistics();
+    private final AvailabilityCalendar availability = new AvailabilityCalendar();
+    private final AppointmentColumns columns = COLUMNS ? new AppointmentColumns() : null;
+    private final IdAllocator ids = new IdAllocator();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final Delivery[] deliveries = new Delivery[LOCK_STRIPES];
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public AppointmentRepository(PatientRepository patients, DoctorRepository doctors) {
+        this(new ConcurrentHashMap<>(), patients, doctors);
+    }
+
+    /**
+     * Wraps loaded appointments and builds the indexes, statistics and ID sequence over them
+     */
+    public AppointmentRepository(Map<String, Appointment> appointments, PatientRepository patients, DoctorRepository doctors) {
+        this.appointments = appointments instanceof ConcurrentHashMap || appointments instanceof MappedRecordMap ? appointments : new ConcurrentHashMap<>(appointments);
+        this.patients = patients;
+        this.doctors = doctors;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+            deliveries[i] = new Delivery();
+        }
+        schedule.rebuild(this.appointments.values());
+        timeline.rebuild(this.appointments.values());
+        availability.rebuild(this.appointments.values());
+        if (columns != null) {
+            columns.rebuild(this.appointments.values());
+        }
+        ids.restore(this.appointments.keySet());
+        ids.advanceTo(ID_BASE);
+        statistics.rebuild(this.appointments.values(), doctors.asMap());
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Books an appointment if the doctor and the patient are both free for its whole duration, and it lies within the doctor's working hours and outside their blocked time
+     * <p>The conflict checks and the insert happen under the doctor's and the patient's locks, so they are atomic with respect to every other booking.
+     */
+    public BookingResult book(String patientId, String doctorId, String reason, LocalDateTime datetime, int duration) {
+        if (!patients.contains(patientId)) {
+            return new BookingResult(BookingResult.Status.UNKNOWN_PATIENT, null);
+        }
+        Doctor doctor = doctors.get(doctorId);
+        if (doctor == null) {
+            return new BookingResult(BookingResult.Status.UNKNOWN_DOCTOR, null);
+        }
+        if (!datetime.isAfter(LocalDateTime.now())) {
+            return new BookingResult(BookingResult.Status.NOT_IN_FUTURE, null);
+        }
+        long started = Metrics.start();
+        BookingResult result = withLocks(doctorId, patientId, changes -> {
+            long checking = Metrics.start();
+            BookingResult rejected = check(patientId, doctorId, datetime, duration);
+            long inserting = CONFLICT_CHECK.stop(checking);
+            if (rejected != null) {
+                return rejected;
+            }
+            Appointment appointment = insert(patientId, doctor, reason, datetime, duration, changes);
+            INSERT.stop(inserting);
+            return new BookingResult(BookingResult.Status.BOOKED, appointment);
+        });
+        BOOKING.stop(started);
+        (result.getStatus() == BookingResult.Status.BOOKED ? BOOKED : REJECTED).increment();
+        return result;
+    }
+
+    /**
+     * Books a series of appointments for one patient and doctor, all of them or none
+     * <p>The slots are sorted and checked in one merge pass over the doctor's and the patient's schedules, under their locks, and are only inserted once every one of them is free, so other bookings see either the whole series or none of it. A rejected batch reports every slot that could not be booked.
+     * @param starts start times of the slots, in any order
+     * @throws IllegalArgumentException if there are no slots or two of them overlap each other
+     */
+    public BatchBookingResult bookAll(String patientId, String doctorId, String reason, Collection<LocalDateTime> starts, int duration) {
+        List<LocalDateTime> sorted = new ArrayList<>(starts);
+        Collections.sort(sorted);
+        if (sorted.isEmpty()) {
+            throw new IllegalArgumentException("No slots to book");
+        }
+        for (int i = 1; i < sorted.size(); i++) {
+            if (sorted.get(i - 1).plusMinutes(duration).isAfter(sorted.get(i))) {
+                throw new IllegalArgumentException("Slots " + sorted.get(i - 1) + " and " + sorted.get(i) + " overlap");
+            }
+        }
+        if (!patients.contains(patientId)) {
+            return new BatchBookingResult(BookingResult.Status.UNKNOWN_PATIENT, List.of(), Map.of());
+        }
+        Doctor doctor = doctors.get(doctorId);
+        if (doctor == null) {
+            return new BatchBookingResult(BookingResult.Status.UNKNOWN_DOCTOR, List.of(), Map.of());
+        }
+        long started = Metrics.start();
+        BatchBookingResult result = withLocks(doctorId, patientId, changes -> {
+            Map<LocalDateTime, BookingResult> rejected = new LinkedHashMap<>();
+            Appointment[] doctorConflicts = schedule.findDoctorConflicts(doctorId, sorted, duration);
+            Appointment[] patientConflicts = schedule.findPatientConflicts(patientId, sorted, duration);
+            LocalDateTime now = LocalDateTime.now();
+            for (int i = 0; i < sorted.size(); i++) {
+                LocalDateTime start = sorted.get(i);
+                if (!start.isAfter(now)) {
+                    rejected.put(start, new BookingResult(BookingResult.Status.NOT_IN_FUTURE, null));
+                } else if (!availability.isAvailable(doctorId, start, duration)) {
+                    rejected.put(start, new BookingResult(BookingResult.Status.DOCTOR_OFF_DUTY, null));
+                } else if (doctorConflicts[i] != null) {
+                    rejected.put(start, new BookingResult(BookingResult.Status.DOCTOR_UNAVAILABLE, doctorConflicts[i]));
+                } else if (patientConflicts[i] != null) {
+                    rejected.put(start, new BookingResult(BookingResult.Status.PATIENT_UNAVAILABLE, patientConflicts[i]));
+                }
+            }
+            if (!rejected.isEmpty()) {
+                return new BatchBookingResult(rejected.values().iterator().next().getStatus(), List.of(), rejected);
+            }
+            List<Appointment> booked = new ArrayList<>(sorted.size());
+            for (LocalDateTime start: sorted) {
+                booked.add(insert(patientId, doctor, reason, start, duration, changes));
+            }
+            return new BatchBookingResult(BookingResult.Status.BOOKED, booked, rejected);
+        });
+        BATCH.stop(started);
+        if (result.isBooked()) {
+            BOOKED.add(result.getAppointments().size());
+        } else {
+            REJECTED.increment();
+        }
+        return result;
+    }
+
+    //Creates the appointment and adds it to the store, the indexes and the statistics, and adds the booking to the changes for the listeners; the caller holds the locks and has checked the slot
+    private Appointment insert(String patientId, Doctor doctor, String reason, LocalDateTime datetime, int duration, List<Consumer<Listener>> changes) {
+        Appointment appointment = new Appointment(ids.next(), doctor.getId(), patientId, reason, datetime, duration);
+        appointments.put(appointment.getAppointmentId(), appointment);
+        schedule.add(appointment);
+        timeline.add(appointment);
+        availability.booked(appointment);
+        if (columns != null) {
+            columns.add(appointment);
+        }
+        statistics.booked(appointment, doctor.getSpecialization());
+        changes.add(l -> l.booked(appointment));
+        return appointment;
+    }
+
+    //Returns why the slot cannot be booked, or null when it is free
+    private BookingResult check(String patientId, String doctorId, LocalDateTime datetime, int duration) {
+        if (!availability.isAvailable(doctorId, datetime, duration)) {
+            return new BookingResult(BookingResult.Status.DOCTOR_OFF_DUTY, null);
+        }
+        Appointment conflict = schedule.findDoctorConflict(doctorId, datetime, duration, null);
+        if (conflict != null) {
+            return new BookingResult(BookingResult.Status.DOCTOR_UNAVAILABLE, conflict);
+        }
+        conflict = schedule.findPatientConflict(patientId, datetime, duration, null);
+        if (conflict != null) {
+            return new BookingResult(BookingResult.Status.PATIENT_UNAVAILABLE, conflict);
+        }
+        return null;
+    }
+
+    /**
+     * Moves an existing appointment to a new date and time
+     * <p>The new slot is checked against both the doctor's and the patient's schedule, ignoring the appointment being moved, and against the doctor's availability.
+     * @return true if the appointment was rescheduled, false if the ID is unknown, the doctor is off duty or the new slot overlaps another appointment
+     */
+    public boolean reschedule(String appointmentId, LocalDateTime datetime) {
+        Appointment appointment = appointments.get(appointmentId);
+        if (appointment == null) {
+            return false;
+        }
+        return withLocks(appointment.getDoctorId(), appointment.getPatientId(), changes -> {
+            int duration = appointment.getDurationMinutes();
+            if (!availability.isAvailable(appointment.getDoctorId(), datetime, duration)
+                    || schedule.findDoctorConflict(appointment.getDoctorId(), datetime, duration, appointment) != null
+                    || schedule.findPatientConflict(appointment.getPatientId(), datetime, duration, appointment) != null) {
+                return false;
+            }
+            LocalDateTime previous = appointment.getDateTime();
+            schedule.reschedule(appointment, datetime);
+            timeline.rescheduled(appointment, previous);
+            availability.released(appointment.getDoctorId(), previous, duration);
+            availability.booked(appointment);
+            statistics.rescheduled(appointment, previous);
+            changes.add(l -> l.rescheduled(appointment));
+            return true;
+        });
+    }
+
+    /**
+     * Marks an appointment as completed
+     * @return true if the appointment was marked, false if the ID is unknown or it was already completed
+     */
+    public boolean complete(String appointmentId) {
+        Appointment appointment = appointments.get(appointmentId);
+        if (appointment == null) {
+            return false;
+        }
+        return withLocks(appointment.getDoctorId(), appointment.getPatientId(), changes -> {
+            if (appointment.isCompleted()) {
+                return false;
+            }
+            appointment.markCompleted();
+            timeline.completed(appointment);
+            statistics.completed(appointment);
+            changes.add(l -> l.completed(appointment));
+            return true;
+        });
+    }
+
+    /**
+     * Returns the doctor's appointment overlapping the given interval, or null when the doctor is free
+     */
+    public Appointment findDoctorConflict(String doctorId, LocalDateTime start, int duration) {
+        synchronized (lockFor(doctorId)) {
+            return schedule.findDoctorConflict(doctorId, start, duration, null);
+        }
+    }
+
+    /**
+     * Returns the patient's appointment overlapping the given interval, or null when the patient is free
+     */
+    public Appointment findPatientConflict(String patientId, LocalDateTime start, int duration) {
+        synchronized (lockFor(patientId)) {
+            return schedule.findPatientConflict(patientId, start, duration, null);
+        }
+    }
+
+    /**
+     * Returns the earliest start time, not before {@code from}, at which the doctor is free for {@code duration} minutes
+     */
+    public LocalDateTime nextFreeDoctorSlot(String doctorId, LocalDateTime from, int duration) {
+        synchronized (lockFor(doctorId)) {
+            return schedule.nextFreeDoctorSlot(doctorId, from, duration);
+        }
+    }
+
+    /**
+     * Replaces a doctor's working hours, see {@link AvailabilityCalendar#setWorkingHours}
+     */
+    public void setWorkingHours(String doctorId, AvailabilityCalendar.WorkingHours hours) {
+        synchronized (lockFor(doctorId)) {
+            availability.setWorkingHours(doctorId, hours);
+        }
+    }
+
+    /**
+     * Blocks a doctor's time so it can no longer be booked; appointments already booked in it are kept
+     */
+    public void block(String doctorId, LocalDateTime from, LocalDateTime to) {
+        synchronized (lockFor(doctorId)) {
+            availability.block(doctorId, from, to);
+        }
+    }
+
+    /**
+     * Frees the doctor's blocks overlapping the given interval
+     * @return the number of blocks removed
+     */
+    public int unblock(String doctorId, LocalDateTime from, LocalDateTime to) {
+        synchronized (lockFor(doctorId)) {
+            return availability.unblock(doctorId, from, to);
+        }
+    }
+
+    /**
+     * Returns the earliest free slot of any of the doctors, see {@link AvailabilityCalendar#earliestFree}
+     */
+    public AvailabilityCalendar.Slot earliestFree(Collection<String> doctorIds, LocalDateTime from, int days, int duration) {
+        return availability.earliestFree(doctorIds, from, days, duration);
+    }
+
+    /**
+     * Returns a page of the doctor's appointments in time order, see {@link ScheduleIndex#doctorAppointments}
+     */
+    public List<Appointment> forDoctor(String doctorId, LocalDateTime after, int limit) {
+        synchronized (lockFor(doctorId)) {
+            return schedule.doctorAppointments(doctorId, after, limit);
+        }
+    }
+
+    /**
+     * Returns a page of the patient's appointments in time order, see {@link ScheduleIndex#patientAppointments}
+     */
+    public List<Appointment> forPatient(String patientId, LocalDateTime after, int limit) {
+        synchronized (lockFor(patientId)) {
+            return schedule.patientAppointments(patientId, after, limit);
+        }
+    }
+
+    /**
+     * Returns the appointments starting in [from, to), in time order
+     */
+    public List<Appointment> between(LocalDateTime from, LocalDateTime to) {
+        return timeline.between(from, to);
+    }
+
+    /**
+     * Returns the number of appointments starting in [from, to), how many of them are completed and their booked minutes
+     */
+    public AppointmentColumns.Summary summary(LocalDateTime from, LocalDateTime to) {
+        if (columns != null) {
+            return columns.summary(from, to);
+        }
+        int total = 0;
+        int completed = 0;
+        long minutes = 0;
+        for (Appointment a: timeline.between(from, to)) {
+            total++;
+            completed += a.isCompleted() ? 1 : 0;
+            minutes += a.getDurationMinutes();
+        }
+        return new AppointmentColumns.Summary(total, completed, minutes);
+    }
+
+    /**
+     * Returns the number of appointments starting in [from, to) per doctor ID, busiest first
+     */
+    public Map<String, Integer> doctorWorkload(LocalDateTime from, LocalDateTime to) {
+        if (columns != null) {
+            return columns.doctorWorkload(from, to);
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        for (Appointment a: timeline.between(from, to)) {
+            counts.merge(a.getDoctorId(), 1, Integer::sum);
+        }
+        Map<String, Integer> result = new LinkedHashMap<>();
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .forEach(e -> result.put(e.getKey(), e.getValue()));
+        return result;
+    }
+
+    /**
+     * Returns the number of appointments starting in [from, to) per patient ID, most frequent first
+     */
+    public Map<String, Integer> patientVisits(LocalDateTime from, LocalDateTime to) {
+        if (columns != null) {
+            return columns.patientVisits(from, to);
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        for (Appointment a: timeline.between(from, to)) {
+            counts.merge(a.getPatientId(), 1, Integer::sum);
+        }
+        Map<String, Integer> result = new LinkedHashMap<>();
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .forEach(e -> result.put(e.getKey(), e.getValue()));
+        return result;
+    }
+
+    /**
+     * Returns how many appointments starting in [from, to) begin in each hour of the day
+     */
+    public int[] hourOfDay(LocalDateTime from, LocalDateTime to) {
+        if (columns != null) {
+            return columns.hourOfDay(from, to);
+        }
+        int[] counts = new int[24];
+        for (Appointment a: timeline.between(from, to)) {
+            counts[a.getDateTime().getHour()]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the report aggregates of the appointments starting in [from, to), counted in parallel on the given pool, see {@link AppointmentColumns#aggregate}
+     * <p>Without the columnar copy the appointments in range are counted one by one into a fresh {@link ClinicStatistics} instead.
+     * @param from start of the range, or null for no lower bound
+     * @param to end of the range (exclusive), or null for no upper bound
+     */
+    public ReportEngine.Aggregates aggregate(LocalDateTime from, LocalDateTime to, LocalDateTime now, ForkJoinPool pool) {
+        if (columns != null) {
+            return columns.aggregate(from, to, now, doctors.asMap(), pool);
+        }
+        ClinicStatistics statistics = new ClinicStatistics();
+        statistics.rebuild(from == null && to == null ? appointments.values()
+                : timeline.between(from == null ? LocalDateTime.MIN : from, to == null ? LocalDateTime.MAX : to), doctors.asMap());
+        return statistics;
+    }
+
+    /**
+     * Returns the appointments starting after the given time, in time order
+     */
+    public List<Appointment> upcoming(LocalDateTime now) {
+        return timeline.after(now);
+    }
+
+    /**
+     * Returns the appointments whose time has passed without being completed, in time order
+     */
+    public List<Appointment> overdue(LocalDateTime now) {
+        return timeline.overdue(now);
+    }
+
+    /**
+     * Returns a cursor over the doctor's appointments in time order, fetched a page at a time
+     */
+    public ResultCursor<Appointment> doctorCursor(String doctorId, int pageSize) {
+        return ResultCursor.paged((last, limit) -> forDoctor(doctorId, last == null ? null : last.getDateTime(), limit), pageSize);
+    }
+
+    /**
+     * Returns a cursor over the patient's appointments in time order, fetched a page at a time
+     */
+    public ResultCursor<Appointment> patientCursor(String patientId, int pageSize) {
+        return ResultCursor.paged((last, limit) -> forPatient(patientId, last == null ? null : last.getDateTime(), limit), pageSize);
+    }
+
+    /**
+     * Returns a lazy cursor over the appointments starting in [from, to), in time order
+     */
+    public ResultCursor<Appointment> betweenCursor(LocalDateTime from, LocalDateTime to) {
+        return ResultCursor.of(timeline.iterateBetween(from, to));
+    }
+
+    /**
+     * Returns a lazy cursor over the appointments starting after the given time, in time order
+     */
+    public ResultCursor<Appointment> upcomingCursor(LocalDateTime now) {
+        return ResultCursor.of(timeline.iterateAfter(now));
+    }
+
+    /**
+     * Returns a lazy cursor over the appointments whose time has passed without being completed, in time order
+     */
+    public ResultCursor<Appointment> overdueCursor(LocalDateTime now) {
+        return ResultCursor.of(timeline.iterateOverdue(now));
+    }
+
+    /**
+     * Returns a new unique appointment ID
+     */
+    public String nextId() {
+        return ids.next();
+    }
+
+    public Appointment get(String id) { return appointments.get(id); }
+    public int size() { return appointments.size(); }
+    public Collection<Appointment> all() { return Collections.unmodifiableCollection(appointments.values()); }
+    public ClinicStatistics getStatistics() { return statistics; }
+    public AvailabilityCalendar getAvailability() { return availability; }
+    //Null when the columnar copy is turned off
+    public AppointmentColumns getColumns() { return columns; }
+
+    /**
+     * Returns a read-only view of the appointments by ID, used to save them
+     */
+    public Map<String, Appointment> asMap() { return Collections.unmodifiableMap(appointments); }
+
+    private Object lockFor(String id) {
+        return locks[stripe(id)];
+    }
+
+    private static int stripe(String id) {
+        return (id.hashCode() & 0x7fffffff) % LOCK_STRIPES;
+    }
+
+    //Runs the action holding the locks of both IDs, always taken in stripe order so two bookings can never deadlock, then hands the changes the action added to the listeners once the locks are released
+    private <T> T withLocks(String doctorId, String patientId, Function<List<Consumer<Listener>>, T> action) {
+        int a = stripe(doctorId);
+        int b = stripe(patientId);
+        Delivery delivery = deliveries[a];
+        List<Consumer<Listener>> changes = new ArrayList<>(1);
+        long ticket = -1;
+        T result;
+        synchronized (locks[Math.min(a, b)]) {
+            synchronized (locks[Math.max(a, b)]) {
+                result = action.apply(changes);
+                if (!changes.isEmpty()) {
+                    ticket = delivery.take();
+                }
+            }
+        }
+        if (ticket >= 0) {
+            delivery.await(ticket);
+            try {
+                for (Consumer<Listener> change: changes) {
+                    for (Listener l: listeners) {
+                        change.accept(l);
+                    }
+                }
+            } finally {
+                delivery.done();
+            }
+        }
+        return result;
+    }
+
+    //Tickets of the changes made under one doctor stripe: taken under the stripe's lock, so they number the changes in the order they were made, and handed to the listeners strictly in that order
+    private static final class Delivery {
+        private long taken;
+        private long delivered;
+
+        private synchronized long take() {
+            return taken++;
+        }
+
+        //Waits until every earlier ticket was delivered; not interruptible, as skipping a turn would stall the stripe
+        private synchronized void await(long ticket) {
+            boolean interrupted = false;
+            while (delivered != ticket) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private synchronized void done() {
+            delivered++;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package smarthealth;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Class representing the time-ordered index over all appointments of the smart health system
+ * <p>Appointments are kept in concurrent skip lists keyed by epoch second, one over every appointment and one over the ones not yet completed, so range queries such as "the next 7 days" or "past and not completed" cost O(log n + k) for k results instead of a scan.
+ */
+public class AppointmentTimeIndex {
+
+    private final ConcurrentSkipListSet<Slot> all = new ConcurrentSkipListSet<>();
+    private final ConcurrentSkipListSet<Slot> pending = new ConcurrentSkipListSet<>();
+
+    /**
+     * Drops every entry and indexes the given appointments again, used after loading saved data
+     */
+    public void rebuild(Collection<Appointment> appointments) {
+        all.clear();
+        pending.clear();
+        for (Appointment a: appointments) {
+            add(a);
+        }
+    }
+
+    public void add(Appointment appointment) {
+        Slot slot = new Slot(epoch(appointment.getDateTime()), appointment);
+        all.add(slot);
+        if (!appointment.isCompleted()) {
+            pending.add(slot);
+        }
+    }
+
+    /**
+     * Moves an appointment that has already been given its new date and time
+     * @param previous date and time the appointment had before it was moved
+     */
+    public void rescheduled(Appointment appointment, LocalDateTime previous) {
+        Slot old = new Slot(epoch(previous), appointment);
+        all.remove(old);
+        pending.remove(old);
+        add(appointment);
+    }
+
+    public void completed(Appointment appointment) {
+        pending.remove(new Slot(epoch(appointment.getDateTime()), appointment));
+    }
+
+    /**
+     * Returns the appointments starting in [from, to), in time order
+     */
+    public List<Appointment> between(LocalDateTime from, LocalDateTime to) {
+        return collect(iterateBetween(from, to));
+    }
+
+    /**
+     * Returns the appointments starting after the given time, in time order
+     */
+    public List<Appointment> after(LocalDateTime time) {
+        return collect(iterateAfter(time));
+    }
+
+    /**
+     * Returns the appointments whose time is before the given one and that were not completed, in time order
+     */
+    public List<Appointment> overdue(LocalDateTime now) {
+        return collect(iterateOverdue(now));
+    }
+
+    /**
+     * Iterates lazily over the appointments starting in [from, to), in time order
+     */
+    public Iterator<Appointment> iterateBetween(LocalDateTime from, LocalDateTime to) {
+        return appointments(all.subSet(lowest(epoch(from)), true, lowest(epoch(to)), false));
+    }
+
+    /**
+     * Iterates lazily over the appointments starting after the given time, in time order
+     */
+    public Iterator<Appointment> iterateAfter(LocalDateTime time) {
+        return appointments(all.tailSet(lowest(epoch(time) + 1), true));
+    }
+
+    /**
+     * Iterates lazily over the appointments whose time is before the given one and that were not completed, in time order
+     */
+    public Iterator<Appointment> iterateOverdue(LocalDateTime now) {
+        return appointments(pending.headSet(lowest(epoch(now)), false));
+    }
+
+    private static Iterator<Appointment> appointments(NavigableSet<Slot> slots) {
+        Iterator<Slot> it = slots.iterator();
+        return new Iterator<Appointment>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Appointment next() {
+                return it.next().appointment;
+            }
+        };
+    }
+
+    private static List<Appointment> collect(Iterator<Appointment> appointments) {
+        List<Appointment> result = new ArrayList<>();
+        appointments.forEachRemaining(result::add);
+        return result;
+    }
+
+    private static long epoch(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    //Key sorting before every appointment at the given second
+    private static Slot lowest(long epochSecond) {
+        return new Slot(epochSecond, null);
+    }
+
+    //Appointment keyed by the second it was indexed at, so it can still be found after the appointment itself has been moved
+    private static final class Slot implements Comparable<Slot> {
+        private final long epochSecond;
+        private final Appointment appointment;
+
+        private Slot(long epochSecond, Appointment appointment) {
+            this.epochSecond = epochSecond;
+            this.appointment = appointment;
+        }
+
+        @Override
+        public int compareTo(Slot other) {
+            int byTime = Long.compare(epochSecond, other.epochSecond);
+            if (byTime != 0) {
+                return byTime;
+            }
+            if (appointment == null || other.appointment == null) {
+                return appointment == other.appointment ? 0 : (appointment == null ? -1 : 1);
+            }
+            return appointment.getAppointmentId().compareTo(other.appointment.getAppointmentId());
+        }
+    }
+}
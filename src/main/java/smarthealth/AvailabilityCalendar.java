@@ -0,0 +1,480 @@
+package smarthealth;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class representing the availability calendar of the doctors of the smart health system
+ * <p>Every day of a doctor is a compact bitset of fixed-length slots (15 minutes by default, 96 bits in two longs), kept separately for booked and blocked time, next to a bitset of working hours for each day of the week. Whether a doctor is free for a run of slots is then a few AND-NOT operations, and the earliest free slot across all doctors of a specialization is searched one doctor per task on the common fork-join pool.
+ * <p>Appointments and blocked time are rounded outwards to whole slots, so the bitsets may show a partly used slot as busy but never a busy one as free. A doctor without working hours of their own still accepts bookings at any time, as before; the slot finder offers them {@link #DEFAULT_HOURS}.
+ */
+public class AvailabilityCalendar {
+
+    public static final int DEFAULT_SLOT_MINUTES = 15;
+
+    /**
+     * Weekly working hours of a doctor: any number of intervals per day of the week
+     */
+    public static final class WorkingHours {
+        private final Map<DayOfWeek, List<LocalTime[]>> days = new EnumMap<>(DayOfWeek.class);
+
+        /**
+         * Adds working time on a day of the week, from start to end on the same day
+         */
+        public WorkingHours add(DayOfWeek day, LocalTime start, LocalTime end) {
+            if (!end.isAfter(start)) {
+                throw new IllegalArgumentException("Working hours must end after they start");
+            }
+            days.computeIfAbsent(day, k -> new ArrayList<>()).add(new LocalTime[] {start, end});
+            return this;
+        }
+
+        /**
+         * Returns the same hours on every day from {@code first} to {@code last}
+         */
+        public static WorkingHours of(DayOfWeek first, DayOfWeek last, LocalTime start, LocalTime end) {
+            WorkingHours hours = new WorkingHours();
+            for (int d = first.getValue(); d <= last.getValue(); d++) {
+                hours.add(DayOfWeek.of(d), start, end);
+            }
+            return hours;
+        }
+
+        public List<LocalTime[]> on(DayOfWeek day) {
+            return days.getOrDefault(day, List.of());
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            for (Map.Entry<DayOfWeek, List<LocalTime[]>> e: days.entrySet()) {
+                for (LocalTime[] interval: e.getValue()) {
+                    out.append(out.length() == 0 ? "" : ", ").append(e.getKey()).append(' ').append(interval[0]).append('-').append(interval[1]);
+                }
+            }
+            return out.length() == 0 ? "None" : out.toString();
+        }
+    }
+
+    /**
+     * A free slot found for a doctor
+     */
+    public static final class Slot {
+        private final String doctorId;
+        private final LocalDateTime start;
+
+        private Slot(String doctorId, LocalDateTime start) {
+            this.doctorId = doctorId;
+            this.start = start;
+        }
+
+        public String getDoctorId() { return doctorId; }
+        public LocalDateTime getStart() { return start; }
+    }
+
+    //Hours the slot finder assumes for doctors without hours of their own
+    public static final WorkingHours DEFAULT_HOURS = WorkingHours.of(DayOfWeek.MONDAY, DayOfWeek.FRIDAY, LocalTime.of(8, 0), LocalTime.of(18, 0));
+
+    private final int slotMinutes;
+    private final int slotsPerDay;
+    private final int words;
+    private final long[][] defaultMasks;
+    private final ConcurrentHashMap<String, DoctorCalendar> doctors = new ConcurrentHashMap<>();
+
+    public AvailabilityCalendar() {
+        this(DEFAULT_SLOT_MINUTES);
+    }
+
+    /**
+     * @param slotMinutes slot length, which must divide an hour (5 and 15 are the usual choices)
+     */
+    public AvailabilityCalendar(int slotMinutes) {
+        if (slotMinutes <= 0 || 60 % slotMinutes != 0) {
+            throw new IllegalArgumentException("Slot length must divide an hour");
+        }
+        this.slotMinutes = slotMinutes;
+        this.slotsPerDay = 24 * 60 / slotMinutes;
+        this.words = (slotsPerDay + 63) / 64;
+        this.defaultMasks = masks(DEFAULT_HOURS);
+    }
+
+    public int getSlotMinutes() { return slotMinutes; }
+
+    /**
+     * Replaces a doctor's working hours; null goes back to accepting bookings at any time
+     */
+    public void setWorkingHours(String doctorId, WorkingHours hours) {
+        calendar(doctorId).setHours(hours, hours == null ? null : masks(hours));
+    }
+
+    /**
+     * Returns a doctor's own working hours, or null when the doctor has none
+     */
+    public WorkingHours getWorkingHours(String doctorId) {
+        DoctorCalendar calendar = doctors.get(doctorId);
+        return calendar == null ? null : calendar.hours;
+    }
+
+    /**
+     * Blocks a doctor's time from {@code from} to {@code to}, e.g. for a meeting or a holiday, so it can no longer be booked
+     */
+    public void block(String doctorId, LocalDateTime from, LocalDateTime to) {
+        if (!to.isAfter(from)) {
+            throw new IllegalArgumentException("Blocked time must end after it starts");
+        }
+        calendar(doctorId).block(from, to);
+    }
+
+    /**
+     * Frees every block of the doctor overlapping {@code from} to {@code to}
+     * @return the number of blocks removed
+     */
+    public int unblock(String doctorId, LocalDateTime from, LocalDateTime to) {
+        DoctorCalendar calendar = doctors.get(doctorId);
+        return calendar == null ? 0 : calendar.unblock(from, to);
+    }
+
+    /**
+     * Returns a copy of the doctor's blocked intervals, each a start and an end
+     */
+    public List<LocalDateTime[]> blocks(String doctorId) {
+        DoctorCalendar calendar = doctors.get(doctorId);
+        return calendar == null ? new ArrayList<>() : calendar.blockList();
+    }
+
+    /**
+     * Returns whether the interval lies within the doctor's working hours, if they have any, and outside their blocked time; existing appointments are not checked
+     */
+    public boolean isAvailable(String doctorId, LocalDateTime start, int duration) {
+        DoctorCalendar calendar = doctors.get(doctorId);
+        return calendar == null || calendar.isAvailable(start, start.plusMinutes(duration));
+    }
+
+    /**
+     * Marks the slots of an appointment as booked
+     */
+    public void booked(Appointment appointment) {
+        if (tracked(appointment.getEndDateTime())) {
+            calendar(appointment.getDoctorId()).mark(appointment.getDateTime(), appointment.getEndDateTime());
+        }
+    }
+
+    /**
+     * Frees the slots an appointment of the given time used, apart from partly used slots at its ends, which may be shared with a neighbour
+     */
+    public void released(String doctorId, LocalDateTime start, int duration) {
+        DoctorCalendar calendar = doctors.get(doctorId);
+        if (calendar != null && tracked(start.plusMinutes(duration))) {
+            calendar.release(start, start.plusMinutes(duration));
+        }
+    }
+
+    /**
+     * Drops the booked slots and marks those of the given appointments again, keeping working hours and blocked time
+     */
+    public void rebuild(Collection<Appointment> appointments) {
+        for (DoctorCalendar calendar: doctors.values()) {
+            calendar.clearBooked();
+        }
+        for (Appointment a: appointments) {
+            booked(a);
+        }
+    }
+
+    /**
+     * Returns the earliest slot of at least {@code duration} minutes, from {@code from} on and over the next {@code days} days, at which one of the doctors is free; ties go to the lowest doctor ID
+     * <p>Each doctor is searched as a separate task of a parallel stream. The result is a hint: booking it checks the doctor's schedule again.
+     * @return the slot, or null when none of the doctors has one
+     */
+    public Slot earliestFree(Collection<String> doctorIds, LocalDateTime from, int days, int duration) {
+        int slots = (duration + slotMinutes - 1) / slotMinutes;
+        return doctorIds.parallelStream()
+                .map(id -> earliestFree(id, from, days, slots))
+                .filter(Objects::nonNull)
+                .min(Comparator.comparing(Slot::getStart).thenComparing(Slot::getDoctorId))
+                .orElse(null);
+    }
+
+    private Slot earliestFree(String doctorId, LocalDateTime from, int days, int slots) {
+        DoctorCalendar calendar = doctors.get(doctorId);
+        long[] free = new long[words];
+        LocalDate first = from.toLocalDate();
+        for (int d = 0; d < days; d++) {
+            LocalDate day = first.plusDays(d);
+            long epochDay = day.toEpochDay();
+            long[] hours = calendar == null || calendar.masks == null ? defaultMasks[day.getDayOfWeek().ordinal()] : calendar.masks[day.getDayOfWeek().ordinal()];
+            System.arraycopy(hours, 0, free, 0, words);
+            if (calendar != null) {
+                calendar.subtractBusy(epochDay, free);
+            }
+            int start = d == 0 ? ceilSlot(from.toLocalTime()) : 0;
+            int slot = findRun(free, start, slots);
+            if (slot >= 0) {
+                return new Slot(doctorId, day.atStartOfDay().plusMinutes((long) slot * slotMinutes));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes every doctor's working hours and blocked time, one per line
+     */
+    public void save(Writer out) throws IOException {
+        for (Map.Entry<String, DoctorCalendar> e: doctors.entrySet()) {
+            WorkingHours hours = e.getValue().hours;
+            if (hours != null) {
+                for (Map.Entry<DayOfWeek, List<LocalTime[]>> day: hours.days.entrySet()) {
+                    for (LocalTime[] interval: day.getValue()) {
+                        out.write("hours," + e.getKey() + "," + day.getKey() + "," + interval[0] + "," + interval[1] + "\n");
+                    }
+                }
+            }
+            for (LocalDateTime[] block: e.getValue().blockList()) {
+                out.write("block," + e.getKey() + "," + block[0] + "," + block[1] + "\n");
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads working hours and blocked time written by {@link #save}
+     */
+    public void load(BufferedReader in) throws IOException {
+        Map<String, WorkingHours> hours = new HashMap<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] fields = line.split(",");
+            //Doctor IDs may contain commas, so the ID is everything between the type and the fixed trailing fields
+            if (fields[0].equals("hours") && fields.length >= 5) {
+                String id = String.join(",", List.of(fields).subList(1, fields.length - 3));
+                hours.computeIfAbsent(id, k -> new WorkingHours()).add(DayOfWeek.valueOf(fields[fields.length - 3]),
+                        LocalTime.parse(fields[fields.length - 2]), LocalTime.parse(fields[fields.length - 1]));
+            } else if (fields[0].equals("block") && fields.length >= 4) {
+                String id = String.join(",", List.of(fields).subList(1, fields.length - 2));
+                block(id, LocalDateTime.parse(fields[fields.length - 2]), LocalDateTime.parse(fields[fields.length - 1]));
+            }
+        }
+        hours.forEach(this::setWorkingHours);
+    }
+
+    private DoctorCalendar calendar(String doctorId) {
+        return doctors.computeIfAbsent(doctorId, k -> new DoctorCalendar());
+    }
+
+    //Booked slots of days that are over are never looked at again, so they are not kept
+    private static boolean tracked(LocalDateTime end) {
+        return end.isAfter(LocalDate.now().atStartOfDay());
+    }
+
+    private long[][] masks(WorkingHours hours) {
+        long[][] masks = new long[DayOfWeek.values().length][words];
+        for (DayOfWeek day: DayOfWeek.values()) {
+            for (LocalTime[] interval: hours.on(day)) {
+                set(masks[day.ordinal()], floorSlot(interval[0]), interval[1].equals(LocalTime.MIDNIGHT) ? slotsPerDay : ceilSlot(interval[1]));
+            }
+        }
+        return masks;
+    }
+
+    private int floorSlot(LocalTime time) {
+        return (time.getHour() * 60 + time.getMinute()) / slotMinutes;
+    }
+
+    private int ceilSlot(LocalTime time) {
+        int minutes = time.getHour() * 60 + time.getMinute() + (time.getSecond() > 0 || time.getNano() > 0 ? 1 : 0);
+        return (minutes + slotMinutes - 1) / slotMinutes;
+    }
+
+    //Calls the action with each day touched by [from, to) and the slots it covers that day, rounded outwards
+    private void forEachDay(LocalDateTime from, LocalDateTime to, DaySlots action) {
+        LocalDate day = from.toLocalDate();
+        while (day.atStartOfDay().isBefore(to)) {
+            int start = day.equals(from.toLocalDate()) ? floorSlot(from.toLocalTime()) : 0;
+            int end = day.equals(to.toLocalDate()) ? ceilSlot(to.toLocalTime()) : slotsPerDay;
+            if (end > start) {
+                action.apply(day.toEpochDay(), start, end);
+            }
+            day = day.plusDays(1);
+        }
+    }
+
+    private interface DaySlots {
+        void apply(long epochDay, int start, int end);
+    }
+
+    private static void set(long[] bits, int from, int to) {
+        for (int i = from; i < to; i++) {
+            bits[i >>> 6] |= 1L << i;
+        }
+    }
+
+    private static void clear(long[] bits, int from, int to) {
+        for (int i = from; i < to; i++) {
+            bits[i >>> 6] &= ~(1L << i);
+        }
+    }
+
+    private static boolean allSet(long[] bits, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if ((bits[i >>> 6] & (1L << i)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean anySet(long[] bits, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if ((bits[i >>> 6] & (1L << i)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Index of the first bit at or after from, or -1
+    private int nextSet(long[] bits, int from) {
+        for (int w = from >>> 6; w < words; w++) {
+            long word = bits[w] & (w == from >>> 6 ? -1L << from : -1L);
+            if (word != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                return i < slotsPerDay ? i : -1;
+            }
+        }
+        return -1;
+    }
+
+    //Index of the first clear bit at or after from, or the number of slots
+    private int nextClear(long[] bits, int from) {
+        for (int w = from >>> 6; w < words; w++) {
+            long word = ~bits[w] & (w == from >>> 6 ? -1L << from : -1L);
+            if (word != 0) {
+                return Math.min(slotsPerDay, (w << 6) + Long.numberOfTrailingZeros(word));
+            }
+        }
+        return slotsPerDay;
+    }
+
+    //Start of the first run of at least length set bits at or after from, or -1
+    private int findRun(long[] free, int from, int length) {
+        int start = from < slotsPerDay ? nextSet(free, from) : -1;
+        while (start >= 0) {
+            int end = nextClear(free, start);
+            if (end - start >= length) {
+                return start;
+            }
+            start = end < slotsPerDay ? nextSet(free, end) : -1;
+        }
+        return -1;
+    }
+
+    //One doctor's hours, blocks and per-day bitsets, guarded by its own monitor
+    private final class DoctorCalendar {
+        private volatile WorkingHours hours;
+        private volatile long[][] masks;
+        private final Map<Long, long[]> booked = new HashMap<>();
+        private final Map<Long, long[]> blocked = new HashMap<>();
+        private final List<LocalDateTime[]> blocks = new ArrayList<>();
+        //Epoch day from which booked slots are kept; the days before it were dropped
+        private long bookedFrom;
+
+        private synchronized void setHours(WorkingHours hours, long[][] masks) {
+            this.hours = hours;
+            this.masks = masks;
+        }
+
+        private synchronized void block(LocalDateTime from, LocalDateTime to) {
+            blocks.add(new LocalDateTime[] {from, to});
+            forEachDay(from, to, (day, start, end) -> set(blocked.computeIfAbsent(day, k -> new long[words]), start, end));
+        }
+
+        private synchronized int unblock(LocalDateTime from, LocalDateTime to) {
+            int removed = 0;
+            for (Iterator<LocalDateTime[]> it = blocks.iterator(); it.hasNext(); ) {
+                LocalDateTime[] block = it.next();
+                if (block[0].isBefore(to) && block[1].isAfter(from)) {
+                    it.remove();
+                    removed++;
+                }
+            }
+            blocked.clear();
+            for (LocalDateTime[] block: blocks) {
+                forEachDay(block[0], block[1], (day, start, end) -> set(blocked.computeIfAbsent(day, k -> new long[words]), start, end));
+            }
+            return removed;
+        }
+
+        private synchronized List<LocalDateTime[]> blockList() {
+            return new ArrayList<>(blocks);
+        }
+
+        private synchronized boolean isAvailable(LocalDateTime from, LocalDateTime to) {
+            boolean[] available = {true};
+            forEachDay(from, to, (day, start, end) -> {
+                long[] block = blocked.get(day);
+                if (block != null && anySet(block, start, end)) {
+                    available[0] = false;
+                }
+                if (masks != null && !allSet(masks[LocalDate.ofEpochDay(day).getDayOfWeek().ordinal()], start, end)) {
+                    available[0] = false;
+                }
+            });
+            return available[0];
+        }
+
+        private synchronized void mark(LocalDateTime from, LocalDateTime to) {
+            pruneBooked();
+            forEachDay(from, to, (day, start, end) -> set(booked.computeIfAbsent(day, k -> new long[words]), start, end));
+        }
+
+        //Drops the booked slots of days that are over, like tracked leaves them out when marking; checked on every booking but done at most once a day
+        private void pruneBooked() {
+            long today = LocalDate.now().toEpochDay();
+            if (today > bookedFrom) {
+                booked.keySet().removeIf(day -> day < today);
+                bookedFrom = today;
+            }
+        }
+
+        private synchronized void release(LocalDateTime from, LocalDateTime to) {
+            forEachDay(from, to, (day, start, end) -> {
+                long[] bits = booked.get(day);
+                if (bits == null) {
+                    return;
+                }
+                //Only slots lying wholly inside the interval are certainly not used by a neighbouring appointment
+                LocalDateTime dayStart = LocalDate.ofEpochDay(day).atStartOfDay();
+                int first = dayStart.plusMinutes((long) start * slotMinutes).isBefore(from) ? start + 1 : start;
+                int last = dayStart.plusMinutes((long) end * slotMinutes).isAfter(to) ? end - 1 : end;
+                clear(bits, first, last);
+            });
+        }
+
+        private synchronized void clearBooked() {
+            booked.clear();
+        }
+
+        private synchronized void subtractBusy(long epochDay, long[] free) {
+            long[] bits = booked.get(epochDay);
+            long[] block = blocked.get(epochDay);
+            for (int w = 0; w < words; w++) {
+                free[w] &= ~(bits == null ? 0 : bits[w]) & ~(block == null ? 0 : block[w]);
+            }
+        }
+    }
+}
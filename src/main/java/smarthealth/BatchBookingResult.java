@@ -0,0 +1,39 @@
+package smarthealth;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class representing the outcome of booking a batch of appointments for one patient and doctor
+ * <p>A batch is booked whole or not at all. When it is booked the result holds every new appointment; when it is rejected it holds nothing booked, and the reason of every slot that could not be booked, so the whole plan can be fixed in one go.
+ */
+public class BatchBookingResult {
+
+    private final BookingResult.Status status;
+    private final List<Appointment> appointments;
+    private final Map<LocalDateTime, BookingResult> rejected;
+
+    BatchBookingResult(BookingResult.Status status, List<Appointment> appointments, Map<LocalDateTime, BookingResult> rejected) {
+        this.status = status;
+        this.appointments = Collections.unmodifiableList(appointments);
+        this.rejected = Collections.unmodifiableMap(rejected);
+    }
+
+    /**
+     * Returns BOOKED when every slot was booked, otherwise the reason of the earliest slot that could not be
+     */
+    public BookingResult.Status getStatus() { return this.status; }
+    public boolean isBooked() { return this.status == BookingResult.Status.BOOKED; }
+
+    /**
+     * Returns the booked appointments in time order, empty when the batch was rejected
+     */
+    public List<Appointment> getAppointments() { return this.appointments; }
+
+    /**
+     * Returns the reason each rejected slot could not be booked by its start time, in time order; empty when the batch was booked or rejected as a whole for an unknown patient or doctor
+     */
+    public Map<LocalDateTime, BookingResult> getRejected() { return this.rejected; }
+}
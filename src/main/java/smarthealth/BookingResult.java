@@ -0,0 +1,34 @@
+package smarthealth;
+
+/**
+ * Class representing the outcome of an appointment booking
+ * <p>Holds the new appointment when the booking succeeded, or the appointment it clashed with when a doctor or patient was unavailable.
+ */
+public class BookingResult {
+
+    public enum Status {
+        BOOKED,
+        UNKNOWN_PATIENT,
+        UNKNOWN_DOCTOR,
+        NOT_IN_FUTURE,
+        DOCTOR_UNAVAILABLE,
+        DOCTOR_OFF_DUTY,
+        PATIENT_UNAVAILABLE
+    }
+
+    private final Status status;
+    private final Appointment appointment;
+
+    public BookingResult(Status status, Appointment appointment) {
+        this.status = status;
+        this.appointment = appointment;
+    }
+
+    public Status getStatus() { return this.status; }
+    public boolean isBooked() { return this.status == Status.BOOKED; }
+
+    /**
+     * Returns the booked appointment, the conflicting appointment for an unavailable doctor or patient, or null otherwise
+     */
+    public Appointment getAppointment() { return this.appointment; }
+}
@@ -0,0 +1,405 @@
+package smarthealth;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class representing the bulk import pipeline of the smart health system
+ * <p>Reads a CSV file (with a header row) or an NDJSON file (one JSON object per line) of patients, doctors or appointments. The file is read in chunks of {@value #CHUNK_LINES} lines into a bounded queue, so memory stays bounded however large the file is. Worker threads parse the chunks in parallel and insert each one as a batch through the same {@link SmartHealthSystem} methods the console and the HTTP API use, so duplicate IDs and booking conflicts are rejected by the same rules. The journal records of a batch are forced to disk once.
+ * <p>Fields are named like the JSON of the HTTP API: {@code id, name, age, address, contact, medicalHistory} for patients (history items separated by ';' in CSV), {@code id, name, specialization, age, contact, email} for doctors and {@code patientId, doctorId, reason, dateTime, durationMinutes} for appointments. CSV fields may be quoted but may not span lines.
+ * <pre>
+ * java smarthealth.BulkImporter [patients|doctors|appointments] [file.csv|file.ndjson] [worker threads]
+ * </pre>
+ */
+public class BulkImporter {
+
+    /**
+     * Kind of records held by an import file
+     */
+    public enum Kind { PATIENTS, DOCTORS, APPOINTMENTS }
+
+    //Lines read and inserted as one batch
+    public static final int CHUNK_LINES = 1000;
+    //Number of rejected lines kept with their line number for the report; the rest are only counted
+    private static final int REJECT_SAMPLES = 20;
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    //Marks the end of the file on the queue, one per worker
+    private static final Chunk END = new Chunk(0, List.of());
+
+    private final Kind kind;
+    private final boolean csv;
+    private final int workers;
+    private final LongAdder read = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final Map<String, LongAdder> reasons = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> samples = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger sampled = new AtomicInteger();
+    private Map<String, Integer> header;
+
+    private BulkImporter(Kind kind, boolean csv, int workers) {
+        this.kind = kind;
+        this.csv = csv;
+        this.workers = workers;
+    }
+
+    /**
+     * Imports the file, whose format is taken from its extension (.csv, otherwise NDJSON)
+     */
+    public static Report run(Path file, Kind kind, int workers) throws IOException {
+        boolean csv = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+        return new BulkImporter(kind, csv, Math.max(1, workers)).run(file);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java smarthealth.BulkImporter [patients|doctors|appointments] [file] [worker threads]");
+            return;
+        }
+        SmartHealthSystem.loadData();
+        Kind kind = Kind.valueOf(args[0].toUpperCase(Locale.ROOT));
+        int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        run(Path.of(args[1]), kind, workers).print(System.out);
+        System.exit(0);
+    }
+
+    private Report run(Path file) throws IOException {
+        long began = System.nanoTime();
+        BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(workers * 2);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        for (int i = 0; i < workers; i++) {
+            pool.execute(() -> work(queue));
+        }
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            int lineNumber = 0;
+            int chunkStart = 1;
+            List<String> lines = new ArrayList<>(CHUNK_LINES);
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber == 1 && line.startsWith("\uFEFF")) {
+                    line = line.substring(1);
+                }
+                if (csv && header == null) {
+                    header = header(line);
+                    chunkStart = lineNumber + 1;
+                    continue;
+                }
+                lines.add(line);
+                if (lines.size() == CHUNK_LINES) {
+                    queue.put(new Chunk(chunkStart, lines));
+                    lines = new ArrayList<>(CHUNK_LINES);
+                    chunkStart = lineNumber + 1;
+                }
+            }
+            if (!lines.isEmpty()) {
+                queue.put(new Chunk(chunkStart, lines));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while importing", e);
+        } finally {
+            try {
+                for (int i = 0; i < workers; i++) {
+                    queue.put(END);
+                }
+                pool.shutdown();
+                pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        return new Report(read.sum(), accepted.sum(), rejected.sum(), (System.nanoTime() - began) / 1e9, new TreeMap<>(toCounts(reasons)), new ArrayList<>(samples));
+    }
+
+    private void work(BlockingQueue<Chunk> queue) {
+        while (true) {
+            Chunk chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (chunk == END) {
+                return;
+            }
+            //Parsed first, then inserted together so the batch's journal records are written at once
+            List<Row> rows = new ArrayList<>(chunk.lines.size());
+            for (int i = 0; i < chunk.lines.size(); i++) {
+                String line = chunk.lines.get(i);
+                if (line.isBlank()) {
+                    continue;
+                }
+                read.increment();
+                int lineNumber = chunk.firstLine + i;
+                try {
+                    rows.add(new Row(lineNumber, parse(line)));
+                } catch (IllegalArgumentException | DateTimeParseException e) {
+                    reject(lineNumber, "Invalid record", e.getMessage());
+                }
+            }
+            SmartHealthSystem.inBatch(() -> {
+                for (Row row: rows) {
+                    String reason;
+                    try {
+                        reason = insert(row.record);
+                    } catch (RuntimeException e) {
+                        //A failing record must not stop the worker, or the reader would block on a full queue
+                        reason = "Internal error: " + e;
+                    }
+                    if (reason == null) {
+                        accepted.increment();
+                    } else {
+                        reject(row.lineNumber, reason, null);
+                    }
+                }
+            });
+        }
+    }
+
+    //Builds the patient, doctor or booking of one line
+    private Object parse(String line) {
+        Map<String, Object> fields = csv ? csvFields(line) : Json.parseObject(line);
+        switch (kind) {
+            case PATIENTS:
+                return new Patient(required(fields, "id"), text(fields, "name"), number(fields, "age"), text(fields, "address"), text(fields, "contact"), history(fields));
+            case DOCTORS:
+                return new Doctor(required(fields, "id"), text(fields, "name"), text(fields, "specialization"), number(fields, "age"), text(fields, "contact"), text(fields, "email"));
+            default:
+                String duration = text(fields, "durationMinutes");
+                Booking b = new Booking(required(fields, "patientId"), required(fields, "doctorId"), text(fields, "reason"),
+                        LocalDateTime.parse(required(fields, "dateTime"), FORMATTER), duration == null || duration.isEmpty() ? Appointment.DEFAULT_DURATION_MINUTES : number(fields, "durationMinutes"));
+                if (b.duration <= 0) {
+                    throw new IllegalArgumentException("Duration must be positive");
+                }
+                return b;
+        }
+    }
+
+    //Inserts one parsed record, returning why it was rejected or null when it was accepted
+    private static String insert(Object record) {
+        if (record instanceof Patient) {
+            return SmartHealthSystem.registerPatient((Patient) record) ? null : "Duplicate patient ID";
+        }
+        if (record instanceof Doctor) {
+            return SmartHealthSystem.registerDoctor((Doctor) record) ? null : "Duplicate doctor ID";
+        }
+        Booking b = (Booking) record;
+        switch (SmartHealthSystem.bookAppointment(b.patientId, b.doctorId, b.reason, b.datetime, b.duration).getStatus()) {
+            case BOOKED: return null;
+            case UNKNOWN_PATIENT: return "Unknown patient ID";
+            case UNKNOWN_DOCTOR: return "Unknown doctor ID";
+            case NOT_IN_FUTURE: return "Appointment not in the future";
+            case DOCTOR_UNAVAILABLE: return "Doctor not available";
+            case DOCTOR_OFF_DUTY: return "Outside the doctor's working hours";
+            default: return "Patient already booked";
+        }
+    }
+
+    private void reject(int lineNumber, String reason, String detail) {
+        rejected.increment();
+        reasons.computeIfAbsent(reason, k -> new LongAdder()).increment();
+        if (sampled.getAndIncrement() < REJECT_SAMPLES) {
+            samples.add("Line " + lineNumber + ": " + reason + (detail == null ? "" : " (" + detail + ")"));
+        }
+    }
+
+    private static Map<String, Integer> header(String line) {
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> names = splitCsv(line);
+        for (int i = 0; i < names.size(); i++) {
+            columns.put(names.get(i).trim(), i);
+        }
+        return columns;
+    }
+
+    private Map<String, Object> csvFields(String line) {
+        List<String> values = splitCsv(line);
+        Map<String, Object> fields = new HashMap<>();
+        for (Map.Entry<String, Integer> column: header.entrySet()) {
+            if (column.getValue() < values.size()) {
+                fields.put(column.getKey(), values.get(column.getValue()));
+            }
+        }
+        return fields;
+    }
+
+    //Splits one CSV line, honouring double quotes and "" as an escaped quote
+    private static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    private static String text(Map<String, Object> fields, String name) {
+        Object value = fields.get(name);
+        return value == null ? null : value.toString();
+    }
+
+    private static String required(Map<String, Object> fields, String name) {
+        String value = text(fields, name);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException(name + " is required");
+        }
+        return value;
+    }
+
+    private static int number(Map<String, Object> fields, String name) {
+        Object value = fields.get(name);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        try {
+            return Integer.parseInt(required(fields, name).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number");
+        }
+    }
+
+    private static List<String> history(Map<String, Object> fields) {
+        List<String> history = new ArrayList<>();
+        Object value = fields.get("medicalHistory");
+        if (value instanceof List) {
+            for (Object item: (List<?>) value) {
+                history.add(String.valueOf(item));
+            }
+        } else if (value != null && !value.toString().isBlank()) {
+            for (String item: value.toString().split(";")) {
+                history.add(item.trim());
+            }
+        }
+        return history;
+    }
+
+    private static Map<String, Long> toCounts(Map<String, LongAdder> adders) {
+        Map<String, Long> counts = new HashMap<>();
+        for (Map.Entry<String, LongAdder> e: adders.entrySet()) {
+            counts.put(e.getKey(), e.getValue().sum());
+        }
+        return counts;
+    }
+
+    /**
+     * Class representing the outcome of an import: counts, throughput and why records were rejected
+     */
+    public static final class Report {
+        private final long read;
+        private final long accepted;
+        private final long rejected;
+        private final double seconds;
+        private final Map<String, Long> reasons;
+        private final List<String> samples;
+
+        private Report(long read, long accepted, long rejected, double seconds, Map<String, Long> reasons, List<String> samples) {
+            this.read = read;
+            this.accepted = accepted;
+            this.rejected = rejected;
+            this.seconds = seconds;
+            this.reasons = reasons;
+            this.samples = samples;
+        }
+
+        public long getRead() { return read; }
+        public long getAccepted() { return accepted; }
+        public long getRejected() { return rejected; }
+        public double getSeconds() { return seconds; }
+        public Map<String, Long> getReasons() { return reasons; }
+
+        public void print(PrintStream out) {
+            out.printf("Imported %d of %d records in %.2f s (%.0f records/s), %d rejected%n", accepted, read, seconds, seconds > 0 ? read / seconds : 0, rejected);
+            for (Map.Entry<String, Long> e: reasons.entrySet()) {
+                out.println("  " + e.getKey() + ": " + e.getValue());
+            }
+            for (String s: samples) {
+                out.println("  " + s);
+            }
+        }
+    }
+
+    //One block of lines, numbered from the first one for reject messages
+    private static final class Chunk {
+        private final int firstLine;
+        private final List<String> lines;
+
+        private Chunk(int firstLine, List<String> lines) {
+            this.firstLine = firstLine;
+            this.lines = lines;
+        }
+    }
+
+    //Parsed record with the line it came from
+    private static final class Row {
+        private final int lineNumber;
+        private final Object record;
+
+        private Row(int lineNumber, Object record) {
+            this.lineNumber = lineNumber;
+            this.record = record;
+        }
+    }
+
+    //Appointment request read from an import file
+    private static final class Booking {
+        private final String patientId;
+        private final String doctorId;
+        private final String reason;
+        private final LocalDateTime datetime;
+        private final int duration;
+
+        private Booking(String patientId, String doctorId, String reason, LocalDateTime datetime, int duration) {
+            this.patientId = patientId;
+            this.doctorId = doctorId;
+            this.reason = reason;
+            this.datetime = datetime;
+            this.duration = duration;
+        }
+    }
+}
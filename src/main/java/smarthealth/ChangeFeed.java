@@ -0,0 +1,59 @@
+package smarthealth;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class representing the feed of recent changes served to other processes, a projection of the {@link EventBus}
+ * <p>Subscribed to the bus, it renders each event as one line of JSON on the subscriber's thread and keeps the latest ones in a fixed ring, so a client polling with the sequence of the last change it saw gets everything since, as long as it polls before the ring wraps.
+ */
+public class ChangeFeed implements EventBus.Handler {
+
+    private final String[] lines;
+    private final long[] sequences;
+    private long newest = -1;
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * @param capacity number of recent changes kept
+     */
+    public ChangeFeed(int capacity) {
+        lines = new String[capacity];
+        sequences = new long[capacity];
+    }
+
+    @Override
+    public void onEvent(DomainEvent event, boolean endOfBatch) {
+        line.setLength(0);
+        String json = HttpApi.eventJson(line, event).toString();
+        int slot = (int) (event.getSequence() % lines.length);
+        synchronized (this) {
+            lines[slot] = json;
+            sequences[slot] = event.getSequence();
+            newest = Math.max(newest, event.getSequence());
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} of the kept changes with a sequence above {@code after}, oldest first
+     */
+    public synchronized List<String> after(long after, int limit) {
+        List<String> result = new ArrayList<>();
+        long from = Math.max(after + 1, newest - lines.length + 1);
+        for (long s = Math.max(from, 0); s <= newest && result.size() < limit; s++) {
+            int slot = (int) (s % lines.length);
+            //Slots of events published before the feed subscribed are empty
+            if (lines[slot] != null && sequences[slot] == s) {
+                result.add(lines[slot]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the sequence of the newest change kept, -1 when there is none
+     */
+    public synchronized long getNewest() {
+        return newest;
+    }
+}
@@ -0,0 +1,169 @@
+package smarthealth;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Class representing the live statistics of the smart health system
+ * <p>Keeps per-doctor appointment counts, per-patient visit counts, the specialization histogram and the upcoming/overdue counts up to date as appointments are booked, rescheduled and completed, so reports and dashboards read them in O(1) instead of scanning every appointment.
+ * <p>Pending appointments sit in a time-ordered set; reading the upcoming or overdue count first moves the ones whose time has passed to the overdue side, so each appointment crosses over at most once.
+ */
+public class ClinicStatistics implements ReportEngine.Aggregates {
+
+    //Counters are mutable int holders so counting an appointment never allocates a boxed Integer
+    private final HashMap<String, int[]> doctorWorkload = new HashMap<>();
+    private final HashMap<String, int[]> patientVisits = new HashMap<>();
+    private final HashMap<String, int[]> specializations = new HashMap<>();
+    private String topSpecialization;
+    private int topSpecializationCount;
+    private int totalAppointments;
+    private int completedAppointments;
+
+    private final TreeSet<Slot> upcoming = new TreeSet<>();
+    private final HashSet<Appointment> overdue = new HashSet<>();
+    private LocalDateTime watermark = LocalDateTime.MIN;
+
+    /**
+     * Drops every counter and counts the given appointments again, used after loading saved data
+     */
+    public synchronized void rebuild(Collection<Appointment> appointments, Map<String, Doctor> doctors) {
+        doctorWorkload.clear();
+        patientVisits.clear();
+        specializations.clear();
+        topSpecialization = null;
+        topSpecializationCount = 0;
+        totalAppointments = 0;
+        completedAppointments = 0;
+        upcoming.clear();
+        overdue.clear();
+        watermark = LocalDateTime.MIN;
+        for (Appointment a: appointments) {
+            Doctor doctor = doctors.get(a.getDoctorId());
+            booked(a, doctor == null ? null : doctor.getSpecialization());
+        }
+    }
+
+    /**
+     * Counts a newly booked appointment
+     * @param specialization specialization of the appointment's doctor, may be null if the doctor is unknown
+     */
+    public synchronized void booked(Appointment appointment, String specialization) {
+        totalAppointments++;
+        increment(doctorWorkload, appointment.getDoctorId());
+        increment(patientVisits, appointment.getPatientId());
+        if (specialization != null) {
+            int count = increment(specializations, specialization);
+            if (count > topSpecializationCount) {
+                topSpecializationCount = count;
+                topSpecialization = specialization;
+            }
+        }
+        if (appointment.isCompleted()) {
+            completedAppointments++;
+        } else {
+            addPending(appointment);
+        }
+    }
+
+    /**
+     * Updates the upcoming/overdue split after an appointment moved
+     * @param previous date and time the appointment had before it was moved
+     */
+    public synchronized void rescheduled(Appointment appointment, LocalDateTime previous) {
+        if (appointment.isCompleted()) {
+            return;
+        }
+        removePending(appointment, previous);
+        addPending(appointment);
+    }
+
+    /**
+     * Moves an appointment out of the pending counts once it has been marked as completed
+     */
+    public synchronized void completed(Appointment appointment) {
+        removePending(appointment, appointment.getDateTime());
+        completedAppointments++;
+    }
+
+    public synchronized int getDoctorWorkload(String doctorId) { return count(doctorWorkload, doctorId); }
+    public synchronized int getPatientVisits(String patientId) { return count(patientVisits, patientId); }
+    public synchronized int getSpecializationCount(String specialization) { return count(specializations, specialization); }
+    public synchronized String getTopSpecialization() { return topSpecialization; }
+    public synchronized int getTopSpecializationCount() { return topSpecializationCount; }
+    public synchronized int getTotalAppointments() { return totalAppointments; }
+    public synchronized int getCompletedAppointments() { return completedAppointments; }
+
+    /**
+     * Returns the number of pending appointments scheduled after the given time
+     */
+    public synchronized int getUpcomingCount(LocalDateTime now) {
+        advance(now);
+        return upcoming.size();
+    }
+
+    /**
+     * Returns the number of appointments whose time has passed without being completed
+     */
+    public synchronized int getOverdueCount(LocalDateTime now) {
+        advance(now);
+        return overdue.size();
+    }
+
+    private void advance(LocalDateTime now) {
+        if (now.isAfter(watermark)) {
+            watermark = now;
+        }
+        while (!upcoming.isEmpty() && !upcoming.first().time.isAfter(watermark)) {
+            overdue.add(upcoming.pollFirst().appointment);
+        }
+    }
+
+    private void addPending(Appointment appointment) {
+        if (appointment.getDateTime().isAfter(watermark)) {
+            upcoming.add(new Slot(appointment.getDateTime(), appointment));
+        } else {
+            overdue.add(appointment);
+        }
+    }
+
+    private void removePending(Appointment appointment, LocalDateTime time) {
+        if (!upcoming.remove(new Slot(time, appointment))) {
+            overdue.remove(appointment);
+        }
+    }
+
+    private static int increment(HashMap<String, int[]> counters, String key) {
+        int[] counter = counters.get(key);
+        if (counter == null) {
+            counters.put(key, new int[] {1});
+            return 1;
+        }
+        return ++counter[0];
+    }
+
+    private static int count(HashMap<String, int[]> counters, String key) {
+        int[] counter = counters.get(key);
+        return counter == null ? 0 : counter[0];
+    }
+
+    //Pending appointment keyed by the time it was indexed at, so it can still be found after the appointment itself has been moved
+    private static final class Slot implements Comparable<Slot> {
+        private final LocalDateTime time;
+        private final Appointment appointment;
+
+        private Slot(LocalDateTime time, Appointment appointment) {
+            this.time = time;
+            this.appointment = appointment;
+        }
+
+        @Override
+        public int compareTo(Slot other) {
+            int byTime = time.compareTo(other.time);
+            return byTime != 0 ? byTime : appointment.getAppointmentId().compareTo(other.appointment.getAppointmentId());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package smarthealth;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Conversions between the compact field encodings of the entities and the types their getters return
+ * <p>Free-text fields are kept as UTF-8 bytes, which saves the String object around them, and timestamps as UTC epoch seconds, the precision the record files store them with, with {@link #NO_TIME} for null. Several free-text fields of one entity can also be packed into a single array, which saves an array header and a reference per field.
+ */
+final class CompactFields {
+
+    static final long NO_TIME = Long.MIN_VALUE;
+
+    private CompactFields() {
+    }
+
+    static byte[] bytes(String text) {
+        return text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String text(byte[] bytes) {
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Packs the texts into one array: per text its UTF-8 length plus one, or 0 for null, as a varint, then its bytes
+     */
+    static byte[] pack(String... texts) {
+        byte[][] encoded = new byte[texts.length][];
+        int length = 0;
+        for (int i = 0; i < texts.length; i++) {
+            encoded[i] = bytes(texts[i]);
+            int prefix = encoded[i] == null ? 0 : encoded[i].length + 1;
+            length += varintLength(prefix) + (encoded[i] == null ? 0 : encoded[i].length);
+        }
+        byte[] packed = new byte[length];
+        int pos = 0;
+        for (byte[] e: encoded) {
+            int prefix = e == null ? 0 : e.length + 1;
+            while (prefix >= 0x80) {
+                packed[pos++] = (byte) (prefix | 0x80);
+                prefix >>>= 7;
+            }
+            packed[pos++] = (byte) prefix;
+            if (e != null) {
+                System.arraycopy(e, 0, packed, pos, e.length);
+                pos += e.length;
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Returns the text at the given index of an array built by {@link #pack}
+     */
+    static String unpack(byte[] packed, int index) {
+        int pos = 0;
+        for (int i = 0; ; i++) {
+            int prefix = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = packed[pos++];
+                prefix |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            if (i == index) {
+                return prefix == 0 ? null : new String(packed, pos, prefix - 1, StandardCharsets.UTF_8);
+            }
+            pos += Math.max(0, prefix - 1);
+        }
+    }
+
+    /**
+     * Returns a copy of an array of count texts built by {@link #pack}, with the text at the given index replaced
+     */
+    static byte[] repack(byte[] packed, int count, int index, String text) {
+        String[] texts = new String[count];
+        for (int i = 0; i < count; i++) {
+            texts[i] = i == index ? text : unpack(packed, i);
+        }
+        return pack(texts);
+    }
+
+    private static int varintLength(int value) {
+        int length = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    static long epoch(LocalDateTime time) {
+        return time == null ? NO_TIME : time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    static LocalDateTime time(long epochSecond) {
+        return epochSecond == NO_TIME ? null : LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+    }
+}
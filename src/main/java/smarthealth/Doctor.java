@@ -0,0 +1,94 @@
+package smarthealth;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serial;
+import java.time.LocalDateTime;
+import java.io.Serializable;
+
+/**
+ * Class representing a doctor of the smart health system
+ * <p>Stored compactly like {@link Patient}, and more tightly still: the ID and the specialization are codes into {@link StringDictionary#DOCTOR_IDS}, which holds every doctor ID for the appointments anyway, and {@link StringDictionary#SPECIALIZATIONS}, and the name, contact number and email share one array (see {@link CompactFields#pack}).
+ */
+public class Doctor implements Serializable {
+
+    private int id;
+    private int age;
+    private int specialization;
+    //Name, contact number and email, in that order
+    private byte[] text;
+    private long registrationDate;
+    @Serial
+    private static final long serialVersionUID = 1L;
+    //Fields of the serialized form, which predates the compact layout and is kept so older snapshots still load
+    @Serial
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("id", String.class),
+            new ObjectStreamField("name", String.class),
+            new ObjectStreamField("age", int.class),
+            new ObjectStreamField("specialization", String.class),
+            new ObjectStreamField("contactNumber", String.class),
+            new ObjectStreamField("email", String.class),
+            new ObjectStreamField("registrationDate", LocalDateTime.class)
+    };
+
+    private static final int NAME = 0;
+    private static final int CONTACT = 1;
+    private static final int EMAIL = 2;
+    private static final int FIELDS = 3;
+
+    public Doctor(String id, String name, String spec, int age, String contact, String email) {
+        this.id = StringDictionary.DOCTOR_IDS.code(id);
+        this.specialization = StringDictionary.SPECIALIZATIONS.code(spec);
+        this.age = age;
+        this.text = CompactFields.pack(name, contact, email);
+        this.registrationDate = CompactFields.epoch(LocalDateTime.now());
+    }
+
+    public String getId() { return StringDictionary.DOCTOR_IDS.value(this.id); }
+    public String getName() { return CompactFields.unpack(this.text, NAME); }
+    public String getSpecialization() { return StringDictionary.SPECIALIZATIONS.value(this.specialization); }
+    public int getAge() { return this.age; }
+    public String getContact() { return CompactFields.unpack(this.text, CONTACT); }
+    public String getEmail() { return CompactFields.unpack(this.text, EMAIL); }
+    public String getRegistrationDate() { return CompactFields.time(this.registrationDate).toString(); }
+
+    public void setId(String id) { this.id = StringDictionary.DOCTOR_IDS.code(id); }
+    public void setName(String name) { this.text = CompactFields.repack(this.text, FIELDS, NAME, name); }
+    public void setSpecialization(String specialization) { this.specialization = StringDictionary.SPECIALIZATIONS.code(specialization); }
+    public void setAge(int age) { this.age = age; }
+    public void setEmail(String email) { this.text = CompactFields.repack(this.text, FIELDS, EMAIL, email); }
+    public void setContact(String contact) { this.text = CompactFields.repack(this.text, FIELDS, CONTACT, contact); }
+    public void setRegistrationDate(LocalDateTime date) { this.registrationDate = CompactFields.epoch(date); }
+
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", getId());
+        fields.put("name", getName());
+        fields.put("age", age);
+        fields.put("specialization", getSpecialization());
+        fields.put("contactNumber", getContact());
+        fields.put("email", getEmail());
+        fields.put("registrationDate", CompactFields.time(registrationDate));
+        out.writeFields();
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        id = StringDictionary.DOCTOR_IDS.code((String) fields.get("id", null));
+        age = fields.get("age", 0);
+        specialization = StringDictionary.SPECIALIZATIONS.code((String) fields.get("specialization", null));
+        text = CompactFields.pack((String) fields.get("name", null), (String) fields.get("contactNumber", null), (String) fields.get("email", null));
+        LocalDateTime registered = (LocalDateTime) fields.get("registrationDate", null);
+        registrationDate = CompactFields.epoch(registered == null ? LocalDateTime.now() : registered);
+    }
+
+    @Override
+    public String toString() {
+        return ("Doctor ID: " + getId() + ", Name: " + getName() + ", Specialization: " + getSpecialization());
+    }
+}
@@ -0,0 +1,67 @@
+package smarthealth;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Class representing the store of registered doctors
+ * <p>Backed by a concurrent map, so it can be shared by every front desk and API thread; registering a doctor is an atomic check-and-insert on the ID, and changes to a doctor go through {@link #update}.
+ */
+public class DoctorRepository {
+
+    private final Map<String, Doctor> doctors;
+    //Locks serializing the changes to a doctor, shared by the IDs with the same hash
+    private final Object[] locks = new Object[64];
+
+    public DoctorRepository() {
+        this(new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Wraps loaded doctors; a map that is not already safe for concurrent use is copied into one that is
+     */
+    public DoctorRepository(Map<String, Doctor> doctors) {
+        this.doctors = doctors instanceof ConcurrentHashMap || doctors instanceof MappedRecordMap ? doctors : new ConcurrentHashMap<>(doctors);
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Registers a doctor
+     * @return true if the doctor was added, false if the ID is already taken
+     */
+    public boolean add(Doctor doctor) {
+        return doctors.putIfAbsent(doctor.getId(), doctor) == null;
+    }
+
+    /**
+     * Changes a registered doctor in place under the lock of its ID, and stores it back once change returns true
+     * @return false if there is no doctor with such ID or change returned false
+     */
+    public boolean update(String id, Predicate<Doctor> change) {
+        synchronized (locks[(id.hashCode() & 0x7fffffff) % locks.length]) {
+            Doctor doctor = doctors.get(id);
+            if (doctor == null || !change.test(doctor)) {
+                return false;
+            }
+            doctors.replace(id, doctor);
+            return true;
+        }
+    }
+
+    public Doctor get(String id) { return doctors.get(id); }
+    public boolean contains(String id) { return doctors.containsKey(id); }
+    public int size() { return doctors.size(); }
+    public Collection<Doctor> all() { return Collections.unmodifiableCollection(doctors.values()); }
+    public Set<String> ids() { return Collections.unmodifiableSet(doctors.keySet()); }
+
+    /**
+     * Returns a read-only view of the doctors by ID, used to save them
+     */
+    public Map<String, Doctor> asMap() { return Collections.unmodifiableMap(doctors); }
+}
@@ -0,0 +1,61 @@
+package smarthealth;
+
+import java.time.LocalDateTime;
+
+/**
+ * Class representing a change published on the {@link EventBus}: an appointment booked, rescheduled or completed, or a prescription added, due for refill or expired
+ * <p>Events are slots of the bus's ring buffer and are reused once every subscriber has passed them, so a handler must copy whatever it keeps beyond its {@link EventBus.Handler#onEvent} call. The appointment's date and time are copied into the event when it is published; the appointment itself is the live object and may have changed since.
+ */
+public final class DomainEvent {
+
+    /**
+     * Kind of change
+     */
+    public enum Type {
+        APPOINTMENT_BOOKED, APPOINTMENT_RESCHEDULED, APPOINTMENT_COMPLETED, PRESCRIPTION_ADDED, PRESCRIPTION_REFILL_DUE, PRESCRIPTION_EXPIRED;
+
+        public boolean isAppointment() {
+            return this == APPOINTMENT_BOOKED || this == APPOINTMENT_RESCHEDULED || this == APPOINTMENT_COMPLETED;
+        }
+    }
+
+    private long sequence;
+    private Type type;
+    private Appointment appointment;
+    //Epoch second of the appointment's start, copied so publishing does not allocate
+    private long dateTime = CompactFields.NO_TIME;
+    private String patientId;
+    private Prescription prescription;
+
+    DomainEvent() {
+    }
+
+    void setAppointment(long sequence, Type type, Appointment appointment) {
+        this.sequence = sequence;
+        this.type = type;
+        this.appointment = appointment;
+        this.dateTime = appointment.getEpochSecond();
+        this.patientId = appointment.getPatientId();
+        this.prescription = null;
+    }
+
+    void setPrescription(long sequence, Type type, String patientId, Prescription prescription) {
+        this.sequence = sequence;
+        this.type = type;
+        this.appointment = null;
+        this.dateTime = CompactFields.NO_TIME;
+        this.patientId = patientId;
+        this.prescription = prescription;
+    }
+
+    //Position of the event in the bus, increasing by one per event
+    public long getSequence() { return sequence; }
+    public Type getType() { return type; }
+    //Null for prescription events
+    public Appointment getAppointment() { return appointment; }
+    //Date and time of the appointment when the event was published, null for prescription events
+    public LocalDateTime getDateTime() { return CompactFields.time(dateTime); }
+    public String getPatientId() { return patientId; }
+    //Null for appointment events
+    public Prescription getPrescription() { return prescription; }
+}
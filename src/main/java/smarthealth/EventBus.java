@@ -0,0 +1,227 @@
+package smarthealth;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class representing the in-process bus on which appointment and prescription changes are published as {@link DomainEvent}s
+ * <p>The bus is a ring buffer of preallocated events in the style of the LMAX Disruptor. A publisher claims the next sequence with one atomic increment, fills in the event in place and marks its slot available; nothing is locked or allocated, so publishing from the booking path costs a few stores. Each subscriber runs on its own thread, follows the sequence at its own pace and is handed every event available at once as a batch. Publishers only wait when the ring is full, i.e. when the slowest subscriber is a whole ring behind; with no subscribers nothing is ever waited for.
+ * <p>The bus listens to {@link AppointmentRepository} and {@link PrescriptionScheduler}, so registering it with both publishes every change. Subscribers see the events published after they subscribed.
+ */
+public class EventBus implements AppointmentRepository.Listener, PrescriptionScheduler.Listener {
+
+    /**
+     * Receives the events of a subscription in order, on the subscription's thread
+     */
+    public interface Handler {
+        /**
+         * @param endOfBatch true for the last event currently available, a good point to flush
+         */
+        void onEvent(DomainEvent event, boolean endOfBatch) throws Exception;
+    }
+
+    private static final long PARK_NANOS = 100_000;
+
+    private final DomainEvent[] events;
+    private final int mask;
+    private final int shift;
+    //Round (sequence / ring size) of the event last published into each slot
+    private final AtomicIntegerArray available;
+    //Next sequence to claim
+    private final AtomicLong claimed = new AtomicLong();
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    //Lowest subscriber sequence seen by a publisher, so most publishes need not look at the subscribers
+    private volatile long gate = -1;
+
+    /**
+     * @param size number of events in the ring, a power of two
+     */
+    public EventBus(int size) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Ring size must be a power of two");
+        }
+        events = new DomainEvent[size];
+        for (int i = 0; i < size; i++) {
+            events[i] = new DomainEvent();
+        }
+        mask = size - 1;
+        shift = Integer.numberOfTrailingZeros(size);
+        available = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            available.set(i, -1);
+        }
+    }
+
+    //Subscriber thread with the sequence of the last event it handled
+    private final class Subscription implements Runnable {
+        private final String name;
+        private final Handler handler;
+        private final AtomicLong sequence;
+        private final Thread thread;
+        private volatile boolean running = true;
+
+        private Subscription(String name, Handler handler, long last) {
+            this.name = name;
+            this.handler = handler;
+            this.sequence = new AtomicLong(last);
+            this.thread = new Thread(this, "events-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            Metrics.Counter errors = Metrics.counter("events." + name + ".errors");
+            Metrics.Timer batches = Metrics.timer("events." + name + ".batch");
+            int idle = 0;
+            while (running) {
+                long next = sequence.get() + 1;
+                long last = highestAvailable(next);
+                if (last < next) {
+                    idle = idle(idle);
+                    continue;
+                }
+                idle = 0;
+                long start = Metrics.start();
+                for (long s = next; s <= last; s++) {
+                    try {
+                        handler.onEvent(events[(int) s & mask], s == last);
+                    } catch (Exception e) {
+                        errors.increment();
+                    }
+                }
+                batches.stop(start);
+                //Releases the slots to publishers
+                sequence.lazySet(last);
+            }
+        }
+    }
+
+    /**
+     * Starts a subscription on its own daemon thread, named events-{@code name}
+     */
+    public void subscribe(String name, Handler handler) {
+        Subscription subscription = new Subscription(name, handler, claimed.get() - 1);
+        subscriptions.add(subscription);
+        Metrics.gauge("events." + name + ".lag", () -> claimed.get() - 1 - subscription.sequence.get());
+        subscription.thread.start();
+    }
+
+    /**
+     * Stops every subscription once it has handled the events already published
+     */
+    public void close() {
+        long end = claimed.get() - 1;
+        for (Subscription s: subscriptions) {
+            while (s.thread.isAlive() && s.sequence.get() < end) {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+            s.running = false;
+        }
+        for (Subscription s: subscriptions) {
+            try {
+                s.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        subscriptions.clear();
+    }
+
+    /**
+     * Returns the sequence of the last event published, -1 before the first
+     */
+    public long getSequence() {
+        return claimed.get() - 1;
+    }
+
+    @Override
+    public void booked(Appointment appointment) {
+        publish(DomainEvent.Type.APPOINTMENT_BOOKED, appointment);
+    }
+
+    @Override
+    public void rescheduled(Appointment appointment) {
+        publish(DomainEvent.Type.APPOINTMENT_RESCHEDULED, appointment);
+    }
+
+    @Override
+    public void completed(Appointment appointment) {
+        publish(DomainEvent.Type.APPOINTMENT_COMPLETED, appointment);
+    }
+
+    @Override
+    public void refillDue(String patientId, Prescription prescription) {
+        publish(DomainEvent.Type.PRESCRIPTION_REFILL_DUE, patientId, prescription);
+    }
+
+    @Override
+    public void expired(String patientId, Prescription prescription) {
+        publish(DomainEvent.Type.PRESCRIPTION_EXPIRED, patientId, prescription);
+    }
+
+    public void prescriptionAdded(String patientId, Prescription prescription) {
+        publish(DomainEvent.Type.PRESCRIPTION_ADDED, patientId, prescription);
+    }
+
+    private void publish(DomainEvent.Type type, Appointment appointment) {
+        long sequence = claim();
+        events[(int) sequence & mask].setAppointment(sequence, type, appointment);
+        available.lazySet((int) sequence & mask, (int) (sequence >>> shift));
+    }
+
+    private void publish(DomainEvent.Type type, String patientId, Prescription prescription) {
+        long sequence = claim();
+        events[(int) sequence & mask].setPrescription(sequence, type, patientId, prescription);
+        available.lazySet((int) sequence & mask, (int) (sequence >>> shift));
+    }
+
+    //Claims the next sequence, waiting while its slot still holds an event a subscriber has not handled
+    private long claim() {
+        long sequence = claimed.getAndIncrement();
+        long wrap = sequence - events.length;
+        if (wrap > gate) {
+            long lowest;
+            int idle = 0;
+            while (wrap > (lowest = lowestSubscriber(sequence))) {
+                idle = idle(idle);
+            }
+            gate = lowest;
+        }
+        return sequence;
+    }
+
+    private long lowestSubscriber(long sequence) {
+        long lowest = sequence;
+        for (Subscription s: subscriptions) {
+            if (s.running) {
+                lowest = Math.min(lowest, s.sequence.get());
+            }
+        }
+        return lowest;
+    }
+
+    //Returns the last sequence from next on up to which every event is published, next - 1 when next itself is not
+    private long highestAvailable(long next) {
+        long end = claimed.get() - 1;
+        for (long s = next; s <= end; s++) {
+            if (available.get((int) s & mask) != (int) (s >>> shift)) {
+                return s - 1;
+            }
+        }
+        return end;
+    }
+
+    //Spins briefly, then yields, then parks, so an idle waiter does not hold a core
+    private static int idle(int idle) {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return idle + 1;
+    }
+}
@@ -0,0 +1,813 @@
+package smarthealth;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+
+/**
+ * Class representing the embedded HTTP/JSON API of the smart health system
+ * <p>Exposes registration, booking and the record queries of the console over HTTP, calling the same {@link SmartHealthSystem} methods the console uses. Requests run on virtual threads when the JVM supports them (Java 21 and later), and on a cached thread pool otherwise.
+ * <pre>
+ * POST /patients                       register a patient
+ * GET  /patients[/{id}]                all patients, or one
+ * GET  /patients?q=text[&amp;limit=N]      patients matching a search, best first
+ * GET  /patients/{id}/appointments     appointments of a patient, in time order; page with ?limit=N&amp;after=yyyy-MM-ddTHH:mm
+ * GET  /patients/{id}/prescriptions    prescriptions of a patient
+ * POST /patients/{id}/prescriptions    add a prescription to a patient
+ * POST /patients/{id}/prescriptions/{n} change a prescription's end date and refill flag, {"endDate":"yyyy-MM-dd HH:mm","refillNeeded":true}
+ * POST /doctors                        register a doctor
+ * GET  /doctors[/{id}]                 all doctors, or one
+ * GET  /doctors?q=text[&amp;limit=N]       doctors matching a search, best first
+ * GET  /doctors/{id}/appointments      appointments of a doctor, paged like those of a patient
+ * POST /doctors/{id}/hours             set a doctor's working hours, e.g. {"from":"MONDAY","to":"FRIDAY","start":"09:00","end":"17:00"}
+ * POST /doctors/{id}/blocks            block a doctor's time, {"from":"yyyy-MM-dd HH:mm","to":"yyyy-MM-dd HH:mm"}
+ * GET  /slots?specialization=S[&amp;days=N&amp;duration=M] earliest free slot of any doctor of a specialization
+ * POST /appointments                   book an appointment
+ * POST /appointments/batch             book a series for one patient and doctor, all or none: {"slots":[...]} or {"recurrence":{"start":"yyyy-MM-dd HH:mm","days":["MONDAY"],"intervalWeeks":1,"count":12}}
+ * GET  /appointments/upcoming[?days=N] upcoming appointments, optionally only the next N days
+ * GET  /appointments/overdue           overdue or missed appointments
+ * GET  /prescriptions/expired          expired prescriptions
+ * GET  /prescriptions/refill           prescriptions needing a refill soon
+ * GET  /export/{records}?format=F      stream all patients, doctors or appointments as csv, json or ndjson (default)
+ * POST /shard/holds[/release|/restore] hold, release or restore patient slots across shards, used by {@link ShardRouter}; only served by a shard, see {@link #startShard}
+ * </pre>
+ */
+public class HttpApi {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private HttpApi(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts the API on the given port of every local interface
+     */
+    public static HttpApi start(int port) throws IOException {
+        return start(port, false);
+    }
+
+    /**
+     * Starts the API of one shard of a sharded deployment, which also serves the patient holds the router places; they are not served otherwise, as any client could then hold or release a patient's time
+     */
+    public static HttpApi startShard(int port) throws IOException {
+        return start(port, true);
+    }
+
+    private static HttpApi start(int port, boolean shard) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 4096);
+        ExecutorService executor = newRequestExecutor();
+        HttpApi api = new HttpApi(server, executor);
+        server.createContext("/patients", guarded(api::patients));
+        server.createContext("/doctors", guarded(api::doctors));
+        server.createContext("/appointments", guarded(api::appointments));
+        server.createContext("/prescriptions", guarded(api::prescriptions));
+        server.createContext("/export", guarded(api::export));
+        server.createContext("/slots", guarded(api::slots));
+        server.createContext("/analytics", guarded(api::analytics));
+        server.createContext("/metrics", guarded(api::metrics));
+        server.createContext("/events", guarded(api::events));
+        if (shard) {
+            server.createContext("/shard", guarded(api::shard));
+        }
+        server.setExecutor(executor);
+        server.start();
+        return api;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    //Answers 500 instead of dropping the connection when a handler fails unexpectedly
+    static HttpHandler guarded(HttpHandler handler) {
+        return exchange -> {
+            try {
+                handler.handle(exchange);
+            } catch (RuntimeException e) {
+                send(exchange, 500, error("Internal error: " + e));
+            } finally {
+                exchange.close();
+            }
+        };
+    }
+
+    //Virtual threads are looked up reflectively so the system still compiles and runs on Java 17
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void patients(HttpExchange exchange) throws IOException {
+        String[] path = path(exchange);
+        if (isPost(exchange) && path.length == 1) {
+            Map<String, Object> body = body(exchange);
+            if (body == null) {
+                return;
+            }
+            Patient patient = new Patient(text(body, "id"), text(body, "name"), number(body, "age"), text(body, "address"), text(body, "contact"), texts(body, "medicalHistory"));
+            if (patient.getId() == null) {
+                send(exchange, 400, error("Patient ID is required"));
+            } else if (SmartHealthSystem.registerPatient(patient)) {
+                send(exchange, 201, patientJson(new StringBuilder(), patient));
+            } else {
+                send(exchange, 409, error("Duplicate patient ID"));
+            }
+        } else if (path.length == 1 && query(exchange, "q") != null) {
+            search(exchange, SmartHealthSystem::searchPatients, HttpApi::patientJson);
+        } else if (path.length == 1) {
+            send(exchange, 200, list(SmartHealthSystem.allPatients(), HttpApi::patientJson));
+        } else if (SmartHealthSystem.getPatient(path[1]) == null) {
+            send(exchange, 404, error("No patients with such ID on system"));
+        } else if (path.length == 2) {
+            send(exchange, 200, patientJson(new StringBuilder(), SmartHealthSystem.getPatient(path[1])));
+        } else if (path.length == 3 && path[2].equals("appointments")) {
+            String id = path[1];
+            page(exchange, (after, limit) -> SmartHealthSystem.patientAppointments(id, after, limit));
+        } else if (isPost(exchange) && path.length == 3 && path[2].equals("prescriptions")) {
+            addPrescription(exchange, path[1]);
+        } else if (path.length == 3 && path[2].equals("prescriptions")) {
+            send(exchange, 200, list(SmartHealthSystem.patientPrescriptions(path[1]), HttpApi::prescriptionJson));
+        } else if (isPost(exchange) && path.length == 4 && path[2].equals("prescriptions")) {
+            updatePrescription(exchange, path[1], path[3]);
+        } else {
+            send(exchange, 404, error("Not found"));
+        }
+    }
+
+    private void addPrescription(HttpExchange exchange, String patientId) throws IOException {
+        Map<String, Object> body = body(exchange);
+        if (body == null) {
+            return;
+        }
+        //Without an ID every prescription would be number 0, and all but the first rejected as duplicates
+        if (!(body.get("id") instanceof Number) && !String.valueOf(body.get("id")).matches("\\d{1,9}")) {
+            send(exchange, 400, error("Prescription ID is required"));
+            return;
+        }
+        Prescription prescription;
+        try {
+            //The patient is the one in the path, whatever the body says; the legacy numeric field only holds IDs that are plain numbers
+            prescription = new Prescription(number(body, "id"), number(body, "doctorId"), patientId.matches("\\d{1,9}") ? Integer.parseInt(patientId) : 0,
+                    text(body, "medication"), text(body, "dosage"), date(body, "startDate"), date(body, "endDate"), text(body, "notes"));
+        } catch (DateTimeParseException e) {
+            send(exchange, 400, error("Invalid date format, expected yyyy-MM-dd HH:mm"));
+            return;
+        }
+        if (prescription.getEndDate() == null) {
+            send(exchange, 400, error("endDate is required"));
+            return;
+        }
+        prescription.setRefill(Boolean.TRUE.equals(body.get("refillNeeded")));
+        if (!SmartHealthSystem.addPrescription(patientId, prescription)) {
+            send(exchange, 409, error("Duplicate prescription ID"));
+            return;
+        }
+        send(exchange, 201, prescriptionJson(new StringBuilder(), prescription));
+    }
+
+    private void updatePrescription(HttpExchange exchange, String patientId, String prescriptionId) throws IOException {
+        Map<String, Object> body = body(exchange);
+        if (body == null) {
+            return;
+        }
+        Prescription prescription;
+        try {
+            LocalDateTime end = date(body, "endDate");
+            if (end == null) {
+                send(exchange, 400, error("endDate is required"));
+                return;
+            }
+            prescription = SmartHealthSystem.updatePrescription(patientId, Integer.parseInt(prescriptionId), end, Boolean.TRUE.equals(body.get("refillNeeded")));
+        } catch (DateTimeParseException e) {
+            send(exchange, 400, error("Invalid date format, expected yyyy-MM-dd HH:mm"));
+            return;
+        } catch (NumberFormatException e) {
+            send(exchange, 404, error("Not found"));
+            return;
+        }
+        if (prescription == null) {
+            send(exchange, 404, error("No prescription with such ID for this patient"));
+            return;
+        }
+        send(exchange, 200, prescriptionJson(new StringBuilder(), prescription));
+    }
+
+    private void doctors(HttpExchange exchange) throws IOException {
+        String[] path = path(exchange);
+        if (isPost(exchange) && path.length == 1) {
+            Map<String, Object> body = body(exchange);
+            if (body == null) {
+                return;
+            }
+            Doctor doctor = new Doctor(text(body, "id"), text(body, "name"), text(body, "specialization"), number(body, "age"), text(body, "contact"), text(body, "email"));
+            if (doctor.getId() == null) {
+                send(exchange, 400, error("Doctor ID is required"));
+            } else if (SmartHealthSystem.registerDoctor(doctor)) {
+                send(exchange, 201, doctorJson(new StringBuilder(), doctor));
+            } else {
+                send(exchange, 409, error("Duplicate doctor ID"));
+            }
+        } else if (path.length == 1 && query(exchange, "q") != null) {
+            search(exchange, SmartHealthSystem::searchDoctors, HttpApi::doctorJson);
+        } else if (path.length == 1) {
+            send(exchange, 200, list(SmartHealthSystem.allDoctors(), HttpApi::doctorJson));
+        } else if (SmartHealthSystem.getDoctor(path[1]) == null) {
+            send(exchange, 404, error("No doctors with such ID on system"));
+        } else if (path.length == 2) {
+            send(exchange, 200, doctorJson(new StringBuilder(), SmartHealthSystem.getDoctor(path[1])));
+        } else if (path.length == 3 && path[2].equals("appointments")) {
+            String id = path[1];
+            page(exchange, (after, limit) -> SmartHealthSystem.doctorAppointments(id, after, limit));
+        } else if (isPost(exchange) && path.length == 3 && (path[2].equals("hours") || path[2].equals("blocks"))) {
+            availability(exchange, path[1], path[2].equals("hours"));
+        } else {
+            send(exchange, 404, error("Not found"));
+        }
+    }
+
+    private void availability(HttpExchange exchange, String doctorId, boolean hours) throws IOException {
+        Map<String, Object> body = body(exchange);
+        if (body == null) {
+            return;
+        }
+        if (hours ? body.get("from") == null || body.get("start") == null || body.get("end") == null : body.get("from") == null || body.get("to") == null) {
+            send(exchange, 400, error(hours ? "from, start and end are required" : "from and to are required"));
+            return;
+        }
+        try {
+            if (hours) {
+                DayOfWeek from = DayOfWeek.valueOf(text(body, "from").toUpperCase(Locale.ROOT));
+                DayOfWeek to = body.containsKey("to") ? DayOfWeek.valueOf(text(body, "to").toUpperCase(Locale.ROOT)) : from;
+                SmartHealthSystem.setWorkingHours(doctorId, AvailabilityCalendar.WorkingHours.of(from, to, LocalTime.parse(text(body, "start")), LocalTime.parse(text(body, "end"))));
+            } else {
+                SmartHealthSystem.blockTime(doctorId, date(body, "from"), date(body, "to"));
+            }
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            send(exchange, 400, error(hours ? "Expected day names and HH:mm times, ending after they start" : "Expected yyyy-MM-dd HH:mm times, ending after they start"));
+            return;
+        }
+        send(exchange, 200, doctorJson(new StringBuilder(), SmartHealthSystem.getDoctor(doctorId)));
+    }
+
+    private void slots(HttpExchange exchange) throws IOException {
+        String specialization = query(exchange, "specialization");
+        String days = query(exchange, "days");
+        String duration = query(exchange, "duration");
+        if (specialization == null) {
+            send(exchange, 400, error("specialization is required"));
+            return;
+        }
+        AvailabilityCalendar.Slot slot;
+        try {
+            slot = SmartHealthSystem.earliestFreeSlot(URLDecoder.decode(specialization, StandardCharsets.UTF_8), days == null ? 14 : Integer.parseInt(days),
+                    duration == null ? Appointment.DEFAULT_DURATION_MINUTES : Integer.parseInt(duration));
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, error("Invalid days or duration parameter"));
+            return;
+        }
+        if (slot == null) {
+            send(exchange, 404, error("No free slot found"));
+            return;
+        }
+        StringBuilder out = new StringBuilder("{\"doctorId\":");
+        Json.quote(out, slot.getDoctorId()).append(",\"dateTime\":");
+        Json.quote(out, slot.getStart().format(FORMATTER)).append('}');
+        send(exchange, 200, out);
+    }
+
+    //Answers the totals, doctor and specialization workload, patient visit counts and hour-of-day spread of the appointments from the from date up to and including the to date
+    private void analytics(HttpExchange exchange) throws IOException {
+        String from = query(exchange, "from");
+        String to = query(exchange, "to");
+        if (from == null || to == null) {
+            send(exchange, 400, error("from and to are required"));
+            return;
+        }
+        LocalDateTime start;
+        LocalDateTime end;
+        try {
+            start = LocalDate.parse(from).atStartOfDay();
+            end = LocalDate.parse(to).plusDays(1).atStartOfDay();
+        } catch (DateTimeParseException e) {
+            send(exchange, 400, error("Invalid date format, expected yyyy-MM-dd"));
+            return;
+        }
+        AppointmentColumns.Summary summary = SmartHealthSystem.appointmentSummary(start, end);
+        StringBuilder out = new StringBuilder("{\"total\":").append(summary.getTotal());
+        out.append(",\"completed\":").append(summary.getCompleted());
+        out.append(",\"pending\":").append(summary.getPending());
+        out.append(",\"bookedMinutes\":").append(summary.getBookedMinutes());
+        counts(out.append(",\"doctorWorkload\":"), SmartHealthSystem.doctorWorkload(start, end));
+        Map<String, Integer> specializations = SmartHealthSystem.specializationWorkload(start, end);
+        counts(out.append(",\"specializations\":"), specializations);
+        Json.quote(out.append(",\"topSpecialization\":"), specializations.isEmpty() ? null : specializations.keySet().iterator().next());
+        counts(out.append(",\"patientVisits\":"), SmartHealthSystem.patientVisits(start, end));
+        out.append(",\"byHour\":[");
+        int[] hours = SmartHealthSystem.appointmentsByHour(start, end);
+        for (int i = 0; i < hours.length; i++) {
+            (i == 0 ? out : out.append(',')).append(hours[i]);
+        }
+        send(exchange, 200, out.append("]}"));
+    }
+
+    //Writes the counts as a JSON object, in the map's order
+    private static StringBuilder counts(StringBuilder out, Map<String, Integer> counts) {
+        out.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Integer> e: counts.entrySet()) {
+            Json.quote(first ? out : out.append(','), e.getKey()).append(':').append(e.getValue());
+            first = false;
+        }
+        return out.append('}');
+    }
+
+    //Answers the plain-text metrics dump
+    private void metrics(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            Metrics.dump(out);
+        }
+    }
+
+    //Answers the changes after the sequence given as after (default: from the oldest kept), one JSON object per line
+    private void events(HttpExchange exchange) throws IOException {
+        String after = query(exchange, "after");
+        String limit = query(exchange, "limit");
+        List<String> changes;
+        try {
+            changes = SmartHealthSystem.getChangeFeed().after(after == null ? -1 : Long.parseLong(after), limit == null ? 1000 : Integer.parseInt(limit));
+        } catch (NumberFormatException e) {
+            send(exchange, 400, error("Invalid after or limit parameter"));
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            for (String change: changes) {
+                out.write(change);
+                out.write('\n');
+            }
+        }
+    }
+
+    private void appointments(HttpExchange exchange) throws IOException {
+        String[] path = path(exchange);
+        if (isPost(exchange) && path.length == 1) {
+            Map<String, Object> body = body(exchange);
+            if (body == null) {
+                return;
+            }
+            if (body.get("patientId") == null || body.get("doctorId") == null) {
+                send(exchange, 400, error("patientId and doctorId are required"));
+                return;
+            }
+            LocalDateTime datetime;
+            try {
+                datetime = LocalDateTime.parse(String.valueOf(body.get("dateTime")), FORMATTER);
+            } catch (DateTimeParseException e) {
+                send(exchange, 400, error("Invalid date format, expected yyyy-MM-dd HH:mm"));
+                return;
+            }
+            int duration = duration(body);
+            if (duration <= 0) {
+                send(exchange, 400, error("Duration must be positive"));
+                return;
+            }
+            BookingResult result = SmartHealthSystem.bookAppointment(text(body, "patientId"), text(body, "doctorId"), text(body, "reason"), datetime, duration);
+            switch (result.getStatus()) {
+                case BOOKED:
+                    send(exchange, 201, appointmentJson(new StringBuilder(), result.getAppointment()));
+                    break;
+                case UNKNOWN_PATIENT:
+                case UNKNOWN_DOCTOR:
+                    send(exchange, 404, error("Invalid ID provided"));
+                    break;
+                case NOT_IN_FUTURE:
+                    send(exchange, 422, error("Appointments can only be scheduled for the future"));
+                    break;
+                case DOCTOR_OFF_DUTY:
+                    send(exchange, 409, error("Outside the doctor's working hours or in blocked time"));
+                    break;
+                default:
+                    StringBuilder out = new StringBuilder("{\"error\":");
+                    Json.quote(out, result.getStatus() == BookingResult.Status.DOCTOR_UNAVAILABLE ? "Doctor is not available at that time" : "Patient is already booked for that time");
+                    appointmentJson(out.append(",\"conflict\":"), result.getAppointment()).append('}');
+                    send(exchange, 409, out);
+                    break;
+            }
+        } else if (isPost(exchange) && path.length == 2 && path[1].equals("batch")) {
+            batch(exchange);
+        } else if (path.length == 2 && path[1].equals("upcoming")) {
+            String days = query(exchange, "days");
+            try {
+                send(exchange, 200, list(days == null ? SmartHealthSystem.upcomingAppointments() : SmartHealthSystem.upcomingAppointments(Integer.parseInt(days)), HttpApi::appointmentJson));
+            } catch (NumberFormatException e) {
+                send(exchange, 400, error("Invalid number of days"));
+            }
+        } else if (path.length == 2 && path[1].equals("overdue")) {
+            send(exchange, 200, list(SmartHealthSystem.overdueAppointments(), HttpApi::appointmentJson));
+        } else {
+            send(exchange, 404, error("Not found"));
+        }
+    }
+
+    //Books the slots or recurrence of the body all or none, answering every rejected slot when they cannot all be booked
+    private void batch(HttpExchange exchange) throws IOException {
+        Map<String, Object> body = body(exchange);
+        if (body == null) {
+            return;
+        }
+        if (body.get("patientId") == null || body.get("doctorId") == null) {
+            send(exchange, 400, error("patientId and doctorId are required"));
+            return;
+        }
+        int duration = duration(body);
+        if (duration <= 0) {
+            send(exchange, 400, error("Duration must be positive"));
+            return;
+        }
+        BatchBookingResult result;
+        try {
+            result = SmartHealthSystem.bookAppointments(text(body, "patientId"), text(body, "doctorId"), text(body, "reason"), slots(body), duration);
+        } catch (DateTimeParseException e) {
+            send(exchange, 400, error("Invalid date format, expected yyyy-MM-dd HH:mm"));
+            return;
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, error(e.getMessage()));
+            return;
+        }
+        switch (result.getStatus()) {
+            case BOOKED:
+                send(exchange, 201, list(result.getAppointments(), HttpApi::appointmentJson));
+                break;
+            case UNKNOWN_PATIENT:
+            case UNKNOWN_DOCTOR:
+                send(exchange, 404, error("Invalid ID provided"));
+                break;
+            default:
+                StringBuilder out = new StringBuilder("{\"error\":\"No appointments booked\",\"rejected\":[");
+                boolean first = true;
+                for (Map.Entry<LocalDateTime, BookingResult> e: result.getRejected().entrySet()) {
+                    Json.quote(out.append(first ? "{\"dateTime\":" : ",{\"dateTime\":"), e.getKey().format(FORMATTER));
+                    Json.quote(out.append(",\"status\":"), e.getValue().getStatus().name());
+                    if (e.getValue().getAppointment() != null) {
+                        appointmentJson(out.append(",\"conflict\":"), e.getValue().getAppointment());
+                    }
+                    out.append('}');
+                    first = false;
+                }
+                send(exchange, 409, out.append("]}"));
+                break;
+        }
+    }
+
+    /**
+     * Returns the start times of a batch body, given either as a list of slots or as a recurrence rule
+     * @throws IllegalArgumentException if the rule is incomplete or invalid
+     * @throws DateTimeParseException if a time is not in yyyy-MM-dd HH:mm format
+     */
+    static List<LocalDateTime> slots(Map<String, Object> body) {
+        List<LocalDateTime> slots = new ArrayList<>();
+        if (!(body.get("recurrence") instanceof Map)) {
+            for (String slot: texts(body, "slots")) {
+                slots.add(LocalDateTime.parse(slot, FORMATTER));
+            }
+            return slots;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> rule = (Map<String, Object>) body.get("recurrence");
+        LocalDateTime start = date(rule, "start");
+        if (start == null) {
+            throw new IllegalArgumentException("recurrence.start is required");
+        }
+        EnumSet<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+        for (String day: texts(rule, "days")) {
+            days.add(DayOfWeek.valueOf(day.toUpperCase(Locale.ROOT)));
+        }
+        if (days.isEmpty()) {
+            days.add(start.getDayOfWeek());
+        }
+        return new Recurrence(start, days, rule.containsKey("intervalWeeks") ? number(rule, "intervalWeeks") : 1, number(rule, "count")).slots();
+    }
+
+    //Holds, releases or restores patient slots of the patients this shard is home to, called by the shard router
+    private void shard(HttpExchange exchange) throws IOException {
+        String[] path = path(exchange);
+        if (!isPost(exchange) || path.length < 2 || path.length > 3 || !path[1].equals("holds")) {
+            send(exchange, 404, error("Not found"));
+            return;
+        }
+        Map<String, Object> body = body(exchange);
+        if (body == null) {
+            return;
+        }
+        PatientHolds holds = SmartHealthSystem.getPatientHolds();
+        try {
+            switch (path.length == 2 ? "hold" : path[2]) {
+                case "hold": {
+                    LocalDateTime conflict = holds.hold(text(body, "patientId"), slots(body), number(body, "durationMinutes"));
+                    if (conflict == null) {
+                        send(exchange, 200, "{}");
+                    } else {
+                        StringBuilder out = new StringBuilder("{\"error\":\"Patient is already booked for that time\",\"dateTime\":");
+                        send(exchange, 409, Json.quote(out, conflict.format(FORMATTER)).append('}'));
+                    }
+                    break;
+                }
+                case "release":
+                    holds.release(text(body, "patientId"), slots(body));
+                    send(exchange, 200, "{}");
+                    break;
+                case "restore":
+                    for (Object held: body.get("holds") instanceof List ? (List<?>) body.get("holds") : List.of()) {
+                        @SuppressWarnings("unchecked")
+                        Map<String, Object> slot = (Map<String, Object>) held;
+                        holds.restore(text(slot, "patientId"), date(slot, "dateTime"), number(slot, "durationMinutes"));
+                    }
+                    send(exchange, 200, "{}");
+                    break;
+                default:
+                    send(exchange, 404, error("Not found"));
+            }
+        } catch (DateTimeParseException | IllegalArgumentException | ClassCastException e) {
+            send(exchange, 400, error("Invalid holds request: " + e.getMessage()));
+        }
+    }
+
+    private void prescriptions(HttpExchange exchange) throws IOException {
+        String[] path = path(exchange);
+        if (path.length == 2 && path[1].equals("expired")) {
+            send(exchange, 200, list(SmartHealthSystem.expiredPrescriptions(), HttpApi::prescriptionJson));
+        } else if (path.length == 2 && path[1].equals("refill")) {
+            send(exchange, 200, list(SmartHealthSystem.refillPrescriptions(), HttpApi::prescriptionJson));
+        } else {
+            send(exchange, 404, error("Not found"));
+        }
+    }
+
+    //Answers the best matches of the q query parameter, at most limit of them (default 20)
+    private static <T> void search(HttpExchange exchange, BiFunction<String, Integer, List<T>> search, JsonWriter<T> writer) throws IOException {
+        String limit = query(exchange, "limit");
+        try {
+            String text = URLDecoder.decode(query(exchange, "q"), StandardCharsets.UTF_8);
+            send(exchange, 200, list(search.apply(text, limit == null ? 20 : Integer.parseInt(limit)), writer));
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, error("Invalid q or limit parameter"));
+        }
+    }
+
+    //Answers one page of appointments, read from the limit and after query parameters
+    private static void page(HttpExchange exchange, BiFunction<LocalDateTime, Integer, List<Appointment>> pages) throws IOException {
+        String limit = query(exchange, "limit");
+        String after = query(exchange, "after");
+        try {
+            send(exchange, 200, list(pages.apply(after == null ? null : LocalDateTime.parse(after), limit == null ? Integer.MAX_VALUE : Integer.parseInt(limit)), HttpApi::appointmentJson));
+        } catch (NumberFormatException | DateTimeParseException e) {
+            send(exchange, 400, error("Invalid limit or after parameter"));
+        }
+    }
+
+    //Streams the rows with a chunked response, so exports of any size use constant memory
+    private void export(HttpExchange exchange) throws IOException {
+        String[] path = path(exchange);
+        String name = query(exchange, "format");
+        RecordExporter.Format format;
+        try {
+            format = name == null ? RecordExporter.Format.NDJSON : RecordExporter.Format.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, error("Unknown format, use csv, json or ndjson"));
+            return;
+        }
+        if (path.length != 2) {
+            send(exchange, 404, error("Not found"));
+            return;
+        }
+        switch (path[1]) {
+            case "patients":
+                stream(exchange, format, RecordExporter.PATIENTS, SmartHealthSystem.patientCursor());
+                break;
+            case "doctors":
+                stream(exchange, format, RecordExporter.DOCTORS, SmartHealthSystem.doctorCursor());
+                break;
+            case "appointments":
+                stream(exchange, format, RecordExporter.APPOINTMENTS, SmartHealthSystem.getAppointments().all().iterator());
+                break;
+            default:
+                send(exchange, 404, error("Not found"));
+        }
+    }
+
+    private static <T> void stream(HttpExchange exchange, RecordExporter.Format format, RecordExporter<T> exporter, Iterator<T> rows) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", format == RecordExporter.Format.CSV ? "text/csv; charset=utf-8"
+                : format == RecordExporter.Format.JSON ? "application/json; charset=utf-8" : "application/x-ndjson; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 1 << 16)) {
+            exporter.export(rows, format, out);
+        }
+    }
+
+    //Writes one entity as JSON to the builder
+    private interface JsonWriter<T> {
+        StringBuilder write(StringBuilder out, T value);
+    }
+
+    private static <T> StringBuilder list(Collection<T> values, JsonWriter<T> writer) {
+        StringBuilder out = new StringBuilder("[");
+        boolean first = true;
+        for (T value: values) {
+            if (!first) {
+                out.append(',');
+            }
+            writer.write(out, value);
+            first = false;
+        }
+        return out.append(']');
+    }
+
+    static StringBuilder patientJson(StringBuilder out, Patient p) {
+        Json.quote(out.append("{\"id\":"), p.getId());
+        Json.quote(out.append(",\"name\":"), p.getName());
+        out.append(",\"age\":").append(p.getAge());
+        Json.quote(out.append(",\"address\":"), p.getAddress());
+        Json.quote(out.append(",\"contact\":"), p.getContact());
+        Json.quote(out.append(",\"registrationDate\":"), p.getRegistrationDate());
+        out.append(",\"medicalHistory\":[");
+        List<String> history = p.getMedicalHistory();
+        for (int i = 0; i < history.size(); i++) {
+            Json.quote(i == 0 ? out : out.append(','), history.get(i));
+        }
+        return out.append("]}");
+    }
+
+    static StringBuilder doctorJson(StringBuilder out, Doctor d) {
+        Json.quote(out.append("{\"id\":"), d.getId());
+        Json.quote(out.append(",\"name\":"), d.getName());
+        Json.quote(out.append(",\"specialization\":"), d.getSpecialization());
+        out.append(",\"age\":").append(d.getAge());
+        Json.quote(out.append(",\"contact\":"), d.getContact());
+        Json.quote(out.append(",\"email\":"), d.getEmail());
+        Json.quote(out.append(",\"registrationDate\":"), d.getRegistrationDate());
+        return out.append('}');
+    }
+
+    static StringBuilder appointmentJson(StringBuilder out, Appointment a) {
+        Json.quote(out.append("{\"id\":"), a.getAppointmentId());
+        Json.quote(out.append(",\"doctorId\":"), a.getDoctorId());
+        Json.quote(out.append(",\"patientId\":"), a.getPatientId());
+        Json.quote(out.append(",\"reason\":"), a.getReason());
+        Json.quote(out.append(",\"dateTime\":"), a.getDateTime().format(FORMATTER));
+        out.append(",\"durationMinutes\":").append(a.getDurationMinutes());
+        return out.append(",\"completed\":").append(a.isCompleted()).append('}');
+    }
+
+    static StringBuilder prescriptionJson(StringBuilder out, Prescription pr) {
+        out.append("{\"id\":").append(pr.getPrescriptionId());
+        out.append(",\"doctorId\":").append(pr.getDoctorId());
+        out.append(",\"patientId\":").append(pr.getPatientId());
+        Json.quote(out.append(",\"medication\":"), pr.getMedicationName());
+        Json.quote(out.append(",\"dosage\":"), pr.getDosage());
+        Json.quote(out.append(",\"notes\":"), pr.getNotes());
+        Json.quote(out.append(",\"startDate\":"), pr.getStartDate() == null ? null : pr.getStartDate().toString());
+        Json.quote(out.append(",\"endDate\":"), pr.getEndDate() == null ? null : pr.getEndDate().toString());
+        return out.append(",\"refillNeeded\":").append(pr.isRefillNeeded()).append('}');
+    }
+
+    static StringBuilder eventJson(StringBuilder out, DomainEvent e) {
+        out.append("{\"sequence\":").append(e.getSequence());
+        Json.quote(out.append(",\"type\":"), e.getType().name());
+        Json.quote(out.append(",\"patientId\":"), e.getPatientId());
+        if (e.getAppointment() != null) {
+            Json.quote(out.append(",\"appointmentId\":"), e.getAppointment().getAppointmentId());
+            Json.quote(out.append(",\"doctorId\":"), e.getAppointment().getDoctorId());
+            Json.quote(out.append(",\"dateTime\":"), e.getDateTime().format(FORMATTER));
+        }
+        if (e.getPrescription() != null) {
+            prescriptionJson(out.append(",\"prescription\":"), e.getPrescription());
+        }
+        return out.append('}');
+    }
+
+    static StringBuilder error(String message) {
+        return Json.quote(new StringBuilder("{\"error\":"), message).append('}');
+    }
+
+    static String[] path(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        return path.replaceAll("^/+|/+$", "").split("/+");
+    }
+
+    //Returns the value of a query string parameter, or null when it is absent
+    static String query(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair: query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return pair.substring(eq + 1);
+            }
+        }
+        return null;
+    }
+
+    static boolean isPost(HttpExchange exchange) {
+        return exchange.getRequestMethod().equalsIgnoreCase("POST");
+    }
+
+    //Parses the request body, answering 400 and returning null when it is not a JSON object
+    static Map<String, Object> body(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return Json.parseObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, error("Invalid JSON: " + e.getMessage()));
+            return null;
+        }
+    }
+
+    static String text(Map<String, Object> body, String field) {
+        Object value = body.get(field);
+        return value == null ? null : value.toString();
+    }
+
+    static int number(Map<String, Object> body, String field) {
+        Object value = body.get(field);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        try {
+            return value == null ? 0 : Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    //Duration of a booking, the default when the body has none; shared with the router, whose holds must cover what the shard books
+    static int duration(Map<String, Object> body) {
+        return body.containsKey("durationMinutes") ? number(body, "durationMinutes") : Appointment.DEFAULT_DURATION_MINUTES;
+    }
+
+    private static LocalDateTime date(Map<String, Object> body, String field) {
+        Object value = body.get(field);
+        return value == null ? null : LocalDateTime.parse(value.toString(), FORMATTER);
+    }
+
+    static List<String> texts(Map<String, Object> body, String field) {
+        List<String> result = new ArrayList<>();
+        if (body.get(field) instanceof List) {
+            for (Object value: (List<?>) body.get(field)) {
+                result.add(String.valueOf(value));
+            }
+        }
+        return result;
+    }
+
+    static void send(HttpExchange exchange, int status, CharSequence json) throws IOException {
+        byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
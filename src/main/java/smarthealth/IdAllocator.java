@@ -0,0 +1,50 @@
+package smarthealth;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class representing a monotonic ID sequence for records of the smart health system
+ * <p>Allocation is a single atomic increment, so it is constant time and safe to call from many threads. The sequence is restored from the IDs found in persisted data so that a restart never hands out an ID that is already taken.
+ */
+public class IdAllocator {
+
+    private final AtomicLong last = new AtomicLong();
+
+    /**
+     * Returns the next free ID
+     */
+    public String next() {
+        return Long.toString(last.incrementAndGet());
+    }
+
+    /**
+     * Moves the sequence past every numeric ID in the given collection
+     * <p>Non-numeric IDs (e.g. typed in by hand) cannot collide with generated ones and are skipped.
+     */
+    public void restore(Collection<String> ids) {
+        long max = 0;
+        for (String id: ids) {
+            try {
+                max = Math.max(max, Long.parseLong(id));
+            } catch (NumberFormatException e) {
+                //Not a generated ID
+            }
+        }
+        advanceTo(max);
+    }
+
+    /**
+     * Makes sure the next allocated ID is greater than the given value
+     */
+    public void advanceTo(long value) {
+        last.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Returns the last ID handed out (0 when none was)
+     */
+    public long current() {
+        return last.get();
+    }
+}
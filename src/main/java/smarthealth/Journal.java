@@ -0,0 +1,515 @@
+package smarthealth;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Class representing the append-only write-ahead journal of the smart health system
+ * <p>Every mutation is appended as a small checksummed record, so saving costs O(change) instead of rewriting the whole database. A single writer thread drains whatever records are waiting, writes them in one go and forces them to disk once (group commit); callers return only after their record is durable.
+ * <p>On start-up the journal is replayed on top of the last snapshot. Replaying a record is idempotent, so a crash after a snapshot is written but before its journal segments are deleted only causes some records to be applied twice: registrations and bookings overwrite the same entry, and a prescription is skipped when the patient already has one with its ID.
+ */
+public class Journal implements AutoCloseable {
+
+    private static final byte PATIENT_REGISTERED = 1;
+    private static final byte DOCTOR_REGISTERED = 2;
+    private static final byte APPOINTMENT_BOOKED = 3;
+    private static final byte APPOINTMENT_RESCHEDULED = 4;
+    private static final byte APPOINTMENT_COMPLETED = 5;
+    private static final byte PRESCRIPTION_ADDED = 6;
+    private static final byte PRESCRIPTION_CHANGED = 7;
+    private static final byte PATIENT_CHANGED = 8;
+    //Set in the type byte of records whose strings are written as their UTF-8 length and bytes; the records of older journals hold modified UTF-8 strings, which cannot be longer than 64 KB
+    private static final int UTF8_STRINGS = 0x40;
+
+    //Header of every record: payload length and CRC32 of the payload
+    private static final int HEADER_BYTES = 8;
+
+    private final Path path;
+    //Replaced by rotate; only used while holding fileLock
+    private FileChannel channel;
+    private final Object fileLock = new Object();
+    private final Thread writer;
+    private final ArrayList<Pending> queue = new ArrayList<>();
+    //Records appended by a thread inside startBatch/commitBatch, held back until the batch is committed
+    private final ThreadLocal<List<Pending>> held = new ThreadLocal<>();
+    private long recordCount;
+    private boolean closed;
+
+    private Journal(Path path, FileChannel channel, long recordCount) {
+        this.path = path;
+        this.channel = channel;
+        this.recordCount = recordCount;
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Replays the journal at the given path into the maps and opens it for appending
+     * <p>A torn record at the end of the file (from a crash in the middle of a write) is cut off before new records are appended.
+     */
+    public static Journal open(Path path, Map<String, Patient> patients, Map<String, Doctor> doctors, Map<String, Appointment> appointments) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long[] replayed = replay(channel, patients, doctors, appointments);
+        channel.truncate(replayed[0]);
+        channel.position(replayed[0]);
+        return new Journal(path, channel, replayed[1]);
+    }
+
+    /**
+     * Replays a segment set aside by {@link #rotate} into the maps, leaving the file as it is
+     */
+    public static void replay(Path segment, Map<String, Patient> patients, Map<String, Doctor> doctors, Map<String, Appointment> appointments) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            replay(channel, patients, doctors, appointments);
+        }
+    }
+
+    //Applies every intact record from the start of the file, returning the length they take up and their number
+    private static long[] replay(FileChannel channel, Map<String, Patient> patients, Map<String, Doctor> doctors, Map<String, Appointment> appointments) throws IOException {
+        long valid = 0;
+        long records = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+        CRC32 crc = new CRC32();
+        while (true) {
+            byte[] payload;
+            try {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || valid + HEADER_BYTES + length > channel.size()) {
+                    break;
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+            apply(payload, patients, doctors, appointments);
+            valid += HEADER_BYTES + payload.length;
+            records++;
+        }
+        return new long[] {valid, records};
+    }
+
+    public void patientRegistered(Patient p) throws IOException {
+        Record r = new Record(PATIENT_REGISTERED);
+        writeText(r.out, p.getId());
+        writeString(r.out, p.getName());
+        r.out.writeInt(p.getAge());
+        writeString(r.out, p.getAddress());
+        writeString(r.out, p.getContact());
+        writeString(r.out, p.getRegistrationDate());
+        r.out.writeInt(p.getMedicalHistory().size());
+        for (String h: p.getMedicalHistory()) {
+            writeString(r.out, h);
+        }
+        append(r);
+    }
+
+    public void doctorRegistered(Doctor d) throws IOException {
+        Record r = new Record(DOCTOR_REGISTERED);
+        writeText(r.out, d.getId());
+        writeString(r.out, d.getName());
+        writeString(r.out, d.getSpecialization());
+        r.out.writeInt(d.getAge());
+        writeString(r.out, d.getContact());
+        writeString(r.out, d.getEmail());
+        writeString(r.out, d.getRegistrationDate());
+        append(r);
+    }
+
+    public void appointmentBooked(Appointment a) throws IOException {
+        Record r = new Record(APPOINTMENT_BOOKED);
+        writeText(r.out, a.getAppointmentId());
+        writeString(r.out, a.getDoctorId());
+        writeString(r.out, a.getPatientId());
+        writeString(r.out, a.getReason());
+        writeString(r.out, a.getDateTime().toString());
+        r.out.writeInt(a.getDurationMinutes());
+        r.out.writeBoolean(a.isCompleted());
+        append(r);
+    }
+
+    public void appointmentRescheduled(Appointment a) throws IOException {
+        Record r = new Record(APPOINTMENT_RESCHEDULED);
+        writeText(r.out, a.getAppointmentId());
+        writeString(r.out, a.getDateTime().toString());
+        append(r);
+    }
+
+    public void appointmentCompleted(Appointment a) throws IOException {
+        Record r = new Record(APPOINTMENT_COMPLETED);
+        writeText(r.out, a.getAppointmentId());
+        append(r);
+    }
+
+    public void prescriptionAdded(String patientId, Prescription pr) throws IOException {
+        Record r = new Record(PRESCRIPTION_ADDED);
+        writeText(r.out, patientId);
+        r.out.writeInt(pr.getPrescriptionId());
+        r.out.writeInt(pr.getDoctorId());
+        r.out.writeInt(pr.getPatientId());
+        writeString(r.out, pr.getMedicationName());
+        writeString(r.out, pr.getDosage());
+        writeString(r.out, pr.getNotes());
+        writeString(r.out, pr.getStartDate() == null ? null : pr.getStartDate().toString());
+        writeString(r.out, pr.getEndDate() == null ? null : pr.getEndDate().toString());
+        r.out.writeBoolean(pr.isRefillNeeded());
+        append(r);
+    }
+
+    public void prescriptionChanged(String patientId, Prescription pr) throws IOException {
+        Record r = new Record(PRESCRIPTION_CHANGED);
+        writeText(r.out, patientId);
+        r.out.writeInt(pr.getPrescriptionId());
+        writeString(r.out, pr.getEndDate() == null ? null : pr.getEndDate().toString());
+        r.out.writeBoolean(pr.isRefillNeeded());
+        append(r);
+    }
+
+    public void patientChanged(Patient p) throws IOException {
+        Record r = new Record(PATIENT_CHANGED);
+        writeText(r.out, p.getId());
+        writeString(r.out, p.getName());
+        writeString(r.out, p.getAddress());
+        writeString(r.out, p.getContact());
+        r.out.writeInt(p.getMedicalHistory().size());
+        for (String h: p.getMedicalHistory()) {
+            writeString(r.out, h);
+        }
+        append(r);
+    }
+
+    /**
+     * Returns the number of records appended since the journal was last reset
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Sets the records appended so far aside in the given segment file and carries on with an empty journal, which is how a snapshot is captured (see {@link SnapshotWriter})
+     * <p>Costs a rename and a file creation however long the journal is. Must not run while a mutation is being appended, or its record could end up in either file.
+     */
+    public void rotate(Path segment) throws IOException {
+        synchronized (fileLock) {
+            channel.force(true);
+            channel.close();
+            Files.move(path, segment, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        synchronized (this) {
+            recordCount = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (fileLock) {
+            channel.close();
+        }
+    }
+
+    private void append(Record record) throws IOException {
+        byte[] payload = record.bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + payload.length);
+        buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+
+        Pending pending = new Pending(buffer);
+        List<Pending> batch = held.get();
+        if (batch != null) {
+            batch.add(pending);
+        } else {
+            commit(List.of(pending));
+        }
+    }
+
+    /**
+     * Holds back the records the calling thread appends until {@link #commitBatch()}, so a batch of them costs one disk force instead of one each
+     * <p>The changes behind held records are visible to other threads before they are durable; a crash before the commit loses the whole batch.
+     */
+    public void startBatch() {
+        held.set(new ArrayList<>());
+    }
+
+    /**
+     * Appends the records held back since {@link #startBatch()} and returns once all of them are durable
+     */
+    public void commitBatch() throws IOException {
+        List<Pending> batch = held.get();
+        held.remove();
+        if (batch != null && !batch.isEmpty()) {
+            commit(batch);
+        }
+    }
+
+    //Hands the records to the writer thread and waits until they have been forced to disk
+    private void commit(List<Pending> records) throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Journal is closed");
+            }
+            queue.addAll(records);
+            notifyAll();
+            for (Pending pending: records) {
+                while (!pending.done) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the journal", e);
+                    }
+                }
+            }
+        }
+        for (Pending pending: records) {
+            if (pending.error != null) {
+                throw pending.error;
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            synchronized (this) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (queue.isEmpty()) {
+                    return;
+                }
+                batch.addAll(queue);
+                queue.clear();
+            }
+            IOException error = null;
+            try {
+                write(batch);
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized (this) {
+                for (Pending p: batch) {
+                    p.error = error;
+                    p.done = true;
+                }
+                if (error == null) {
+                    recordCount += batch.size();
+                }
+                notifyAll();
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(List<Pending> batch) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        long remaining = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = batch.get(i).buffer;
+            remaining += buffers[i].remaining();
+        }
+        synchronized (fileLock) {
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+            channel.force(false);
+        }
+    }
+
+    private static void apply(byte[] payload, Map<String, Patient> patients, Map<String, Doctor> doctors, Map<String, Appointment> appointments) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int header = in.readUnsignedByte();
+        boolean utf8 = (header & UTF8_STRINGS) != 0;
+        byte type = (byte) (header & ~UTF8_STRINGS);
+        switch (type) {
+            case PATIENT_REGISTERED: {
+                String id = readText(in, utf8);
+                String name = readString(in, utf8);
+                int age = in.readInt();
+                String address = readString(in, utf8);
+                String contact = readString(in, utf8);
+                String registered = readString(in, utf8);
+                List<String> history = new ArrayList<>();
+                for (int i = in.readInt(); i > 0; i--) {
+                    history.add(readString(in, utf8));
+                }
+                Patient p = new Patient(id, name, age, address, contact, history);
+                p.setRegistrationDate(LocalDateTime.parse(registered));
+                patients.put(id, p);
+                break;
+            }
+            case DOCTOR_REGISTERED: {
+                String id = readText(in, utf8);
+                String name = readString(in, utf8);
+                String spec = readString(in, utf8);
+                int age = in.readInt();
+                String contact = readString(in, utf8);
+                String email = readString(in, utf8);
+                String registered = readString(in, utf8);
+                Doctor d = new Doctor(id, name, spec, age, contact, email);
+                d.setRegistrationDate(LocalDateTime.parse(registered));
+                doctors.put(id, d);
+                break;
+            }
+            case APPOINTMENT_BOOKED: {
+                String id = readText(in, utf8);
+                Appointment a = new Appointment(id, readString(in, utf8), readString(in, utf8), readString(in, utf8), LocalDateTime.parse(readString(in, utf8)), in.readInt());
+                if (in.readBoolean()) {
+                    a.markCompleted();
+                }
+                appointments.put(id, a);
+                break;
+            }
+            case APPOINTMENT_RESCHEDULED: {
+                Appointment a = appointments.get(readText(in, utf8));
+                LocalDateTime time = LocalDateTime.parse(readString(in, utf8));
+                if (a != null) {
+                    a.setDateTime(time);
+                }
+                break;
+            }
+            case APPOINTMENT_COMPLETED: {
+                Appointment a = appointments.get(readText(in, utf8));
+                if (a != null) {
+                    a.markCompleted();
+                }
+                break;
+            }
+            case PRESCRIPTION_ADDED: {
+                Patient p = patients.get(readText(in, utf8));
+                Prescription pr = new Prescription(in.readInt(), in.readInt(), in.readInt(), readString(in, utf8), readString(in, utf8), null, null, readString(in, utf8));
+                String start = readString(in, utf8);
+                String end = readString(in, utf8);
+                pr.setStartDate(start == null ? null : LocalDateTime.parse(start));
+                pr.setEndDate(end == null ? null : LocalDateTime.parse(end));
+                pr.setRefill(in.readBoolean());
+                if (p != null && !p.hasPrescription(pr.getPrescriptionId())) {
+                    p.addPrescription(pr);
+                    //Puts the changed patient back, so a map paging patients to disk keeps it
+                    patients.put(p.getId(), p);
+                }
+                break;
+            }
+            case PRESCRIPTION_CHANGED: {
+                Patient p = patients.get(readText(in, utf8));
+                Prescription pr = p == null ? null : p.getPrescription(in.readInt());
+                if (pr != null) {
+                    String end = readString(in, utf8);
+                    pr.setEndDate(end == null ? null : LocalDateTime.parse(end));
+                    pr.setRefill(in.readBoolean());
+                    patients.put(p.getId(), p);
+                }
+                break;
+            }
+            case PATIENT_CHANGED: {
+                String id = readText(in, utf8);
+                String name = readString(in, utf8);
+                String address = readString(in, utf8);
+                String contact = readString(in, utf8);
+                List<String> history = new ArrayList<>();
+                for (int i = in.readInt(); i > 0; i--) {
+                    history.add(readString(in, utf8));
+                }
+                Patient p = patients.get(id);
+                if (p != null) {
+                    p.copyDetails(new Patient(id, name, p.getAge(), address, contact, history));
+                    patients.put(id, p);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown journal record type " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            writeText(out, value);
+        }
+    }
+
+    private static String readString(DataInputStream in, boolean utf8) throws IOException {
+        return in.readBoolean() ? readText(in, utf8) : null;
+    }
+
+    //Writes the string as its UTF-8 length and bytes, so unlike writeUTF it can be of any length
+    private static void writeText(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readText(DataInputStream in, boolean utf8) throws IOException {
+        if (!utf8) {
+            return in.readUTF();
+        }
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Journal string of " + length + " bytes runs past its record");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //Record payload being built: the type byte followed by its fields
+    private static final class Record {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        private Record(byte type) throws IOException {
+            out.writeByte(type | UTF8_STRINGS);
+        }
+    }
+
+    //Record waiting for the writer thread to make it durable
+    private static final class Pending {
+        private final ByteBuffer buffer;
+        private boolean done;
+        private IOException error;
+
+        private Pending(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
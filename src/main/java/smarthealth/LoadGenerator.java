@@ -0,0 +1,114 @@
+package smarthealth;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class representing a local load generator for the HTTP API of the smart health system
+ * <p>Registers a set of doctors and patients, then fires booking requests at random slots from many concurrent clients and prints the throughput, latency percentiles and response status counts. Without a URL it starts an in-process API on a free loopback port first.
+ * <pre>
+ * java smarthealth.LoadGenerator [url] [concurrent clients] [bookings] [doctors] [patients]
+ * java smarthealth.LoadGenerator http://localhost:8080 2000 200000 500 20000
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    public static void main(String[] args) throws Exception {
+        HttpApi local = null;
+        String url;
+        if (args.length > 0 && args[0].startsWith("http")) {
+            url = args[0].replaceAll("/+$", "");
+        } else {
+            local = HttpApi.start(0);
+            url = "http://127.0.0.1:" + local.getPort();
+        }
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int bookings = args.length > 2 ? Integer.parseInt(args[2]) : 50_000;
+        int doctors = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        int patients = args.length > 4 ? Integer.parseInt(args[4]) : 5_000;
+        run(url, clients, bookings, doctors, patients);
+        if (local != null) {
+            local.stop();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Registers the doctors and patients at the API under the given URL, books the appointments, prints the results and returns the booking throughput in requests per second
+     */
+    public static double run(String url, int clients, int bookings, int doctors, int patients) throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(10)).build();
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        System.out.println("Registering " + doctors + " doctors and " + patients + " patients at " + url);
+        Semaphore inFlight = new Semaphore(clients);
+        for (int i = 0; i < doctors; i++) {
+            send(client, inFlight, url + "/doctors", "{\"id\":\"LD" + run + "-" + i + "\",\"name\":\"Load Doctor " + i + "\",\"specialization\":\"Spec " + (i % 12) + "\",\"age\":40}", null, null);
+        }
+        for (int i = 0; i < patients; i++) {
+            send(client, inFlight, url + "/patients", "{\"id\":\"LP" + run + "-" + i + "\",\"name\":\"Load Patient " + i + "\",\"age\":30}", null, null);
+        }
+        inFlight.acquire(clients);
+        inFlight.release(clients);
+
+        System.out.println("Booking " + bookings + " appointments from " + clients + " concurrent clients");
+        LocalDateTime start = LocalDateTime.now().plusDays(1).withHour(8).withMinute(0).withSecond(0).withNano(0);
+        long[] latencies = new long[bookings];
+        ConcurrentHashMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        AtomicInteger next = new AtomicInteger();
+        long began = System.nanoTime();
+        for (int i = 0; i < bookings; i++) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            LocalDateTime slot = start.plusDays(random.nextInt(30)).plusMinutes(30L * random.nextInt(20));
+            String body = "{\"patientId\":\"LP" + run + "-" + random.nextInt(patients) + "\",\"doctorId\":\"LD" + run + "-" + random.nextInt(doctors)
+                    + "\",\"reason\":\"Load test\",\"dateTime\":\"" + slot.format(FORMATTER) + "\"}";
+            send(client, inFlight, url + "/appointments", body, latencies, next).thenAccept(status -> statuses.computeIfAbsent(status, s -> new LongAdder()).increment());
+        }
+        inFlight.acquire(clients);
+        double seconds = (System.nanoTime() - began) / 1e9;
+
+        long[] done = Arrays.copyOf(latencies, next.get());
+        Arrays.sort(done);
+        System.out.printf("%d requests in %.2f s: %.0f requests/s%n", done.length, seconds, done.length / seconds);
+        if (done.length > 0) {
+            System.out.printf("Latency ms: p50 %.2f, p90 %.2f, p99 %.2f, max %.2f%n", percentile(done, 0.5), percentile(done, 0.9), percentile(done, 0.99), done[done.length - 1] / 1e6);
+        }
+        System.out.println("Statuses (201 booked, 409 conflict): " + statuses);
+        return done.length / seconds;
+    }
+
+    //Posts the body, holding one permit while the request is in flight; records the latency when an array is given
+    private static CompletableFuture<Integer> send(HttpClient client, Semaphore inFlight, String url, String body, long[] latencies, AtomicInteger next) throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        inFlight.acquire();
+        long sent = System.nanoTime();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, error) -> {
+                    if (latencies != null) {
+                        latencies[next.getAndIncrement()] = System.nanoTime() - sent;
+                    }
+                    inFlight.release();
+                    return error == null ? response.statusCode() : -1;
+                });
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+    }
+}
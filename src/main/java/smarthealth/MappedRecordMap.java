@@ -0,0 +1,348 @@
+package smarthealth;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Class representing a map of entities backed by a memory-mapped {@link RecordFile}
+ * <p>Records stay in the mapped file until they are first read, at which point they are decoded once and kept; entities put into the map afterwards live in an in-memory overlay. Loading is therefore O(1) however large the file is.
+ * <p>The map is safe to use from many threads: a record decoded by two threads at once is simply decoded twice and one copy wins. Removing entries is not supported, as the system never deletes records.
+ * <p>Given a cache size, only that many decoded records are kept, in a {@link RecordCache}; the rest stay cold in the file and are decoded again when next read, so a population larger than the heap can be served. Records changed in place must then be put back into the map, which holds them in the overlay until they are in the file. The overlay counts against the cache size: once it holds more entities than that, the map tells its {@link #onFull} listener, which is expected to write the map out and hand the new file to {@link #flushed}, dropping the entities it holds. A caller holding a record while it is evicted and decoded again for another caller sees a separate copy, so changes should be made under a lock that is held while the record is read again, see {@link PatientRepository#update}.
+ */
+public class MappedRecordMap<V> extends AbstractMap<String, V> {
+
+    //The file records are read from with the records decoded from it, replaced together by flushed
+    private static final class Source {
+        private final RecordFile file;
+        //Every decoded record, when the map keeps them all
+        private final AtomicReferenceArray<Object> decoded;
+        //The recently read records, when the map is bounded
+        private final RecordCache cache;
+
+        private Source(RecordFile file, AtomicReferenceArray<Object> decoded, RecordCache cache) {
+            this.file = file;
+            this.decoded = decoded;
+            this.cache = cache;
+        }
+    }
+
+    //An entity put into the map, with the version of the map it was put at
+    private static final class Change<V> {
+        private final V value;
+        private final long version;
+
+        private Change(V value, long version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+
+    private volatile Source source;
+    private final int cacheSize;
+    //Records put back after they were changed, by ID, when the map is bounded
+    private final ConcurrentHashMap<String, Change<V>> pinned = new ConcurrentHashMap<>();
+    //Entities whose ID is not in the file
+    private final ConcurrentHashMap<String, Change<V>> added = new ConcurrentHashMap<>();
+    //Counts the puts, so flushed can tell the entities that are in the new file from those put after it was captured
+    private final AtomicLong version = new AtomicLong();
+    private volatile Runnable onFull;
+
+    public MappedRecordMap(RecordFile file) {
+        this(file, 0);
+    }
+
+    /**
+     * Maps the file, keeping at most {@code cacheSize} decoded records and as many changed and added ones, or all of them when it is 0
+     */
+    public MappedRecordMap(RecordFile file, int cacheSize) {
+        this.cacheSize = cacheSize;
+        this.source = cacheSize > 0 ? new Source(file, null, new RecordCache(cacheSize)) : new Source(file, new AtomicReferenceArray<>(file.size()), null);
+    }
+
+    /**
+     * Publishes the hits, misses, evictions and size of the cache as metrics named {@code <name>.cache.*}; does nothing for an unbounded map
+     */
+    public void registerMetrics(String name) {
+        if (cacheSize == 0) {
+            return;
+        }
+        //The counters are carried over to the cache of each new file, see flushed
+        Metrics.gauge(name + ".cache.hits", () -> source.cache.hits());
+        Metrics.gauge(name + ".cache.misses", () -> source.cache.misses());
+        Metrics.gauge(name + ".cache.evictions", () -> source.cache.evictions());
+        Metrics.gauge(name + ".cache.size", () -> source.cache.size());
+        Metrics.gauge(name + ".cache.pinned", pinned::size);
+        Metrics.gauge(name + ".cache.added", added::size);
+        Metrics.gauge(name + ".cache.hitRatePercent", () -> {
+            long hits = source.cache.hits();
+            long total = hits + source.cache.misses();
+            return total == 0 ? 0 : hits * 100 / total;
+        });
+    }
+
+    /**
+     * Sets the listener told, on the thread putting into the map, each time a put leaves more changed and added entities than the cache size; only used by a bounded map
+     */
+    public void onFull(Runnable listener) {
+        this.onFull = listener;
+    }
+
+    /**
+     * Returns the number of changed and added entities held in memory until they are in the file
+     */
+    public int held() {
+        return pinned.size() + added.size();
+    }
+
+    /**
+     * Returns the number of puts so far; entities put before the version read while no put is going on are all in a file written after it
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Reads records from a file written from this map, dropping the changed and added entities it holds that were put before the given {@link #version()}, which are in the file; does nothing for an unbounded map
+     */
+    public void flushed(RecordFile file, long upTo) {
+        if (cacheSize == 0) {
+            return;
+        }
+        Source previous = source;
+        source = new Source(file, null, new RecordCache(cacheSize, previous.cache));
+        //A change put since is newer than the one seen here, so it is kept by the conditional removes
+        pinned.forEach((id, change) -> {
+            if (change.version < upTo) {
+                pinned.remove(id, change);
+            }
+        });
+        added.forEach((id, change) -> {
+            if (change.version < upTo) {
+                added.remove(id, change);
+            } else if (file.find(id) >= 0) {
+                pinned.merge(id, change, (held, moved) -> held.version >= moved.version ? held : moved);
+                added.remove(id, change);
+            }
+        });
+    }
+
+    @Override
+    public int size() {
+        return source.file.size() + added.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && (added.containsKey(key) || source.file.find((String) key) >= 0);
+    }
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        Change<V> change = changed((String) key);
+        if (change != null) {
+            return change.value;
+        }
+        Source current = source;
+        int row = current.file.find((String) key);
+        return row < 0 ? null : decode(current, row);
+    }
+
+    @Override
+    public V put(String key, V value) {
+        Source current = source;
+        int row = current.file.find(key);
+        Change<V> change = new Change<>(value, version.getAndIncrement());
+        Change<V> previous;
+        if (row < 0) {
+            previous = added.put(key, change);
+        } else if (current.cache != null) {
+            V replaced = get(key);
+            previous = pinned.put(key, change);
+            current.cache.remove(row);
+            //Put before flushed moved it to pinned
+            added.remove(key);
+            full();
+            return replaced;
+        } else {
+            return decoded(current, row, value);
+        }
+        full();
+        return previous != null ? previous.value : null;
+    }
+
+    @Override
+    public V putIfAbsent(String key, V value) {
+        Change<V> change = changed(key);
+        if (change != null) {
+            return change.value;
+        }
+        Source current = source;
+        int row = current.file.find(key);
+        if (row >= 0) {
+            return decode(current, row);
+        }
+        Change<V> previous = added.putIfAbsent(key, new Change<>(value, version.getAndIncrement()));
+        full();
+        return previous != null ? previous.value : null;
+    }
+
+    //A changed record is looked up first, as flushed may be moving it from added to pinned
+    private Change<V> changed(String key) {
+        Change<V> change = pinned.get(key);
+        return change != null ? change : added.get(key);
+    }
+
+    private void full() {
+        Runnable listener = onFull;
+        if (listener != null && cacheSize > 0 && held() > cacheSize) {
+            listener.run();
+        }
+    }
+
+    @Override
+    public Set<String> keySet() {
+        //IDs are read straight from the file, without decoding the records
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<String> iterator() {
+                Source current = source;
+                Iterator<Map.Entry<String, Change<V>>> extra = extra(current);
+                return new Iterator<>() {
+                    private int row;
+
+                    @Override
+                    public boolean hasNext() {
+                        return row < current.file.size() || extra.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        if (row < current.file.size()) {
+                            return current.file.id(row++);
+                        }
+                        return extra.next().getKey();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return MappedRecordMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return containsKey(o);
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Map.Entry<String, V>> iterator() {
+                Source current = source;
+                Iterator<Map.Entry<String, Change<V>>> extra = extra(current);
+                return new Iterator<>() {
+                    private int row;
+
+                    @Override
+                    public boolean hasNext() {
+                        return row < current.file.size() || extra.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, V> next() {
+                        if (row < current.file.size()) {
+                            String id = current.file.id(row);
+                            return new SimpleImmutableEntry<>(id, scan(current, row++));
+                        }
+                        Map.Entry<String, Change<V>> entry = extra.next();
+                        return new SimpleImmutableEntry<>(entry.getKey(), entry.getValue().value);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return MappedRecordMap.this.size();
+            }
+        };
+    }
+
+    //The added entities not in the file iterated over, which flushed may not have moved to pinned yet
+    private Iterator<Map.Entry<String, Change<V>>> extra(Source current) {
+        Iterator<Map.Entry<String, Change<V>>> entries = added.entrySet().iterator();
+        return new Iterator<>() {
+            private Map.Entry<String, Change<V>> next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && entries.hasNext()) {
+                    Map.Entry<String, Change<V>> entry = entries.next();
+                    if (current.file.find(entry.getKey()) < 0) {
+                        next = entry;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, Change<V>> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, Change<V>> entry = next;
+                next = null;
+                return entry;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private V decode(Source current, int row) {
+        if (current.cache != null) {
+            return (V) current.cache.get(row, current.file::read);
+        }
+        Object entity = current.decoded.get(row);
+        if (entity == null) {
+            entity = current.file.read(row);
+            if (!current.decoded.compareAndSet(row, null, entity)) {
+                entity = current.decoded.get(row);
+            }
+        }
+        return (V) entity;
+    }
+
+    //Replaces the decoded record of an unbounded map, returning the one it replaces
+    private V decoded(Source current, int row, V value) {
+        V previous = decode(current, row);
+        current.decoded.set(row, value);
+        return previous;
+    }
+
+    //Reads a record for a scan over the whole map, which would only flush the cache, so cold records are decoded without being cached
+    @SuppressWarnings("unchecked")
+    private V scan(Source current, int row) {
+        if (current.cache == null) {
+            return decode(current, row);
+        }
+        Change<V> change = pinned.get(current.file.id(row));
+        if (change != null) {
+            return change.value;
+        }
+        Object cached = current.cache.peek(row);
+        return (V) (cached != null ? cached : current.file.read(row));
+    }
+}
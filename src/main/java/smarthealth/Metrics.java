@@ -0,0 +1,331 @@
+package smarthealth;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Class representing the metrics of the smart health system: counters, latency timers and size gauges, by name
+ * <p>Metrics are off unless the JVM is started with {@code -Dsmarthealth.metrics=true} or they are switched on through JMX; while off, timing and counting cost one volatile read. Counters are {@link LongAdder}s, and timers keep a log-linear histogram of nanoseconds (16 buckets per power of two, so percentiles are within about 6%) in the style of HdrHistogram, so recording never allocates or locks.
+ * <p>Everything is published as the {@code smarthealth:type=Metrics} MBean and can be dumped as text with {@link #dump}.
+ */
+public final class Metrics {
+
+    //Start time handed out while metrics are off; stopping a timer with it records nothing
+    private static final long OFF = Long.MIN_VALUE;
+
+    private static volatile boolean enabled = Boolean.parseBoolean(System.getProperty("smarthealth.metrics", "false"));
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final ConcurrentSkipListMap<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * A count of events
+     */
+    public static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        private Counter() {
+        }
+
+        public void increment() {
+            if (enabled) {
+                count.increment();
+            }
+        }
+
+        public void add(long n) {
+            if (enabled) {
+                count.add(n);
+            }
+        }
+
+        public long get() { return count.sum(); }
+    }
+
+    /**
+     * A latency histogram, fed with the start times handed out by {@link Metrics#start}
+     */
+    public static final class Timer {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Timer() {
+        }
+
+        /**
+         * Records the time elapsed since {@code start}
+         * @return the current time, so consecutive phases can be timed as laps, or the start value itself when metrics are off
+         */
+        public long stop(long start) {
+            if (start == OFF) {
+                return OFF;
+            }
+            long now = System.nanoTime();
+            record(now - start);
+            return now;
+        }
+
+        public void record(long nanos) {
+            long value = Math.max(nanos, 0);
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            total.add(value);
+            max.accumulate(value);
+        }
+
+        public long getCount() { return count.sum(); }
+        public long getMax() { return max.get(); }
+
+        public long getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : total.sum() / n;
+        }
+
+        /**
+         * Returns the value below which the given fraction of the recorded values lie, in nanoseconds
+         */
+        public long percentile(double fraction) {
+            long[] counts = new long[BUCKETS];
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                n += counts[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(value(i), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        //Values below SUB_BUCKETS get a bucket each, larger ones SUB_BUCKETS buckets per power of two
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        //Middle of the bucket's range
+        private static long value(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+            return lower + (1L << (exponent - SUB_BITS)) / 2;
+        }
+    }
+
+    public static boolean isEnabled() { return enabled; }
+    public static void setEnabled(boolean on) { enabled = on; }
+
+    /**
+     * Returns the counter with the given name, creating it on first use
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    /**
+     * Returns the timer with the given name, creating it on first use
+     */
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    /**
+     * Publishes a value that is read only when the metrics are dumped, such as the size of a map
+     */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Returns the start time to hand to {@link Timer#stop}
+     */
+    public static long start() {
+        return enabled ? System.nanoTime() : OFF;
+    }
+
+    /**
+     * Writes every metric as one line of text: gauges and counters with their value, timers with their count and latency percentiles in microseconds
+     */
+    public static void dump(Writer out) throws IOException {
+        out.write("metrics " + (enabled ? "on" : "off") + '\n');
+        for (Map.Entry<String, LongSupplier> g: gauges.entrySet()) {
+            out.write(g.getKey() + ' ' + g.getValue().getAsLong() + '\n');
+        }
+        for (Map.Entry<String, Counter> c: new TreeMap<>(counters).entrySet()) {
+            out.write(c.getKey() + ' ' + c.getValue().get() + '\n');
+        }
+        for (Map.Entry<String, Timer> t: new TreeMap<>(timers).entrySet()) {
+            Timer timer = t.getValue();
+            out.write(String.format("%s count=%d mean=%.1fus p50=%.1fus p99=%.1fus p999=%.1fus max=%.1fus%n", t.getKey(), timer.getCount(),
+                    micros(timer.getMean()), micros(timer.percentile(0.5)), micros(timer.percentile(0.99)), micros(timer.percentile(0.999)), micros(timer.getMax())));
+        }
+        out.flush();
+    }
+
+    /**
+     * Registers the metrics MBean with the platform MBean server, once
+     */
+    public static synchronized void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("smarthealth:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), name);
+            }
+        } catch (JMException e) {
+            System.out.println("Could not register the metrics MBean: " + e.getMessage());
+        }
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    //Exposes each gauge and counter as an attribute, each timer as <name>.count, .mean, .p50, .p99 and .max attributes (latencies in nanoseconds), and Enabled as the one writable attribute
+    private static final class MetricsBean implements DynamicMBean {
+        private static final String[] TIMER_FIELDS = {"count", "mean", "p50", "p99", "max"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            if (attribute.equals("Enabled")) {
+                return enabled;
+            }
+            LongSupplier gauge = gauges.get(attribute);
+            if (gauge != null) {
+                return gauge.getAsLong();
+            }
+            Counter counter = counters.get(attribute);
+            if (counter != null) {
+                return counter.get();
+            }
+            int dot = attribute.lastIndexOf('.');
+            Timer timer = dot < 0 ? null : timers.get(attribute.substring(0, dot));
+            if (timer != null) {
+                switch (attribute.substring(dot + 1)) {
+                    case "count": return timer.getCount();
+                    case "mean": return timer.getMean();
+                    case "p50": return timer.percentile(0.5);
+                    case "p99": return timer.percentile(0.99);
+                    case "max": return timer.getMax();
+                    default: break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            if (!attribute.getName().equals("Enabled")) {
+                throw new AttributeNotFoundException(attribute.getName());
+            }
+            enabled = (Boolean) attribute.getValue();
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String a: attributes) {
+                try {
+                    list.add(new Attribute(a, getAttribute(a)));
+                } catch (AttributeNotFoundException e) {
+                    //Unknown attributes are left out, as the DynamicMBean contract allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            AttributeList set = new AttributeList();
+            for (Attribute a: attributes.asList()) {
+                try {
+                    setAttribute(a);
+                    set.add(a);
+                } catch (AttributeNotFoundException e) {
+                    //Read-only or unknown, left out
+                }
+            }
+            return set;
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) {
+            if (!action.equals("dump")) {
+                throw new UnsupportedOperationException(action);
+            }
+            StringWriter out = new StringWriter();
+            try {
+                dump(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toString();
+        }
+
+        //Rebuilt on every call, as metrics are created on first use
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            attributes.add(new MBeanAttributeInfo("Enabled", "boolean", "Whether metrics are recorded", true, true, true));
+            for (String g: gauges.keySet()) {
+                attributes.add(new MBeanAttributeInfo(g, "long", "Gauge", true, false, false));
+            }
+            for (String c: new TreeMap<>(counters).keySet()) {
+                attributes.add(new MBeanAttributeInfo(c, "long", "Counter", true, false, false));
+            }
+            for (String t: new TreeMap<>(timers).keySet()) {
+                for (String field: TIMER_FIELDS) {
+                    attributes.add(new MBeanAttributeInfo(t + '.' + field, "long", field.equals("count") ? "Timer count" : "Timer latency in nanoseconds", true, false, false));
+                }
+            }
+            MBeanOperationInfo dump = new MBeanOperationInfo("dump", "Every metric as text", new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO);
+            return new MBeanInfo(Metrics.class.getName(), "Smart health system metrics", attributes.toArray(new MBeanAttributeInfo[0]),
+                    null, new MBeanOperationInfo[] {dump}, null);
+        }
+    }
+}
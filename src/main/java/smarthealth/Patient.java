@@ -0,0 +1,157 @@
+package smarthealth;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.time.LocalDateTime;
+import java.io.Serializable;
+
+/**
+ * Class representing a patient of the smart health system
+ * <p>Stored compactly: free text as UTF-8 bytes, the registration date as epoch seconds, medical conditions as shared {@link StringDictionary} instances where the dictionary has them, and medical history and prescriptions as arrays allocated only once the first entry is added. The getters build the usual types on demand.
+ */
+public class Patient implements Serializable {
+
+    private String id;
+    private byte[] name;
+    private int age;
+    private String[] medicalHistory;
+    private byte[] contactNumber;
+    private byte[] address;
+    private long registrationDate;
+    private Prescription[] prescriptions;
+    @Serial
+    private static final long serialVersionUID = 1L;
+    //Fields of the serialized form, which predates the compact layout and is kept so older snapshots still load
+    @Serial
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("id", String.class),
+            new ObjectStreamField("name", String.class),
+            new ObjectStreamField("age", int.class),
+            new ObjectStreamField("medicalHistory", List.class),
+            new ObjectStreamField("contactNumber", String.class),
+            new ObjectStreamField("address", String.class),
+            new ObjectStreamField("registrationDate", LocalDateTime.class),
+            new ObjectStreamField("prescriptions", List.class)
+    };
+
+    public Patient(String id, String name, int age, String address, String contact) {
+        this.id = id;
+        this.name = CompactFields.bytes(name);
+        this.age = age;
+        this.address = CompactFields.bytes(address);
+        this.contactNumber = CompactFields.bytes(contact);
+        this.registrationDate = CompactFields.epoch(LocalDateTime.now());
+    }
+
+    public Patient(String id, String name, int age, String address, String contact, List<String> medHist) {
+        this(id, name, age, address, contact);
+        this.medicalHistory = conditions(medHist);
+    }
+
+    public String getId() { return this.id; }
+    public String getName() { return CompactFields.text(this.name); }
+    public int getAge() { return this.age; }
+    public String getAddress() { return CompactFields.text(this.address); }
+    public String getContact() { return CompactFields.text(this.contactNumber); }
+    public String getRegistrationDate() { return CompactFields.time(this.registrationDate).toString(); }
+    public List<String> getMedicalHistory() {
+        return medicalHistory == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(medicalHistory));
+    }
+    public List<Prescription> getRecentPrescriptions() {
+        return prescriptions == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(prescriptions));
+    }
+
+    public void setId(String id) { this.id = id; }
+    public void setName(String name) { this.name = CompactFields.bytes(name); }
+    public void setAge(int age) { this.age = age; }
+    public void setAddress(String address) { this.address = CompactFields.bytes(address); }
+    public void setContact(String contact) { this.contactNumber = CompactFields.bytes(contact); }
+    public void setRegistrationDate(LocalDateTime date) { this.registrationDate = CompactFields.epoch(date); }
+    //Both lists are replaced rather than grown in place, so a list returned by a getter is never changed under its reader
+    public void addMedicalHistory(String history) {
+        String condition = StringDictionary.CONDITIONS.intern(history);
+        medicalHistory = medicalHistory == null ? new String[] {condition} : append(medicalHistory, condition);
+    }
+    public void addPrescription(Prescription prescr) {
+        prescriptions = prescriptions == null ? new Prescription[] {prescr} : append(prescriptions, prescr);
+    }
+    //Takes the fields the setters change from another copy of this patient, as a journal replay does
+    void copyDetails(Patient from) {
+        name = from.name;
+        address = from.address;
+        contactNumber = from.contactNumber;
+        medicalHistory = from.medicalHistory;
+    }
+    public boolean hasPrescription(int prescriptionId) {
+        return getPrescription(prescriptionId) != null;
+    }
+    public Prescription getPrescription(int prescriptionId) {
+        if (prescriptions != null) {
+            for (Prescription pr: prescriptions) {
+                if (pr.getPrescriptionId() == prescriptionId) {
+                    return pr;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static <T> T[] append(T[] array, T value) {
+        T[] grown = Arrays.copyOf(array, array.length + 1);
+        grown[array.length] = value;
+        return grown;
+    }
+
+    private static String[] conditions(List<String> history) {
+        if (history == null || history.isEmpty()) {
+            return null;
+        }
+        String[] conditions = new String[history.size()];
+        for (int i = 0; i < conditions.length; i++) {
+            conditions[i] = StringDictionary.CONDITIONS.intern(history.get(i));
+        }
+        return conditions;
+    }
+
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("id", id);
+        fields.put("name", getName());
+        fields.put("age", age);
+        fields.put("medicalHistory", new ArrayList<>(getMedicalHistory()));
+        fields.put("contactNumber", getContact());
+        fields.put("address", getAddress());
+        fields.put("registrationDate", CompactFields.time(registrationDate));
+        fields.put("prescriptions", new ArrayList<>(getRecentPrescriptions()));
+        out.writeFields();
+    }
+
+    @Serial
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        id = (String) fields.get("id", null);
+        name = CompactFields.bytes((String) fields.get("name", null));
+        age = fields.get("age", 0);
+        medicalHistory = conditions((List<String>) fields.get("medicalHistory", null));
+        contactNumber = CompactFields.bytes((String) fields.get("contactNumber", null));
+        address = CompactFields.bytes((String) fields.get("address", null));
+        LocalDateTime registered = (LocalDateTime) fields.get("registrationDate", null);
+        registrationDate = CompactFields.epoch(registered == null ? LocalDateTime.now() : registered);
+        List<Prescription> saved = (List<Prescription>) fields.get("prescriptions", null);
+        prescriptions = saved == null || saved.isEmpty() ? null : saved.toArray(new Prescription[0]);
+    }
+
+    @Override
+    public String toString() {
+        return ("Patient ID: " + getId() + ", Name: " + getName());
+    }
+}
@@ -0,0 +1,62 @@
+package smarthealth;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class representing the cross-shard schedule of the patients a shard is home to, in a sharded deployment
+ * <p>Appointments live on the shard of their doctor, so a patient seeing doctors on several shards has appointments on each, and no one shard's conflict check sees them all. The patient's home shard (see {@link ShardRing}) therefore keeps the time of every one of the patient's appointments, on whatever shard, and the {@link ShardRouter} holds the slot here before booking it on the doctor's shard, releasing it again when the booking fails. Holds are kept in memory only; the router rebuilds them from the shards' appointments when it starts.
+ */
+public class PatientHolds {
+
+    //Start to end of each held slot, per patient; a patient's map is its own lock
+    private final ConcurrentHashMap<String, TreeMap<LocalDateTime, LocalDateTime>> byPatient = new ConcurrentHashMap<>();
+
+    /**
+     * Holds every one of the slots for the patient, or none of them
+     * @return the start of the first slot overlapping one already held, or null when all were held
+     */
+    public LocalDateTime hold(String patientId, List<LocalDateTime> starts, int duration) {
+        TreeMap<LocalDateTime, LocalDateTime> held = byPatient.computeIfAbsent(patientId, k -> new TreeMap<>());
+        synchronized (held) {
+            for (LocalDateTime start: starts) {
+                Map.Entry<LocalDateTime, LocalDateTime> before = held.lowerEntry(start.plusMinutes(duration));
+                if (before != null && before.getValue().isAfter(start)) {
+                    return start;
+                }
+            }
+            for (LocalDateTime start: starts) {
+                held.put(start, start.plusMinutes(duration));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Releases slots held with {@link #hold}
+     */
+    public void release(String patientId, List<LocalDateTime> starts) {
+        TreeMap<LocalDateTime, LocalDateTime> held = byPatient.get(patientId);
+        if (held == null) {
+            return;
+        }
+        synchronized (held) {
+            for (LocalDateTime start: starts) {
+                held.remove(start);
+            }
+        }
+    }
+
+    /**
+     * Holds a slot already booked, without checking it, used to rebuild the holds
+     */
+    public void restore(String patientId, LocalDateTime start, int duration) {
+        TreeMap<LocalDateTime, LocalDateTime> held = byPatient.computeIfAbsent(patientId, k -> new TreeMap<>());
+        synchronized (held) {
+            held.put(start, start.plusMinutes(duration));
+        }
+    }
+}
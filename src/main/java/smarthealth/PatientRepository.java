@@ -0,0 +1,68 @@
+package smarthealth;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Class representing the store of registered patients
+ * <p>Backed by a concurrent map, so it can be shared by every front desk and API thread; registering a patient is an atomic check-and-insert on the ID. A store that pages patients out to disk may hand out a second copy of a patient that was evicted while the first was still in use, so changes go through {@link #update}, which reads the patient inside a per-ID lock.
+ */
+public class PatientRepository {
+
+    private final Map<String, Patient> patients;
+    //Locks serializing the changes to a patient, shared by the IDs with the same hash
+    private final Object[] locks = new Object[64];
+
+    public PatientRepository() {
+        this(new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Wraps loaded patients; a map that is not already safe for concurrent use is copied into one that is
+     */
+    public PatientRepository(Map<String, Patient> patients) {
+        this.patients = patients instanceof ConcurrentHashMap || patients instanceof MappedRecordMap ? patients : new ConcurrentHashMap<>(patients);
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Registers a patient
+     * @return true if the patient was added, false if the ID is already taken
+     */
+    public boolean add(Patient patient) {
+        return patients.putIfAbsent(patient.getId(), patient) == null;
+    }
+
+    /**
+     * Changes a registered patient in place under the lock of its ID
+     * <p>The patient is read inside the lock, so two changes never work on different copies of it, and is stored back once change returns true, so a store that pages patients out to disk keeps the change in memory.
+     * @return false if there is no patient with such ID or change returned false
+     */
+    public boolean update(String id, Predicate<Patient> change) {
+        synchronized (locks[(id.hashCode() & 0x7fffffff) % locks.length]) {
+            Patient patient = patients.get(id);
+            if (patient == null || !change.test(patient)) {
+                return false;
+            }
+            patients.replace(id, patient);
+            return true;
+        }
+    }
+
+    public Patient get(String id) { return patients.get(id); }
+    public boolean contains(String id) { return patients.containsKey(id); }
+    public int size() { return patients.size(); }
+    public Collection<Patient> all() { return Collections.unmodifiableCollection(patients.values()); }
+    public Set<String> ids() { return Collections.unmodifiableSet(patients.keySet()); }
+
+    /**
+     * Returns a read-only view of the patients by ID, used to save them
+     */
+    public Map<String, Patient> asMap() { return Collections.unmodifiableMap(patients); }
+}
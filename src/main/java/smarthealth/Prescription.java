@@ -0,0 +1,120 @@
+package smarthealth;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Class representing a prescription of a patient
+ * <p>Stored compactly: medication names and dosages are shared {@link StringDictionary} instances and the dates are epoch seconds.
+ */
+public class Prescription implements Serializable {
+
+    private int prescriptionId;
+    private int doctorId;
+    private int patientId;
+    private String medicationName;
+    private String dosage;
+    private String notes;
+    private long startDate;
+    private long endDate;
+    private boolean refill;
+    @Serial
+    private static final long serialVersionUID = 1L;
+    //Fields of the serialized form, which predates the compact layout and is kept so older snapshots still load
+    @Serial
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("prescriptionId", int.class),
+            new ObjectStreamField("doctorId", int.class),
+            new ObjectStreamField("patientId", int.class),
+            new ObjectStreamField("medicationName", String.class),
+            new ObjectStreamField("dosage", String.class),
+            new ObjectStreamField("notes", String.class),
+            new ObjectStreamField("startDate", LocalDateTime.class),
+            new ObjectStreamField("endDate", LocalDateTime.class),
+            new ObjectStreamField("refill", boolean.class)
+    };
+
+    public Prescription(int preId, int docId, int patId, String name, String dosage, LocalDateTime start, LocalDateTime end) {
+        this.prescriptionId = preId;
+        this.doctorId = docId;
+        this.patientId = patId;
+        this.medicationName = StringDictionary.MEDICATIONS.intern(name);
+        this.dosage = StringDictionary.MEDICATIONS.intern(dosage);
+        this.startDate = CompactFields.epoch(start);
+        this.endDate = CompactFields.epoch(end);
+    }
+
+    public Prescription(int preId, int docId, int patId, String name, String dosage, LocalDateTime start, LocalDateTime end, String notes) {
+        this.prescriptionId = preId;
+        this.doctorId = docId;
+        this.patientId = patId;
+        this.medicationName = StringDictionary.MEDICATIONS.intern(name);
+        this.dosage = StringDictionary.MEDICATIONS.intern(dosage);
+        this.startDate = CompactFields.epoch(start);
+        this.endDate = CompactFields.epoch(end);
+        this.notes = notes;
+    }
+
+    public int getPrescriptionId() { return this.prescriptionId; }
+    public int getDoctorId() { return this.doctorId; }
+    public int getPatientId() { return this.patientId; }
+    public String getMedicationName() { return this.medicationName; }
+    public String getDosage() { return this.dosage; }
+    public String getNotes() { return this.notes; }
+    public LocalDateTime getStartDate() { return CompactFields.time(this.startDate); }
+    public LocalDateTime getEndDate() { return CompactFields.time(this.endDate); }
+    public boolean isRefillNeeded() { return this.refill; }
+
+    public void setPrescriptionId(int id) { this.prescriptionId = id; }
+    public void setDoctorId(int id) { this.prescriptionId = id; }
+    public void setPatientId(int id) { this.prescriptionId = id; }
+    public void setMedicationName(String name) { this.medicationName = StringDictionary.MEDICATIONS.intern(name); }
+    public void setDosage(String dosage) { this.dosage = StringDictionary.MEDICATIONS.intern(dosage); }
+    public void setNotes(String notes) { this.notes = notes; }
+    public void setStartDate(LocalDateTime date) { this.startDate = CompactFields.epoch(date); }
+    public void setEndDate(LocalDateTime date) { this.endDate = CompactFields.epoch(date); }
+    public void setRefill(boolean value) {this.refill = value;}
+
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("prescriptionId", prescriptionId);
+        fields.put("doctorId", doctorId);
+        fields.put("patientId", patientId);
+        fields.put("medicationName", medicationName);
+        fields.put("dosage", dosage);
+        fields.put("notes", notes);
+        fields.put("startDate", getStartDate());
+        fields.put("endDate", getEndDate());
+        fields.put("refill", refill);
+        out.writeFields();
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        prescriptionId = fields.get("prescriptionId", 0);
+        doctorId = fields.get("doctorId", 0);
+        patientId = fields.get("patientId", 0);
+        medicationName = StringDictionary.MEDICATIONS.intern((String) fields.get("medicationName", null));
+        dosage = StringDictionary.MEDICATIONS.intern((String) fields.get("dosage", null));
+        notes = (String) fields.get("notes", null);
+        startDate = CompactFields.epoch((LocalDateTime) fields.get("startDate", null));
+        endDate = CompactFields.epoch((LocalDateTime) fields.get("endDate", null));
+        refill = fields.get("refill", false);
+    }
+
+    @Override
+    public String toString() {
+        return "Prescription Medication: " + getMedicationName() + ", Dosage: " + getDosage() + ", Start Date: " + getStartDate() + ", End Date: " + getEndDate() + ", Extra Notes: " + getNotes();
+    }
+
+    public boolean isExpired() {
+        return getEndDate() != null && getEndDate().isBefore(LocalDateTime.now());
+    }
+}
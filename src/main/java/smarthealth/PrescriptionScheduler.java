@@ -0,0 +1,229 @@
+package smarthealth;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Class representing the prescription lifecycle engine of the smart health system
+ * <p>Every prescription gets a timer at its end date and, when it is flagged for refill, one {@value #REFILL_NOTICE_DAYS} days earlier. Timers sit in a priority queue; advancing the clock fires the due ones, which moves prescriptions into the "refill soon" and "expired" sets and notifies listeners. Both queries then cost O(results) instead of a sweep over every patient.
+ * <p>The timers are built from the patients on first use, so start-up does not pay for them. Prescriptions are tracked by patient and prescription ID together with the end date and refill flag they were scheduled with, never by instance: a patient paged out of memory is decoded again as a new copy, and the copy changed later is not the one the timers were built from. A prescription whose end date or refill flag changes is scheduled again through {@link #rescheduled}; its old timers no longer match the values it was scheduled with and are dropped when they come due. Prescriptions that expired more than {@value #EXPIRED_RETENTION_DAYS} days ago are dropped from the "expired" set, so it does not grow with every prescription ever written, and are not scheduled at all when the timers are built. Expiries and refill notices that were already due when the timers were built are history: they fill the sets without being reported to the listeners.
+ */
+public class PrescriptionScheduler {
+
+    /**
+     * Receives prescription lifecycle events as time advances
+     */
+    public interface Listener {
+        void refillDue(String patientId, Prescription prescription);
+        void expired(String patientId, Prescription prescription);
+    }
+
+    //Days before the end date at which a refill-flagged prescription is reported as needing a refill soon
+    public static final int REFILL_NOTICE_DAYS = 7;
+    //Days after its end date for which an expired prescription is still reported
+    public static final int EXPIRED_RETENTION_DAYS = 90;
+
+    private final PatientRepository patients;
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    //The end date and refill flag each prescription was last scheduled with
+    private final HashMap<Key, Schedule> schedules = new HashMap<>();
+    private final LinkedHashMap<Key, Schedule> refillDue = new LinkedHashMap<>();
+    private final LinkedHashMap<Key, Schedule> expired = new LinkedHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private boolean built;
+    //Time the timers were built at; timers due until then are not reported
+    private LocalDateTime builtAt;
+
+    public PrescriptionScheduler(PatientRepository patients) {
+        this.patients = patients;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Schedules the timers of a prescription that has just been added to a patient
+     */
+    public synchronized void add(String patientId, Prescription prescription) {
+        //Before the first build the prescription is picked up from its patient
+        if (built) {
+            schedule(patientId, prescription);
+        }
+    }
+
+    /**
+     * Schedules new timers for a prescription whose end date or refill flag has changed, taking it out of the "refill soon" and "expired" sets until they fire
+     */
+    public synchronized void rescheduled(String patientId, Prescription prescription) {
+        if (built) {
+            Key key = new Key(patientId, prescription.getPrescriptionId());
+            refillDue.remove(key);
+            expired.remove(key);
+            schedule(patientId, prescription);
+        }
+    }
+
+    /**
+     * Fires every timer due at or before the given time
+     */
+    public synchronized void advanceTo(LocalDateTime now) {
+        build(now);
+        while (!timers.isEmpty() && !timers.peek().due.isAfter(now)) {
+            Timer timer = timers.poll();
+            Schedule current = schedules.get(timer.key);
+            //A timer left over from before a reschedule can be current again, next to the new one for the same time
+            if (current == null || !current.matches(timer.schedule) || expired.containsKey(timer.key)) {
+                continue;
+            }
+            boolean report = timer.due.isAfter(builtAt);
+            if (timer.expiry) {
+                refillDue.remove(timer.key);
+                expired.put(timer.key, current);
+                if (report) {
+                    for (Listener l: listeners) {
+                        l.expired(timer.key.patientId, current.prescription);
+                    }
+                }
+            } else if (!refillDue.containsKey(timer.key)) {
+                refillDue.put(timer.key, current);
+                if (report) {
+                    for (Listener l: listeners) {
+                        l.refillDue(timer.key.patientId, current.prescription);
+                    }
+                }
+            }
+        }
+        //Expired in about end date order, so the ones past retention are at the front
+        LocalDateTime cutoff = now.minusDays(EXPIRED_RETENTION_DAYS);
+        Iterator<Map.Entry<Key, Schedule>> oldest = expired.entrySet().iterator();
+        while (oldest.hasNext()) {
+            Map.Entry<Key, Schedule> entry = oldest.next();
+            if (!entry.getValue().end.isBefore(cutoff)) {
+                break;
+            }
+            oldest.remove();
+            schedules.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the prescriptions whose end date has passed within the last {@value #EXPIRED_RETENTION_DAYS} days, in the order they expired
+     */
+    public synchronized List<Prescription> expired(LocalDateTime now) {
+        advanceTo(now);
+        return prescriptions(expired);
+    }
+
+    /**
+     * Returns the refill-flagged prescriptions ending within {@value #REFILL_NOTICE_DAYS} days
+     */
+    public synchronized List<Prescription> refillDue(LocalDateTime now) {
+        advanceTo(now);
+        return prescriptions(refillDue);
+    }
+
+    private static List<Prescription> prescriptions(LinkedHashMap<Key, Schedule> set) {
+        List<Prescription> result = new ArrayList<>(set.size());
+        for (Schedule schedule: set.values()) {
+            result.add(schedule.prescription);
+        }
+        return result;
+    }
+
+    private void build(LocalDateTime now) {
+        if (built) {
+            return;
+        }
+        built = true;
+        builtAt = now;
+        LocalDateTime cutoff = now.minusDays(EXPIRED_RETENTION_DAYS);
+        for (Patient p: patients.all()) {
+            for (Prescription pr: p.getRecentPrescriptions()) {
+                if (pr.getEndDate() != null && pr.getEndDate().isBefore(cutoff)) {
+                    continue;
+                }
+                schedule(p.getId(), pr);
+            }
+        }
+    }
+
+    private void schedule(String patientId, Prescription prescription) {
+        Key key = new Key(patientId, prescription.getPrescriptionId());
+        if (prescription.getEndDate() == null) {
+            schedules.remove(key);
+            return;
+        }
+        Schedule schedule = new Schedule(prescription);
+        schedules.put(key, schedule);
+        if (schedule.refill) {
+            timers.add(new Timer(schedule.end.minusDays(REFILL_NOTICE_DAYS), false, key, schedule));
+        }
+        timers.add(new Timer(schedule.end, true, key, schedule));
+    }
+
+    //Identifies a prescription across the copies of its patient
+    private static final class Key {
+        private final String patientId;
+        private final int prescriptionId;
+
+        private Key(String patientId, int prescriptionId) {
+            this.patientId = patientId;
+            this.prescriptionId = prescriptionId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).prescriptionId == prescriptionId && ((Key) o).patientId.equals(patientId);
+        }
+
+        @Override
+        public int hashCode() {
+            return patientId.hashCode() * 31 + prescriptionId;
+        }
+    }
+
+    //The end date and refill flag a prescription was scheduled with, read once so a later change to the instance does not move its timers
+    private static final class Schedule {
+        private final LocalDateTime end;
+        private final boolean refill;
+        private final Prescription prescription;
+
+        private Schedule(Prescription prescription) {
+            this.end = prescription.getEndDate();
+            this.refill = prescription.isRefillNeeded();
+            this.prescription = prescription;
+        }
+
+        private boolean matches(Schedule other) {
+            return end.equals(other.end) && refill == other.refill;
+        }
+    }
+
+    //Point in time at which a prescription needs a refill soon or expires, stale once the prescription is scheduled with another end date or refill flag
+    private static final class Timer implements Comparable<Timer> {
+        private final LocalDateTime due;
+        private final boolean expiry;
+        private final Key key;
+        private final Schedule schedule;
+
+        private Timer(LocalDateTime due, boolean expiry, Key key, Schedule schedule) {
+            this.due = due;
+            this.expiry = expiry;
+            this.key = key;
+            this.schedule = schedule;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return due.compareTo(other.due);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package smarthealth;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Class representing a bounded least-recently-used cache of decoded records, keyed by their row in a {@link RecordFile}
+ * <p>The cache is split into segments, each an access-ordered {@link LinkedHashMap} under its own lock, so readers of different records rarely contend. Each segment evicts its least recently used record once it holds its share of the capacity. Records are decoded outside the lock; if two threads decode the same record at once, the first one cached wins and both get it.
+ */
+class RecordCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    RecordCache(int capacity) {
+        this(capacity, new LongAdder(), new LongAdder(), new LongAdder());
+    }
+
+    //An empty cache counting on from the counters of another, for the records of a new file
+    RecordCache(int capacity, RecordCache counters) {
+        this(capacity, counters.hits, counters.misses, counters.evictions);
+    }
+
+    private RecordCache(int capacity, LongAdder hits, LongAdder misses, LongAdder evictions) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        int share = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(share);
+        }
+    }
+
+    //Access-ordered map that drops its eldest entry once over its share
+    @SuppressWarnings("serial")
+    private final class Segment extends LinkedHashMap<Integer, Object> {
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Object> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns the cached record of the row, decoding and caching it with the loader on a miss
+     */
+    Object get(int row, IntFunction<Object> loader) {
+        Segment segment = segments[row & (SEGMENTS - 1)];
+        synchronized (segment) {
+            Object cached = segment.get(row);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+        }
+        misses.increment();
+        Object loaded = loader.apply(row);
+        synchronized (segment) {
+            Object raced = segment.putIfAbsent(row, loaded);
+            return raced != null ? raced : loaded;
+        }
+    }
+
+    /**
+     * Returns the cached record of the row without counting a hit, or null when it is not cached
+     */
+    Object peek(int row) {
+        Segment segment = segments[row & (SEGMENTS - 1)];
+        synchronized (segment) {
+            return segment.get(row);
+        }
+    }
+
+    void remove(int row) {
+        Segment segment = segments[row & (SEGMENTS - 1)];
+        synchronized (segment) {
+            segment.remove(row);
+        }
+    }
+
+    long size() {
+        long size = 0;
+        for (Segment s: segments) {
+            synchronized (s) {
+                size += s.size();
+            }
+        }
+        return size;
+    }
+
+    long hits() { return hits.sum(); }
+    long misses() { return misses.sum(); }
+    long evictions() { return evictions.sum(); }
+}
@@ -0,0 +1,154 @@
+package smarthealth;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Class representing the streaming exporter of patients, doctors, appointments and prescriptions to CSV, JSON or NDJSON
+ * <p>Rows are written one at a time into a single reused {@link StringBuilder} and copied to the writer through a reused char buffer, so exporting a listing of millions of rows from a {@link ResultCursor} runs in constant memory. The CSV columns of patients, doctors and appointments are the ones {@link BulkImporter} reads, so an export can be imported again.
+ */
+public final class RecordExporter<T> {
+
+    /**
+     * Output format of an export
+     */
+    public enum Format {
+        CSV, JSON, NDJSON;
+
+        /**
+         * Returns the format matching the extension of a file name (.csv, .json, .ndjson or .jsonl), or null when there is none
+         */
+        public static Format forFile(String name) {
+            String lower = name.toLowerCase(Locale.ROOT);
+            if (lower.endsWith(".csv")) {
+                return CSV;
+            }
+            if (lower.endsWith(".ndjson") || lower.endsWith(".jsonl")) {
+                return NDJSON;
+            }
+            return lower.endsWith(".json") ? JSON : null;
+        }
+    }
+
+    //Appends one row, without a line break, to the builder
+    interface RowWriter<T> {
+        StringBuilder write(StringBuilder out, T value);
+    }
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    public static final RecordExporter<Patient> PATIENTS = new RecordExporter<>("id,name,age,address,contact,medicalHistory", (out, p) -> {
+        csv(out, p.getId()).append(',');
+        csv(out, p.getName()).append(',').append(p.getAge()).append(',');
+        csv(out, p.getAddress()).append(',');
+        csv(out, p.getContact()).append(',');
+        return csv(out, String.join(";", p.getMedicalHistory()));
+    }, HttpApi::patientJson);
+
+    public static final RecordExporter<Doctor> DOCTORS = new RecordExporter<>("id,name,specialization,age,contact,email", (out, d) -> {
+        csv(out, d.getId()).append(',');
+        csv(out, d.getName()).append(',');
+        csv(out, d.getSpecialization()).append(',').append(d.getAge()).append(',');
+        csv(out, d.getContact()).append(',');
+        return csv(out, d.getEmail());
+    }, HttpApi::doctorJson);
+
+    public static final RecordExporter<Appointment> APPOINTMENTS = new RecordExporter<>("id,patientId,doctorId,reason,dateTime,durationMinutes,completed", (out, a) -> {
+        csv(out, a.getAppointmentId()).append(',');
+        csv(out, a.getPatientId()).append(',');
+        csv(out, a.getDoctorId()).append(',');
+        csv(out, a.getReason()).append(',');
+        return time(out, a.getDateTime()).append(',').append(a.getDurationMinutes()).append(',').append(a.isCompleted());
+    }, HttpApi::appointmentJson);
+
+    public static final RecordExporter<Prescription> PRESCRIPTIONS = new RecordExporter<>("id,doctorId,patientId,medication,dosage,notes,startDate,endDate,refillNeeded", (out, pr) -> {
+        out.append(pr.getPrescriptionId()).append(',').append(pr.getDoctorId()).append(',').append(pr.getPatientId()).append(',');
+        csv(out, pr.getMedicationName()).append(',');
+        csv(out, pr.getDosage()).append(',');
+        csv(out, pr.getNotes()).append(',');
+        time(out, pr.getStartDate()).append(',');
+        return time(out, pr.getEndDate()).append(',').append(pr.isRefillNeeded());
+    }, HttpApi::prescriptionJson);
+
+    private final String header;
+    private final RowWriter<T> csv;
+    private final RowWriter<T> json;
+
+    private RecordExporter(String header, RowWriter<T> csv, RowWriter<T> json) {
+        this.header = header;
+        this.csv = csv;
+        this.json = json;
+    }
+
+    /**
+     * Writes every remaining row of the iterator in the given format and flushes the writer
+     * @return the number of rows written
+     */
+    public long export(Iterator<? extends T> rows, Format format, Writer out) throws IOException {
+        StringBuilder row = new StringBuilder(256);
+        char[] buffer = new char[256];
+        long count = 0;
+        if (format == Format.CSV) {
+            out.write(header);
+            out.write('\n');
+        } else if (format == Format.JSON) {
+            out.write('[');
+        }
+        while (rows.hasNext()) {
+            row.setLength(0);
+            if (format == Format.JSON && count > 0) {
+                row.append(',');
+            }
+            (format == Format.CSV ? csv : json).write(row, rows.next());
+            if (format != Format.JSON) {
+                row.append('\n');
+            }
+            if (buffer.length < row.length()) {
+                buffer = new char[row.length() * 2];
+            }
+            row.getChars(0, row.length(), buffer, 0);
+            out.write(buffer, 0, row.length());
+            count++;
+        }
+        if (format == Format.JSON) {
+            out.write("]\n");
+        }
+        out.flush();
+        return count;
+    }
+
+    //Appends a CSV field, quoted when it contains a comma, quote or line break
+    private static StringBuilder csv(StringBuilder out, String value) {
+        if (value == null) {
+            return out;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            return out.append(value);
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        return out.append('"');
+    }
+
+    private static StringBuilder time(StringBuilder out, LocalDateTime time) {
+        if (time != null) {
+            FORMATTER.formatTo(time, out);
+        }
+        return out;
+    }
+}
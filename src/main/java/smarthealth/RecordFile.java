@@ -0,0 +1,386 @@
+package smarthealth;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class representing a snapshot file of the smart health system in its compact binary record format
+ * <p>Layout (version 1, big-endian):
+ * <pre>
+ * header      magic "SHS1", version, kind, record count, record width, offset of the variable section, offset of the dictionary
+ * records     one fixed-width record per entity, sorted by ID so lookups can binary search
+ * variable    per-patient medical history and prescriptions, referenced by offset from the patient record
+ * dictionary  every distinct string once, as an offset table followed by length-prefixed UTF-8 bytes
+ * </pre>
+ * <p>Strings are stored as dictionary references (-1 for null), so repeated values such as specializations are stored once, and timestamps as epoch seconds. The file is read through a {@link MappedByteBuffer} and records are only decoded when asked for.
+ */
+public class RecordFile {
+
+    private static final int MAGIC = 0x53485331;
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+
+    public static final byte PATIENTS = 'P';
+    public static final byte DOCTORS = 'D';
+    public static final byte APPOINTMENTS = 'A';
+
+    //Every record type is 32 bytes wide; the first field is always the ID reference
+    private static final int RECORD_BYTES = 32;
+    private static final int PRESCRIPTION_BYTES = 41;
+
+    private final MappedByteBuffer buffer;
+    private final byte kind;
+    private final int count;
+    private final int dictionaryCount;
+    private final int dictionaryTable;
+    private final int dictionaryData;
+    private final String[] strings;
+
+    private RecordFile(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+            throw new IOException("Not a smart health record file (or an unsupported version)");
+        }
+        this.kind = buffer.get(6);
+        this.count = buffer.getInt(8);
+        if (buffer.getInt(12) != RECORD_BYTES) {
+            throw new IOException("Unexpected record width " + buffer.getInt(12));
+        }
+        int dictionary = (int) buffer.getLong(24);
+        this.dictionaryCount = buffer.getInt(dictionary);
+        this.dictionaryTable = dictionary + 4;
+        this.dictionaryData = dictionaryTable + 4 * dictionaryCount;
+        this.strings = new String[dictionaryCount];
+    }
+
+    /**
+     * Maps the file at the given path; nothing is decoded until records are read
+     */
+    public static RecordFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Record file too large to map: " + path);
+            }
+            return new RecordFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public byte getKind() { return kind; }
+    public int size() { return count; }
+
+    /**
+     * Returns the ID of the record at the given row
+     */
+    public String id(int row) {
+        return string(intAt(row, 0));
+    }
+
+    /**
+     * Returns the row holding the given ID, or -1 if the file does not contain it
+     */
+    public int find(String id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = id(mid).compareTo(id);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes the record at the given row into a new entity object
+     */
+    public Object read(int row) {
+        switch (kind) {
+            case PATIENTS:
+                return readPatient(row);
+            case DOCTORS:
+                return readDoctor(row);
+            default:
+                return readAppointment(row);
+        }
+    }
+
+    private Patient readPatient(int row) {
+        int var = intAt(row, 28);
+        List<String> history = new ArrayList<>();
+        int historyCount = buffer.getInt(var);
+        for (int i = 0; i < historyCount; i++) {
+            history.add(string(buffer.getInt(var + 4 + 4 * i)));
+        }
+        Patient p = new Patient(id(row), string(intAt(row, 4)), intAt(row, 16), string(intAt(row, 8)), string(intAt(row, 12)), history);
+        p.setRegistrationDate(time(buffer.getLong(recordOffset(row) + 20)));
+        int pos = var + 4 + 4 * historyCount;
+        int prescriptions = buffer.getInt(pos);
+        pos += 4;
+        for (int i = 0; i < prescriptions; i++, pos += PRESCRIPTION_BYTES) {
+            Prescription pr = new Prescription(buffer.getInt(pos), buffer.getInt(pos + 4), buffer.getInt(pos + 8),
+                    string(buffer.getInt(pos + 12)), string(buffer.getInt(pos + 16)),
+                    time(buffer.getLong(pos + 24)), time(buffer.getLong(pos + 32)), string(buffer.getInt(pos + 20)));
+            pr.setRefill(buffer.get(pos + 40) != 0);
+            p.addPrescription(pr);
+        }
+        return p;
+    }
+
+    private Doctor readDoctor(int row) {
+        Doctor d = new Doctor(id(row), string(intAt(row, 4)), string(intAt(row, 8)), intAt(row, 20), string(intAt(row, 12)), string(intAt(row, 16)));
+        d.setRegistrationDate(time(buffer.getLong(recordOffset(row) + 24)));
+        return d;
+    }
+
+    private Appointment readAppointment(int row) {
+        int base = recordOffset(row);
+        Appointment a = new Appointment(id(row), string(intAt(row, 4)), string(intAt(row, 8)), string(intAt(row, 12)), time(buffer.getLong(base + 16)), buffer.getInt(base + 24));
+        if (buffer.get(base + 28) != 0) {
+            a.markCompleted();
+        }
+        return a;
+    }
+
+    private int recordOffset(int row) {
+        return HEADER_BYTES + row * RECORD_BYTES;
+    }
+
+    private int intAt(int row, int field) {
+        return buffer.getInt(recordOffset(row) + field);
+    }
+
+    private String string(int ref) {
+        if (ref < 0) {
+            return null;
+        }
+        String s = strings[ref];
+        if (s == null) {
+            int pos = dictionaryData + buffer.getInt(dictionaryTable + 4 * ref);
+            byte[] bytes = new byte[buffer.getInt(pos)];
+            buffer.get(pos + 4, bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            strings[ref] = s;
+        }
+        return s;
+    }
+
+    private static LocalDateTime time(long epochSecond) {
+        return epochSecond == Long.MIN_VALUE ? null : LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Writes the given entities to the path in the record format, through a temporary file so a crash leaves the previous file intact
+     * @param kind one of {@link #PATIENTS}, {@link #DOCTORS} or {@link #APPOINTMENTS}
+     */
+    public static void write(Path path, byte kind, Map<String, ?> entities) throws IOException {
+        List<String> ids = new ArrayList<>(entities.keySet());
+        Collections.sort(ids);
+        Dictionary dictionary = new Dictionary();
+        List<Object> rows = new ArrayList<>(ids.size());
+        long variableBytes = 0;
+        for (String id: ids) {
+            Object entity = entities.get(id);
+            rows.add(entity);
+            dictionary.add(id);
+            variableBytes += addStrings(dictionary, entity);
+        }
+
+        long variableOffset = HEADER_BYTES + (long) ids.size() * RECORD_BYTES;
+        long dictionaryOffset = variableOffset + variableBytes;
+        //The whole file is mapped as one buffer, so refuse before writing anything rather than replace the previous file with one that cannot be opened
+        if (dictionaryOffset + dictionary.byteSize() > Integer.MAX_VALUE) {
+            throw new IOException("Too much data for a single record file: " + path);
+        }
+        Path temp = Path.of(path + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeByte(kind);
+            out.writeByte(0);
+            out.writeInt(ids.size());
+            out.writeInt(RECORD_BYTES);
+            out.writeLong(variableOffset);
+            out.writeLong(dictionaryOffset);
+
+            long var = variableOffset;
+            for (int row = 0; row < rows.size(); row++) {
+                Object entity = rows.get(row);
+                out.writeInt(dictionary.ref(ids.get(row)));
+                if (entity instanceof Patient) {
+                    Patient p = (Patient) entity;
+                    out.writeInt(dictionary.ref(p.getName()));
+                    out.writeInt(dictionary.ref(p.getAddress()));
+                    out.writeInt(dictionary.ref(p.getContact()));
+                    out.writeInt(p.getAge());
+                    out.writeLong(epoch(LocalDateTime.parse(p.getRegistrationDate())));
+                    out.writeInt((int) var);
+                    var += variableSize(p);
+                } else if (entity instanceof Doctor) {
+                    Doctor d = (Doctor) entity;
+                    out.writeInt(dictionary.ref(d.getName()));
+                    out.writeInt(dictionary.ref(d.getSpecialization()));
+                    out.writeInt(dictionary.ref(d.getContact()));
+                    out.writeInt(dictionary.ref(d.getEmail()));
+                    out.writeInt(d.getAge());
+                    out.writeLong(epoch(LocalDateTime.parse(d.getRegistrationDate())));
+                } else {
+                    Appointment a = (Appointment) entity;
+                    out.writeInt(dictionary.ref(a.getDoctorId()));
+                    out.writeInt(dictionary.ref(a.getPatientId()));
+                    out.writeInt(dictionary.ref(a.getReason()));
+                    out.writeLong(epoch(a.getDateTime()));
+                    out.writeInt(a.getDurationMinutes());
+                    out.writeByte(a.isCompleted() ? 1 : 0);
+                    out.write(new byte[3]);
+                }
+            }
+
+            if (kind == PATIENTS) {
+                for (Object entity: rows) {
+                    Patient p = (Patient) entity;
+                    out.writeInt(p.getMedicalHistory().size());
+                    for (String h: p.getMedicalHistory()) {
+                        out.writeInt(dictionary.ref(h));
+                    }
+                    out.writeInt(p.getRecentPrescriptions().size());
+                    for (Prescription pr: p.getRecentPrescriptions()) {
+                        out.writeInt(pr.getPrescriptionId());
+                        out.writeInt(pr.getDoctorId());
+                        out.writeInt(pr.getPatientId());
+                        out.writeInt(dictionary.ref(pr.getMedicationName()));
+                        out.writeInt(dictionary.ref(pr.getDosage()));
+                        out.writeInt(dictionary.ref(pr.getNotes()));
+                        out.writeLong(epoch(pr.getStartDate()));
+                        out.writeLong(epoch(pr.getEndDate()));
+                        out.writeByte(pr.isRefillNeeded() ? 1 : 0);
+                    }
+                }
+            }
+
+            dictionary.write(out);
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    //Registers the entity's strings in the dictionary and returns the size of its variable section entry
+    private static long addStrings(Dictionary dictionary, Object entity) {
+        if (entity instanceof Patient) {
+            Patient p = (Patient) entity;
+            dictionary.add(p.getName());
+            dictionary.add(p.getAddress());
+            dictionary.add(p.getContact());
+            p.getMedicalHistory().forEach(dictionary::add);
+            for (Prescription pr: p.getRecentPrescriptions()) {
+                dictionary.add(pr.getMedicationName());
+                dictionary.add(pr.getDosage());
+                dictionary.add(pr.getNotes());
+            }
+            return variableSize(p);
+        } else if (entity instanceof Doctor) {
+            Doctor d = (Doctor) entity;
+            dictionary.add(d.getName());
+            dictionary.add(d.getSpecialization());
+            dictionary.add(d.getContact());
+            dictionary.add(d.getEmail());
+        } else {
+            Appointment a = (Appointment) entity;
+            dictionary.add(a.getDoctorId());
+            dictionary.add(a.getPatientId());
+            dictionary.add(a.getReason());
+        }
+        return 0;
+    }
+
+    private static long variableSize(Patient p) {
+        return 8 + 4L * p.getMedicalHistory().size() + (long) PRESCRIPTION_BYTES * p.getRecentPrescriptions().size();
+    }
+
+    private static long epoch(LocalDateTime time) {
+        return time == null ? Long.MIN_VALUE : time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    //Distinct strings of a file in first-seen order
+    private static final class Dictionary {
+        private final HashMap<String, Integer> refs = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        //Size of the written dictionary: its count, then an offset, a length and the UTF-8 bytes per string
+        private long byteSize = 4;
+
+        private void add(String s) {
+            if (s != null && !refs.containsKey(s)) {
+                refs.put(s, strings.size());
+                strings.add(s);
+                byteSize += 8 + utf8Length(s);
+            }
+        }
+
+        private long byteSize() {
+            return byteSize;
+        }
+
+        //Length of s.getBytes(UTF_8) without encoding it; an unpaired surrogate is written as '?'
+        private static int utf8Length(String s) {
+            int length = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    length++;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    length++;
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+
+        private int ref(String s) {
+            return s == null ? -1 : refs.get(s);
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            List<byte[]> encoded = new ArrayList<>(strings.size());
+            out.writeInt(strings.size());
+            int offset = 0;
+            for (String s: strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                encoded.add(bytes);
+                out.writeInt(offset);
+                offset += 4 + bytes.length;
+            }
+            for (byte[] bytes: encoded) {
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package smarthealth;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Class representing a weekly recurrence rule for a care plan, e.g. physiotherapy every Monday for 12 weeks or dialysis every Monday, Wednesday and Friday
+ * <p>The rule starts at a date and time and repeats at that time of day on the given days of the week, every {@code intervalWeeks} weeks, until {@code count} appointments have been produced. Weeks run from Monday, the first one being the week of the start date.
+ */
+public final class Recurrence {
+
+    //Upper bound on the appointments of one rule, so a typo cannot book years of slots
+    public static final int MAX_COUNT = 520;
+
+    private final LocalDateTime start;
+    private final Set<DayOfWeek> days;
+    private final int intervalWeeks;
+    private final int count;
+
+    /**
+     * @param start date and time of the first candidate slot; the first appointment is on the first of the days on or after it
+     * @param days days of the week to book, at the time of day of {@code start}
+     * @param intervalWeeks 1 for every week, 2 for every other week, ...
+     * @param count number of appointments, between 1 and {@link #MAX_COUNT}
+     */
+    public Recurrence(LocalDateTime start, Set<DayOfWeek> days, int intervalWeeks, int count) {
+        if (days.isEmpty()) {
+            throw new IllegalArgumentException("At least one day of the week is required");
+        }
+        if (intervalWeeks < 1) {
+            throw new IllegalArgumentException("Interval must be at least one week");
+        }
+        if (count < 1 || count > MAX_COUNT) {
+            throw new IllegalArgumentException("Count must be between 1 and " + MAX_COUNT);
+        }
+        this.start = start;
+        this.days = EnumSet.copyOf(days);
+        this.intervalWeeks = intervalWeeks;
+        this.count = count;
+    }
+
+    /**
+     * Returns a rule for the same day and time every week
+     */
+    public static Recurrence weekly(LocalDateTime start, int count) {
+        return new Recurrence(start, EnumSet.of(start.getDayOfWeek()), 1, count);
+    }
+
+    /**
+     * Returns the start times of the appointments, in time order
+     */
+    public List<LocalDateTime> slots() {
+        List<LocalDateTime> slots = new ArrayList<>(count);
+        LocalDate firstWeek = start.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        for (LocalDate date = start.toLocalDate(); slots.size() < count; date = date.plusDays(1)) {
+            if (days.contains(date.getDayOfWeek()) && ChronoUnit.WEEKS.between(firstWeek, date) % intervalWeeks == 0) {
+                slots.add(date.atTime(start.toLocalTime()));
+            }
+        }
+        return slots;
+    }
+
+    public LocalDateTime getStart() { return start; }
+    public Set<DayOfWeek> getDays() { return EnumSet.copyOf(days); }
+    public int getIntervalWeeks() { return intervalWeeks; }
+    public int getCount() { return count; }
+}
@@ -0,0 +1,76 @@
+package smarthealth;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Class representing the report engine of the smart health system
+ * <p>Reads every aggregate (doctor workload, patient visit frequency, specialization popularity and the upcoming/overdue split) from an {@link Aggregates}, usually the live {@link ClinicStatistics} so no appointment is scanned, and streams the report line by line to a {@link Writer}. Reports over a past period read the totals {@link AppointmentColumns#aggregate} computes in parallel instead.
+ */
+public class ReportEngine {
+
+    /**
+     * The aggregates a report is written from
+     */
+    public interface Aggregates {
+        int getDoctorWorkload(String doctorId);
+        int getPatientVisits(String patientId);
+        String getTopSpecialization();
+        int getTopSpecializationCount();
+        int getTotalAppointments();
+        int getCompletedAppointments();
+        int getUpcomingCount(LocalDateTime now);
+        int getOverdueCount(LocalDateTime now);
+    }
+
+    private final Map<String, Patient> patients;
+    private final Map<String, Doctor> doctors;
+    private final Aggregates statistics;
+
+    public ReportEngine(Map<String, Patient> patients, Map<String, Doctor> doctors, Aggregates statistics) {
+        this.patients = patients;
+        this.doctors = doctors;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Writes the full report
+     */
+    public void write(Writer out) throws IOException {
+        LocalDateTime now = LocalDateTime.now();
+        out.write("Appointments: ");
+        out.write(Integer.toString(statistics.getTotalAppointments()));
+        out.write(" total, ");
+        out.write(Integer.toString(statistics.getCompletedAppointments()));
+        out.write(" completed, ");
+        out.write(Integer.toString(statistics.getUpcomingCount(now)));
+        out.write(" upcoming, ");
+        out.write(Integer.toString(statistics.getOverdueCount(now)));
+        out.write(" overdue or missed\n");
+        out.write("------------------------------ \n");
+
+        out.write("Doctor Workload Summary: \n");
+        for (Doctor d: doctors.values()) {
+            out.write(d.getName());
+            out.write(":\nNumber of appointments - ");
+            out.write(Integer.toString(statistics.getDoctorWorkload(d.getId())));
+            out.write('\n');
+        }
+        String top = statistics.getTopSpecialization();
+        out.write("Most sought specialization: ");
+        out.write(top == null ? "none yet" : top + " (" + statistics.getTopSpecializationCount() + " appointments)");
+        out.write('\n');
+
+        out.write("------------------------------ \n");
+        out.write("Patient Visit Frequency: \n");
+        for (Patient p: patients.values()) {
+            out.write(p.getName());
+            out.write(" - ");
+            out.write(Integer.toString(statistics.getPatientVisits(p.getId())));
+            out.write('\n');
+        }
+        out.flush();
+    }
+}
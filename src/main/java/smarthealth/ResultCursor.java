@@ -0,0 +1,112 @@
+package smarthealth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Class representing a lazily evaluated result of a query of the smart health system
+ * <p>Rows are pulled one at a time or a page at a time, and only as they are consumed, so a listing of millions of rows can be shown page by page or streamed to a file in constant memory. A cursor runs either over a lazy iterator (e.g. a view of a sorted index) or over a keyset page function that fetches the next page after the last row seen.
+ * <p>Cursors are weakly consistent: rows added or changed while a cursor is open may or may not be seen.
+ */
+public class ResultCursor<T> implements Iterator<T> {
+
+    /**
+     * Fetches up to {@code limit} rows that follow {@code last}, or the first rows when {@code last} is null
+     */
+    public interface PageFetcher<T> {
+        List<T> fetch(T last, int limit);
+    }
+
+    private final Iterator<T> rows;
+    //Times each page when set
+    private Metrics.Timer timer;
+
+    private ResultCursor(Iterator<T> rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * Returns a cursor over a lazy iterator
+     */
+    public static <T> ResultCursor<T> of(Iterator<T> rows) {
+        return new ResultCursor<>(rows);
+    }
+
+    /**
+     * Returns a cursor over a fixed list of rows
+     */
+    public static <T> ResultCursor<T> of(List<T> rows) {
+        return new ResultCursor<>(rows.iterator());
+    }
+
+    /**
+     * Returns a cursor that fetches {@code pageSize} rows at a time from the given function, asking for the next page only once the previous one is used up
+     */
+    public static <T> ResultCursor<T> paged(PageFetcher<T> fetcher, int pageSize) {
+        return new ResultCursor<>(new Iterator<T>() {
+            private List<T> page = Collections.emptyList();
+            private int index;
+            private T last;
+            private boolean exhausted;
+
+            @Override
+            public boolean hasNext() {
+                if (index < page.size()) {
+                    return true;
+                }
+                if (exhausted) {
+                    return false;
+                }
+                page = fetcher.fetch(last, pageSize);
+                index = 0;
+                exhausted = page.size() < pageSize;
+                return !page.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = page.get(index++);
+                return last;
+            }
+        });
+    }
+
+    /**
+     * Records the time taken to fetch each page in the given timer
+     */
+    public ResultCursor<T> timed(Metrics.Timer timer) {
+        this.timer = timer;
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return rows.hasNext();
+    }
+
+    @Override
+    public T next() {
+        return rows.next();
+    }
+
+    /**
+     * Returns up to {@code size} further rows, an empty list once the cursor is exhausted
+     */
+    public List<T> nextPage(int size) {
+        long start = Metrics.start();
+        List<T> page = new ArrayList<>(Math.min(size, 1024));
+        while (page.size() < size && rows.hasNext()) {
+            page.add(rows.next());
+        }
+        if (timer != null) {
+            timer.stop(start);
+        }
+        return page;
+    }
+}
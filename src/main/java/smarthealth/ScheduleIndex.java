@@ -0,0 +1,208 @@
+package smarthealth;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class representing the scheduling index of the smart health system
+ * <p>Keeps a time-sorted map of appointments for every doctor and every patient, so that conflict checks and free-slot lookups cost O(log n) instead of a scan over all appointments, and listing one doctor's or patient's appointments costs O(log n + k) for k results.
+ * <p>The index relies on the schedules it stores never overlapping, which holds as long as every booking goes through a conflict check first.
+ * <p>Schedules of different doctors and patients can be used from different threads at the same time, but callers must serialize access to any one doctor's or patient's schedule (see {@link AppointmentRepository}).
+ */
+public class ScheduleIndex {
+
+    private final ConcurrentHashMap<String, TreeMap<LocalDateTime, Appointment>> byDoctor = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, TreeMap<LocalDateTime, Appointment>> byPatient = new ConcurrentHashMap<>();
+
+    /**
+     * Adds an appointment to the doctor and patient schedules
+     */
+    public void add(Appointment appointment) {
+        byDoctor.computeIfAbsent(appointment.getDoctorId(), k -> new TreeMap<>()).put(appointment.getDateTime(), appointment);
+        byPatient.computeIfAbsent(appointment.getPatientId(), k -> new TreeMap<>()).put(appointment.getDateTime(), appointment);
+    }
+
+    /**
+     * Removes an appointment from the doctor and patient schedules
+     */
+    public void remove(Appointment appointment) {
+        removeFrom(byDoctor, appointment.getDoctorId(), appointment);
+        removeFrom(byPatient, appointment.getPatientId(), appointment);
+    }
+
+    /**
+     * Moves an appointment to a new date and time, keeping both schedules sorted
+     * <p>Callers are expected to have checked the new slot with {@link #findDoctorConflict} and {@link #findPatientConflict} beforehand.
+     */
+    public void reschedule(Appointment appointment, LocalDateTime datetime) {
+        remove(appointment);
+        appointment.setDateTime(datetime);
+        add(appointment);
+    }
+
+    /**
+     * Drops every entry and indexes the given appointments again, used after loading saved data
+     */
+    public void rebuild(Collection<Appointment> appointments) {
+        byDoctor.clear();
+        byPatient.clear();
+        for (Appointment a: appointments) {
+            add(a);
+        }
+    }
+
+    /**
+     * Returns the doctor's appointment overlapping the given interval, or null when the doctor is free
+     * @param ignore appointment to leave out of the check (the one being rescheduled), may be null
+     */
+    public Appointment findDoctorConflict(String doctorId, LocalDateTime start, int duration, Appointment ignore) {
+        return findConflict(byDoctor.get(doctorId), start, duration, ignore);
+    }
+
+    /**
+     * Returns the patient's appointment overlapping the given interval, or null when the patient is free
+     * @param ignore appointment to leave out of the check (the one being rescheduled), may be null
+     */
+    public Appointment findPatientConflict(String patientId, LocalDateTime start, int duration, Appointment ignore) {
+        return findConflict(byPatient.get(patientId), start, duration, ignore);
+    }
+
+    /**
+     * Returns, for each of the given slots, the doctor's appointment overlapping it, or null where the doctor is free
+     * <p>The slots are checked in one merge pass over the doctor's schedule, see {@link #findConflicts}.
+     * @param starts start times of the slots, sorted and not overlapping one another
+     */
+    public Appointment[] findDoctorConflicts(String doctorId, List<LocalDateTime> starts, int duration) {
+        return findConflicts(byDoctor.get(doctorId), starts, duration);
+    }
+
+    /**
+     * Returns, for each of the given slots, the patient's appointment overlapping it, or null where the patient is free
+     * @param starts start times of the slots, sorted and not overlapping one another
+     */
+    public Appointment[] findPatientConflicts(String patientId, List<LocalDateTime> starts, int duration) {
+        return findConflicts(byPatient.get(patientId), starts, duration);
+    }
+
+    /**
+     * Returns the earliest start time, not before {@code from}, at which the doctor is free for {@code duration} minutes
+     */
+    public LocalDateTime nextFreeDoctorSlot(String doctorId, LocalDateTime from, int duration) {
+        return nextFreeSlot(byDoctor.get(doctorId), from, duration);
+    }
+
+    /**
+     * Returns the earliest start time, not before {@code from}, at which the patient is free for {@code duration} minutes
+     */
+    public LocalDateTime nextFreePatientSlot(String patientId, LocalDateTime from, int duration) {
+        return nextFreeSlot(byPatient.get(patientId), from, duration);
+    }
+
+    /**
+     * Returns up to {@code limit} of the doctor's appointments in time order
+     * @param after start time of the last appointment of the previous page, or null for the first page
+     */
+    public List<Appointment> doctorAppointments(String doctorId, LocalDateTime after, int limit) {
+        return page(byDoctor.get(doctorId), after, limit);
+    }
+
+    /**
+     * Returns up to {@code limit} of the patient's appointments in time order
+     * @param after start time of the last appointment of the previous page, or null for the first page
+     */
+    public List<Appointment> patientAppointments(String patientId, LocalDateTime after, int limit) {
+        return page(byPatient.get(patientId), after, limit);
+    }
+
+    private static List<Appointment> page(NavigableMap<LocalDateTime, Appointment> schedule, LocalDateTime after, int limit) {
+        List<Appointment> result = new ArrayList<>();
+        if (schedule == null) {
+            return result;
+        }
+        for (Appointment a: (after == null ? schedule : schedule.tailMap(after, false)).values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(a);
+        }
+        return result;
+    }
+
+    private static Appointment findConflict(NavigableMap<LocalDateTime, Appointment> schedule, LocalDateTime start, int duration, Appointment ignore) {
+        if (schedule == null) {
+            return null;
+        }
+        LocalDateTime end = start.plusMinutes(duration);
+        //As stored intervals never overlap, only the last appointment starting before our end (and the one before it, when skipping the ignored one) can reach into our interval
+        Map.Entry<LocalDateTime, Appointment> entry = schedule.lowerEntry(end);
+        if (entry != null && entry.getValue() == ignore) {
+            entry = schedule.lowerEntry(entry.getKey());
+        }
+        if (entry != null && entry.getValue().getEndDateTime().isAfter(start)) {
+            return entry.getValue();
+        }
+        return null;
+    }
+
+    //Walks the slots and the part of the schedule they span side by side, once: O(log n + m + k) for m slots and k appointments in their span, against O(m log n) for a lookup per slot
+    private static Appointment[] findConflicts(NavigableMap<LocalDateTime, Appointment> schedule, List<LocalDateTime> starts, int duration) {
+        Appointment[] conflicts = new Appointment[starts.size()];
+        if (schedule == null || starts.isEmpty()) {
+            return conflicts;
+        }
+        //The appointment starting before the first slot may still reach into it
+        LocalDateTime first = schedule.lowerKey(starts.get(0));
+        LocalDateTime last = starts.get(starts.size() - 1).plusMinutes(duration);
+        Iterator<Appointment> it = schedule.subMap(first == null ? starts.get(0) : first, true, last, false).values().iterator();
+        Appointment current = it.hasNext() ? it.next() : null;
+        for (int i = 0; i < conflicts.length && current != null; i++) {
+            LocalDateTime start = starts.get(i);
+            //Stored appointments never overlap, so they end in the order they start; one ending by this slot's start ends before every later slot too
+            while (current != null && !current.getEndDateTime().isAfter(start)) {
+                current = it.hasNext() ? it.next() : null;
+            }
+            if (current != null && current.getDateTime().isBefore(start.plusMinutes(duration))) {
+                conflicts[i] = current;
+            }
+        }
+        return conflicts;
+    }
+
+    private static LocalDateTime nextFreeSlot(NavigableMap<LocalDateTime, Appointment> schedule, LocalDateTime from, int duration) {
+        if (schedule == null) {
+            return from;
+        }
+        LocalDateTime candidate = from;
+        Map.Entry<LocalDateTime, Appointment> previous = schedule.floorEntry(candidate);
+        if (previous != null && previous.getValue().getEndDateTime().isAfter(candidate)) {
+            candidate = previous.getValue().getEndDateTime();
+        }
+        for (Appointment next: schedule.tailMap(candidate, true).values()) {
+            if (!next.getDateTime().isBefore(candidate.plusMinutes(duration))) {
+                break;
+            }
+            if (next.getEndDateTime().isAfter(candidate)) {
+                candidate = next.getEndDateTime();
+            }
+        }
+        return candidate;
+    }
+
+    private static void removeFrom(ConcurrentHashMap<String, TreeMap<LocalDateTime, Appointment>> index, String key, Appointment appointment) {
+        TreeMap<LocalDateTime, Appointment> schedule = index.get(key);
+        if (schedule == null) {
+            return;
+        }
+        schedule.remove(appointment.getDateTime(), appointment);
+        if (schedule.isEmpty()) {
+            index.remove(key);
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package smarthealth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Class representing the full-text search index over patients or doctors of the smart health system
+ * <p>Every field value is split into lower-case terms, and each term maps to a compact posting list of document numbers. Terms are kept sorted, so a query term also matches every term it is a prefix of, and a trigram index over the terms finds those within one or two typos. A document must match every query term; documents are ranked by the weight of the fields the terms matched in, with exact matches above prefix matches above fuzzy ones.
+ * <p>Re-indexing an entity gives it a new document number and leaves the old one as a dead entry that searches skip. The index is built from the repository on first use, so start-up does not pay for it.
+ */
+public class SearchIndex<T> {
+
+    /**
+     * A searchable field of an entity
+     */
+    public static final class Field<T> {
+        private final int weight;
+        private final boolean digits;
+        private final Function<T, Collection<String>> values;
+
+        private Field(int weight, boolean digits, Function<T, Collection<String>> values) {
+            this.weight = weight;
+            this.digits = digits;
+            this.values = values;
+        }
+
+        /**
+         * Returns a free-text field
+         */
+        public static <T> Field<T> text(int weight, Function<T, Collection<String>> values) {
+            return new Field<>(weight, false, values);
+        }
+
+        /**
+         * Returns a phone number field, which is also searchable by its digits alone
+         */
+        public static <T> Field<T> phone(int weight, Function<T, Collection<String>> values) {
+            return new Field<>(weight, true, values);
+        }
+    }
+
+    /**
+     * An entity ID matching a search, with its score
+     */
+    public static final class Hit {
+        private final String id;
+        private final float score;
+
+        private Hit(String id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+
+        public String getId() { return id; }
+        public float getScore() { return score; }
+    }
+
+    //Score factors of a query term matching a term exactly, as a prefix, or within the typo budget
+    private static final float EXACT = 1f;
+    private static final float PREFIX = 0.6f;
+    private static final float FUZZY = 0.4f;
+    //Query terms shorter than this only match exactly, as a prefix or a typo would match too much
+    private static final int MIN_EXPANDED_LENGTH = 2;
+    private static final int MIN_FUZZY_LENGTH = 4;
+    //Queries whose most selective term matches more than one in this many documents are scored in arrays rather than a map
+    private static final int DENSE_SHARE = 32;
+
+    private final Function<T, String> idOf;
+    private final List<Field<T>> fields;
+    private final Supplier<Collection<T>> source;
+    private final float[] weights;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final Map<String, Set<String>> trigrams = new HashMap<>();
+    private final Map<String, Integer> documentOf = new HashMap<>();
+    //Document number to entity ID, null once the document was re-indexed or removed
+    private final ArrayList<String> documents = new ArrayList<>();
+    private volatile boolean built;
+
+    /**
+     * @param source all entities to index on first use
+     */
+    public SearchIndex(Function<T, String> idOf, List<Field<T>> fields, Supplier<Collection<T>> source) {
+        this.idOf = idOf;
+        this.fields = fields;
+        this.source = source;
+        if (fields.size() > Byte.SIZE) {
+            throw new IllegalArgumentException("At most " + Byte.SIZE + " fields can be indexed");
+        }
+        //Weight of the heaviest field in each field mask
+        this.weights = new float[1 << fields.size()];
+        for (int mask = 1; mask < weights.length; mask++) {
+            for (int f = 0; f < fields.size(); f++) {
+                if ((mask & (1 << f)) != 0) {
+                    weights[mask] = Math.max(weights[mask], fields.get(f).weight);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an entity, or indexes it again after one of its fields changed
+     */
+    public void index(T entity) {
+        lock.writeLock().lock();
+        try {
+            //Until then it is picked up from the source when the index is built
+            if (built) {
+                add(entity);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Builds the index from the source unless that was done already; called by the first search, or ahead of time to keep it off the first search
+     */
+    public void build() {
+        if (built) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (!built) {
+                for (T entity: source.get()) {
+                    add(entity);
+                }
+                built = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} entity IDs matching every term of the query, best first
+     */
+    public List<Hit> search(String query, int limit) {
+        build();
+        List<String> queryTerms = new ArrayList<>();
+        tokenize(query, false, queryTerms);
+        if (queryTerms.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        lock.readLock().lock();
+        try {
+            //The query term with the fewest postings picks the candidates, the others only score those
+            List<List<Match>> matches = new ArrayList<>();
+            for (String term: queryTerms) {
+                matches.add(match(term));
+            }
+            matches.sort(Comparator.comparingLong(SearchIndex::postings));
+            PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1, (a, b) -> a.score != b.score ? Float.compare(a.score, b.score) : b.id.compareTo(a.id));
+            if (postings(matches.get(0)) > documents.size() / DENSE_SHARE) {
+                scoreDense(matches, best, limit);
+            } else {
+                scoreSparse(matches, best, limit);
+            }
+            List<Hit> hits = new ArrayList<>(best);
+            hits.sort((a, b) -> a.score != b.score ? Float.compare(b.score, a.score) : a.id.compareTo(b.id));
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Scores the candidates of a selective query in a map
+    private void scoreSparse(List<List<Match>> matches, PriorityQueue<Hit> best, int limit) {
+        Map<Integer, Float> scores = null;
+        for (List<Match> termMatches: matches) {
+            Map<Integer, Float> termScores = new HashMap<>();
+            for (Match m: termMatches) {
+                Postings postings = m.postings;
+                for (int i = 0; i < postings.size; i++) {
+                    int document = postings.documents[i];
+                    if (scores == null || scores.containsKey(document)) {
+                        termScores.merge(document, m.factor * weight(postings.fields[i]), Math::max);
+                    }
+                }
+            }
+            if (scores != null) {
+                for (Map.Entry<Integer, Float> e: termScores.entrySet()) {
+                    e.setValue(e.getValue() + scores.get(e.getKey()));
+                }
+            }
+            scores = termScores;
+        }
+        for (Map.Entry<Integer, Float> e: scores.entrySet()) {
+            offer(best, e.getKey(), e.getValue(), limit);
+        }
+    }
+
+    //Scores a broad query in arrays over all document numbers, which beats boxing a large share of them into a map
+    private void scoreDense(List<List<Match>> matches, PriorityQueue<Hit> best, int limit) {
+        float[] scores = null;
+        float[] termScores = new float[documents.size()];
+        for (List<Match> termMatches: matches) {
+            for (Match m: termMatches) {
+                Postings postings = m.postings;
+                for (int i = 0; i < postings.size; i++) {
+                    int document = postings.documents[i];
+                    if (scores == null || scores[document] > 0) {
+                        termScores[document] = Math.max(termScores[document], m.factor * weight(postings.fields[i]));
+                    }
+                }
+            }
+            if (scores == null) {
+                scores = termScores;
+                termScores = new float[documents.size()];
+            } else {
+                for (int document = 0; document < scores.length; document++) {
+                    scores[document] = termScores[document] > 0 ? scores[document] + termScores[document] : 0;
+                }
+                Arrays.fill(termScores, 0);
+            }
+        }
+        for (int document = 0; document < scores.length; document++) {
+            if (scores[document] > 0) {
+                offer(best, document, scores[document], limit);
+            }
+        }
+    }
+
+    //Keeps the best hits on a min-heap of the result size, skipping dead documents
+    private void offer(PriorityQueue<Hit> best, int document, float score, int limit) {
+        String id = documents.get(document);
+        if (id == null) {
+            return;
+        }
+        if (best.size() == limit) {
+            Hit worst = best.peek();
+            if (score < worst.score || (score == worst.score && id.compareTo(worst.id) > 0)) {
+                return;
+            }
+        }
+        best.add(new Hit(id, score));
+        if (best.size() > limit) {
+            best.poll();
+        }
+    }
+
+    //Terms matching the query term exactly, as a prefix or within the typo budget
+    private List<Match> match(String term) {
+        List<Match> matches = new ArrayList<>();
+        Postings exact = terms.get(term);
+        if (exact != null) {
+            matches.add(new Match(exact, EXACT));
+        }
+        if (term.length() >= MIN_EXPANDED_LENGTH) {
+            for (Postings p: terms.subMap(term, false, term + Character.MAX_VALUE, false).values()) {
+                matches.add(new Match(p, PREFIX));
+            }
+        }
+        if (term.length() >= MIN_FUZZY_LENGTH && !containsDigit(term)) {
+            int budget = term.length() >= 8 ? 2 : 1;
+            for (String candidate: fuzzyCandidates(term)) {
+                if (!candidate.equals(term) && !candidate.startsWith(term) && withinDistance(term, candidate, budget)) {
+                    matches.add(new Match(terms.get(candidate), FUZZY));
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static long postings(List<Match> matches) {
+        long total = 0;
+        for (Match m: matches) {
+            total += m.postings.size;
+        }
+        return total;
+    }
+
+    private float weight(byte fieldMask) {
+        return weights[fieldMask & 0xFF];
+    }
+
+    //Terms sharing at least one trigram with the query term, the only ones that can be a typo or two away
+    private Set<String> fuzzyCandidates(String term) {
+        Set<String> candidates = new HashSet<>();
+        for (String gram: trigramsOf(term)) {
+            candidates.addAll(trigrams.getOrDefault(gram, Collections.emptySet()));
+        }
+        return candidates;
+    }
+
+    private void add(T entity) {
+        String id = idOf.apply(entity);
+        Integer previous = documentOf.get(id);
+        if (previous != null) {
+            documents.set(previous, null);
+        }
+        int document = documents.size();
+        documents.add(id);
+        documentOf.put(id, document);
+        Map<String, Integer> entityTerms = new HashMap<>();
+        List<String> tokens = new ArrayList<>();
+        for (int f = 0; f < fields.size(); f++) {
+            Field<T> field = fields.get(f);
+            Collection<String> values = field.values.apply(entity);
+            if (values == null) {
+                continue;
+            }
+            for (String value: values) {
+                tokens.clear();
+                tokenize(value, field.digits, tokens);
+                for (String token: tokens) {
+                    entityTerms.merge(token, 1 << f, (a, b) -> a | b);
+                }
+            }
+        }
+        for (Map.Entry<String, Integer> e: entityTerms.entrySet()) {
+            Postings postings = terms.get(e.getKey());
+            if (postings == null) {
+                postings = new Postings();
+                terms.put(e.getKey(), postings);
+                if (!containsDigit(e.getKey())) {
+                    for (String gram: trigramsOf(e.getKey())) {
+                        trigrams.computeIfAbsent(gram, k -> new HashSet<>()).add(e.getKey());
+                    }
+                }
+            }
+            postings.add(document, e.getValue());
+        }
+    }
+
+    //Lower-case runs of letters and digits; phone numbers also give their digits run together
+    private static void tokenize(String text, boolean digits, List<String> out) {
+        if (text == null) {
+            return;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean word = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                out.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+        if (digits) {
+            StringBuilder number = new StringBuilder();
+            for (int i = 0; i < lower.length(); i++) {
+                if (Character.isDigit(lower.charAt(i))) {
+                    number.append(lower.charAt(i));
+                }
+            }
+            if (number.length() > 0) {
+                out.add(number.toString());
+            }
+        }
+    }
+
+    //Numbers are phone numbers, house numbers and the like, where a typo is a different number
+    private static boolean containsDigit(String term) {
+        for (int i = 0; i < term.length(); i++) {
+            if (Character.isDigit(term.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> trigramsOf(String term) {
+        List<String> grams = new ArrayList<>();
+        String padded = "^" + term + "$";
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    //Edit distance of at most the given budget, counting swapped neighbouring letters as one typo
+    private static boolean withinDistance(String a, String b, int budget) {
+        if (Math.abs(a.length() - b.length()) > budget) {
+            return false;
+        }
+        int[] beforePrevious = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    current[j] = Math.min(current[j], beforePrevious[j - 2] + 1);
+                }
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > budget) {
+                return false;
+            }
+            int[] swap = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()] <= budget;
+    }
+
+    private static final class Match {
+        private final Postings postings;
+        private final float factor;
+
+        private Match(Postings postings, float factor) {
+            this.postings = postings;
+            this.factor = factor;
+        }
+    }
+
+    //Documents containing one term, with a bit mask of the fields it occurs in
+    private static final class Postings {
+        private int[] documents = new int[2];
+        private byte[] fields = new byte[2];
+        private int size;
+
+        private void add(int document, int fieldMask) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+                fields = Arrays.copyOf(fields, size * 2);
+            }
+            documents[size] = document;
+            fields[size] = (byte) fieldMask;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package smarthealth;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+/**
+ * Class representing a sharded deployment run on this machine, to try sharding out and to measure how it scales
+ * <p>Every shard is started as its own JVM running {@code SmartHealthSystem --shard} on a loopback port picked by the system, with its data in {@code shard-<i>} under the data directory, and a {@link ShardRouter} in this JVM is put in front of them. The shards stop when this JVM closes their standard input, or exits.
+ * <p>With {@code --scale} a fresh cluster is started for each number of shards given, the {@link LoadGenerator} is run against its router, and the booking throughput of every size is printed side by side.
+ * <pre>
+ * java smarthealth.ShardCluster [shards] [router port] [data directory]
+ * java smarthealth.ShardCluster --scale 1,2,4 [concurrent clients] [bookings] [doctors] [patients]
+ * </pre>
+ */
+public final class ShardCluster implements AutoCloseable {
+
+    //Appointment IDs of shard i start at i times this, leaving each shard a trillion IDs of its own
+    static final long ID_SPACING = 1_000_000_000_000L;
+    private static final long START_TIMEOUT_SECONDS = 60;
+    private static final String LISTENING = "Shard listening on port ";
+
+    private final List<Process> processes;
+    private final ShardRouter router;
+
+    private ShardCluster(List<Process> processes, ShardRouter router) {
+        this.processes = processes;
+        this.router = router;
+    }
+
+    /**
+     * Starts the shard JVMs and a router in front of them, restoring the patient holds of any data the shards already had
+     * @param routerPort port of the router, 0 for any free one
+     */
+    public static ShardCluster start(int shards, int routerPort, Path dataDirectory) throws IOException {
+        List<Process> processes = new ArrayList<>();
+        List<CompletableFuture<Integer>> ports = new ArrayList<>();
+        String java = ProcessHandle.current().info().command().orElse("java");
+        for (int i = 0; i < shards; i++) {
+            Path directory = Files.createDirectories(dataDirectory.resolve("shard-" + i));
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    "-Dsmarthealth.data=" + directory.toAbsolutePath(), "-Dsmarthealth.idBase=" + i * ID_SPACING,
+                    "smarthealth.SmartHealthSystem", "--shard", "0").redirectErrorStream(true).start();
+            processes.add(process);
+            ports.add(listen(process, "shard-" + i));
+        }
+        List<String> urls = new ArrayList<>();
+        try {
+            for (int i = 0; i < shards; i++) {
+                urls.add("http://127.0.0.1:" + ports.get(i).get(START_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            }
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            processes.forEach(Process::destroyForcibly);
+            throw new IOException("Shard " + urls.size() + " did not start", e);
+        }
+        ShardRouter router = ShardRouter.start(routerPort, urls);
+        router.restoreHolds();
+        return new ShardCluster(processes, router);
+    }
+
+    //Reads the shard's output on a daemon thread, completing with its port once it reports it and dropping the rest
+    private static CompletableFuture<Integer> listen(Process process, String name) {
+        CompletableFuture<Integer> port = new CompletableFuture<>();
+        Thread reader = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (!port.isDone() && line.startsWith(LISTENING)) {
+                        port.complete(Integer.parseInt(line.substring(LISTENING.length()).trim()));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                port.completeExceptionally(e);
+            }
+            port.completeExceptionally(new IOException(name + " exited"));
+        }, name + "-output");
+        reader.setDaemon(true);
+        reader.start();
+        return port;
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + router.getPort();
+    }
+
+    public ShardRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * Stops the router, then every shard, letting each close its journal
+     */
+    @Override
+    public void close() {
+        router.stop();
+        for (Process p: processes) {
+            try {
+                p.getOutputStream().close();
+            } catch (IOException e) {
+                p.destroy();
+            }
+        }
+        for (Process p: processes) {
+            try {
+                if (!p.waitFor(10, TimeUnit.SECONDS)) {
+                    p.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                p.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--scale")) {
+            scale(args);
+            return;
+        }
+        int shards = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        Path data = Path.of(args.length > 2 ? args[2] : "shards");
+        try (ShardCluster cluster = start(shards, port, data)) {
+            System.out.println(shards + " shards, data in " + data.toAbsolutePath() + ", router at " + cluster.getUrl());
+            System.out.println("Press Enter to stop.");
+            new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+        }
+    }
+
+    //Runs the load generator against a fresh cluster of each size and prints the throughputs together
+    private static void scale(String[] args) throws Exception {
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        int bookings = args.length > 3 ? Integer.parseInt(args[3]) : 50_000;
+        int doctors = args.length > 4 ? Integer.parseInt(args[4]) : 200;
+        int patients = args.length > 5 ? Integer.parseInt(args[5]) : 5_000;
+        Map<Integer, Double> throughput = new LinkedHashMap<>();
+        for (String size: (args.length > 1 ? args[1] : "1,2,4").split(",")) {
+            int shards = Integer.parseInt(size.trim());
+            Path data = Files.createTempDirectory("smarthealth-shards");
+            try (ShardCluster cluster = start(shards, 0, data)) {
+                System.out.println("== " + shards + " shard(s)");
+                throughput.put(shards, LoadGenerator.run(cluster.getUrl(), clients, bookings, doctors, patients));
+            } finally {
+                delete(data);
+            }
+        }
+        System.out.printf("%n%-8s %12s %8s%n", "Shards", "Requests/s", "Speedup");
+        double base = throughput.values().iterator().next();
+        for (Map.Entry<Integer, Double> e: throughput.entrySet()) {
+            System.out.printf("%-8d %12.0f %7.2fx%n", e.getKey(), e.getValue(), e.getValue() / base);
+        }
+        System.exit(0);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path p: (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package smarthealth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class representing the consistent-hash ring that assigns doctors and patients to the shards of a sharded deployment
+ * <p>Every shard is placed on a 64-bit ring at {@link #VIRTUAL_NODES} pseudo-random points, and a key belongs to the shard of the first point at or after the key's own hash, wrapping around. Adding a shard to N therefore moves only about 1/(N+1) of the keys, all of them onto the new shard, where a modulo assignment would move almost all of them; the many points per shard keep the shares even.
+ * <p>The ring is immutable and looked up with a binary search over a sorted array of points, so lookups are lock free and allocate nothing.
+ */
+public final class ShardRing {
+
+    public static final int VIRTUAL_NODES = 160;
+
+    private final List<String> shards;
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * @param shards names of the shards, e.g. their base URLs; a shard's place on the ring depends only on its name
+     */
+    public ShardRing(List<String> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        int n = shards.size() * VIRTUAL_NODES;
+        long[][] sorted = new long[n][];
+        for (int s = 0; s < shards.size(); s++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                sorted[s * VIRTUAL_NODES + v] = new long[] {hash(shards.get(s) + "#" + v), s};
+            }
+        }
+        Arrays.sort(sorted, (a, b) -> Long.compareUnsigned(a[0], b[0]));
+        this.points = new long[n];
+        this.owners = new int[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = sorted[i][0];
+            owners[i] = (int) sorted[i][1];
+        }
+    }
+
+    /**
+     * Returns the index of the shard owning the key, a doctor or patient ID
+     */
+    public int ownerOf(String key) {
+        long h = hash(key);
+        //First point at or after the hash, in unsigned order
+        int low = 0;
+        int high = points.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(points[mid], h) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return owners[low == points.length ? 0 : low];
+    }
+
+    public String getShard(int index) { return shards.get(index); }
+    public List<String> getShards() { return shards; }
+    public int size() { return shards.size(); }
+
+    //FNV-1a over the characters, finished with the MurmurHash3 mix so nearby IDs (D1, D2, ...) land far apart
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
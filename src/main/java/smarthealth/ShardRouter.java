@@ -0,0 +1,525 @@
+package smarthealth;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Class representing the router in front of the shards of a sharded deployment
+ * <p>Each shard is a {@code SmartHealthSystem --shard} process with its own data. Doctors, and with them their appointments and availability, are partitioned across the shards by a {@link ShardRing} over the doctor ID. Patients are registered on every shard, so any shard can check a booking's patient; each patient also has a home shard on the ring, which keeps their prescriptions and the {@link PatientHolds} through which bookings on different shards are kept from overlapping.
+ * <p>The router serves the same HTTP API as a single process for the calls below and routes them:
+ * <pre>
+ * POST /patients                       registered on every shard; repeating a registration that reached only some shards completes it
+ * GET  /patients[?q=text]              from the first shard, as every shard has every patient
+ * GET  /patients/{id}/appointments     gathered from every shard and merged in time order
+ * *    /patients/{id}[/prescriptions[/{n}]] the patient's home shard
+ * POST /doctors                        the doctor's shard
+ * GET  /doctors[?q=text]               gathered from every shard
+ * *    /doctors/{id}[/...]             the doctor's shard
+ * POST /appointments[/batch]           the slots are held on the patient's home shard, then booked on the doctor's shard, and released again if the booking fails
+ * GET  /appointments/upcoming|overdue  gathered from every shard and merged in time order
+ * GET  /slots?specialization=S[...]    asked of every shard, the earliest slot wins
+ * GET  /prescriptions/expired|refill   gathered from every shard, as each has those of the patients it is home to
+ * GET  /analytics?from=&amp;to=            gathered from every shard and added up, the top specialization taken from the sums
+ * GET  /shards                         the shards in ring order
+ * </pre>
+ * <p>Appointment IDs are kept apart by starting each shard's sequence at its own base, see {@link ShardCluster}. Adding a shard moves about 1/N of the doctors to it on the ring; their existing appointments are not migrated.
+ */
+public class ShardRouter {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    //Holds restored per request when rebuilding them
+    private static final int RESTORE_BATCH = 10_000;
+    private static final Comparator<Map<String, Object>> SLOT_ORDER = Comparator.comparing((Map<String, Object> slot) -> HttpApi.text(slot, "dateTime"))
+            .thenComparing(slot -> HttpApi.text(slot, "doctorId"));
+
+    private final ShardRing ring;
+    private final List<URI> shards;
+    private final HttpClient client;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private ShardRouter(List<String> shardUrls, HttpServer server, ExecutorService executor) {
+        List<String> names = new ArrayList<>();
+        this.shards = new ArrayList<>();
+        for (int i = 0; i < shardUrls.size(); i++) {
+            //Named by position rather than address, so a shard restarted on another port keeps its doctors
+            names.add("shard-" + i);
+            shards.add(URI.create(shardUrls.get(i).replaceAll("/+$", "")));
+        }
+        this.ring = new ShardRing(names);
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(10)).executor(executor).build();
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts a router on the given port of every local interface, in front of the shards at the given base URLs
+     * <p>The order of the URLs is the order of the shards on the ring, so it must stay the same across restarts, with new shards appended.
+     */
+    public static ShardRouter start(int port, List<String> shardUrls) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 4096);
+        ExecutorService executor = HttpApi.newRequestExecutor();
+        ShardRouter router = new ShardRouter(shardUrls, server, executor);
+        server.createContext("/patients", routed(router::patients));
+        server.createContext("/doctors", routed(router::doctors));
+        server.createContext("/appointments", routed(router::appointments));
+        server.createContext("/slots", routed(router::slots));
+        server.createContext("/prescriptions", routed(router::prescriptions));
+        server.createContext("/analytics", routed(router::analytics));
+        server.createContext("/shards", routed(router::shards));
+        server.setExecutor(executor);
+        server.start();
+        return router;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public ShardRing getRing() {
+        return ring;
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Holds the slots of every upcoming appointment on its patient's home shard again, needed after shards were restarted as holds are kept in memory only
+     */
+    public void restoreHolds() {
+        LocalDateTime now = LocalDateTime.now();
+        List<List<String>> pending = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            pending.add(new ArrayList<>());
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            HttpResponse<Stream<String>> response;
+            try {
+                response = client.send(request(i, "/export/appointments?format=ndjson").GET().build(), HttpResponse.BodyHandlers.ofLines());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new IOException("Interrupted"));
+            }
+            try (Stream<String> lines = response.body()) {
+                lines.forEach(line -> {
+                    Map<String, Object> a = Json.parseObject(line);
+                    LocalDateTime start = LocalDateTime.parse(HttpApi.text(a, "dateTime"), FORMATTER);
+                    int duration = ((Number) a.get("durationMinutes")).intValue();
+                    //Only slots still to come can clash with a new booking
+                    if (!start.plusMinutes(duration).isAfter(now)) {
+                        return;
+                    }
+                    int home = ring.ownerOf(HttpApi.text(a, "patientId"));
+                    pending.get(home).add(line);
+                    if (pending.get(home).size() >= RESTORE_BATCH) {
+                        restore(home, pending.get(home));
+                    }
+                });
+            }
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            restore(i, pending.get(i));
+        }
+    }
+
+    //Sends the appointment lines as holds to the shard and empties the list
+    private void restore(int shard, List<String> appointments) {
+        if (!appointments.isEmpty()) {
+            call(shard, "POST", "/shard/holds/restore", "{\"holds\":[" + String.join(",", appointments) + "]}");
+            appointments.clear();
+        }
+    }
+
+    private void patients(HttpExchange exchange) throws IOException {
+        String[] path = HttpApi.path(exchange);
+        if (HttpApi.isPost(exchange) && path.length == 1) {
+            String raw = read(exchange);
+            Map<String, Object> body = parse(exchange, raw);
+            if (body == null) {
+                return;
+            }
+            if (HttpApi.text(body, "id") == null) {
+                HttpApi.send(exchange, 400, HttpApi.error("Patient ID is required"));
+                return;
+            }
+            register(exchange, body, raw);
+        } else if (path.length == 1) {
+            forward(exchange, 0, null);
+        } else if (path.length == 3 && path[2].equals("appointments")) {
+            gather(exchange);
+        } else {
+            forward(exchange, ring.ownerOf(path[1]), HttpApi.isPost(exchange) ? read(exchange) : null);
+        }
+    }
+
+    //Registers the patient on every shard. A shard that already has the very same patient, left by an earlier attempt that failed on other shards, counts as registered, so repeating a failed registration completes it
+    private void register(HttpExchange exchange, Map<String, Object> body, String raw) throws IOException {
+        String id = HttpApi.text(body, "id");
+        List<CompletableFuture<HttpResponse<String>>> calls = sendAll("POST", "/patients", raw);
+        //The patient as each shard has it, null where the registration did not get through
+        String[] registered = new String[shards.size()];
+        boolean duplicate = false;
+        for (int i = 0; i < shards.size(); i++) {
+            HttpResponse<String> r = calls.get(i).exceptionally(e -> null).join();
+            if (r == null) {
+                continue;
+            }
+            if (r.statusCode() == 201) {
+                registered[i] = r.body();
+            } else if (r.statusCode() == 409) {
+                HttpResponse<String> existing;
+                try {
+                    existing = call(i, "GET", "/patients/" + URLEncoder.encode(id, StandardCharsets.UTF_8).replace("+", "%20"), null);
+                } catch (UncheckedIOException e) {
+                    continue;
+                }
+                if (existing.statusCode() == 200 && samePatient(body, Json.parseObject(existing.body()))) {
+                    registered[i] = existing.body();
+                } else {
+                    duplicate = true;
+                }
+            }
+        }
+        if (duplicate) {
+            HttpApi.send(exchange, 409, HttpApi.error("Duplicate patient ID"));
+        } else if (Arrays.stream(registered).allMatch(Objects::nonNull)) {
+            HttpApi.send(exchange, 201, registered[ring.ownerOf(id)]);
+        } else {
+            HttpApi.send(exchange, 502, HttpApi.error("Patient not registered on every shard, repeat the registration to complete it"));
+        }
+    }
+
+    //Whether a shard's patient has the details of the registration; the registration date is the shard's own
+    private static boolean samePatient(Map<String, Object> registration, Map<String, Object> patient) {
+        return Objects.equals(HttpApi.text(registration, "name"), HttpApi.text(patient, "name"))
+                && HttpApi.number(registration, "age") == HttpApi.number(patient, "age")
+                && Objects.equals(HttpApi.text(registration, "address"), HttpApi.text(patient, "address"))
+                && Objects.equals(HttpApi.text(registration, "contact"), HttpApi.text(patient, "contact"))
+                && HttpApi.texts(registration, "medicalHistory").equals(HttpApi.texts(patient, "medicalHistory"));
+    }
+
+    private void doctors(HttpExchange exchange) throws IOException {
+        String[] path = HttpApi.path(exchange);
+        if (HttpApi.isPost(exchange) && path.length == 1) {
+            String raw = read(exchange);
+            Map<String, Object> body = parse(exchange, raw);
+            if (body == null) {
+                return;
+            }
+            if (HttpApi.text(body, "id") == null) {
+                HttpApi.send(exchange, 400, HttpApi.error("Doctor ID is required"));
+                return;
+            }
+            forward(exchange, ring.ownerOf(HttpApi.text(body, "id")), raw);
+        } else if (path.length == 1) {
+            List<Object> doctors = new ArrayList<>();
+            for (HttpResponse<String> r: all("GET", target(exchange), null)) {
+                if (r.statusCode() == 200) {
+                    doctors.addAll((List<?>) Json.parse(r.body()));
+                }
+            }
+            HttpApi.send(exchange, 200, Json.write(new StringBuilder(), doctors));
+        } else {
+            forward(exchange, ring.ownerOf(path[1]), HttpApi.isPost(exchange) ? read(exchange) : null);
+        }
+    }
+
+    private void appointments(HttpExchange exchange) throws IOException {
+        String[] path = HttpApi.path(exchange);
+        if (HttpApi.isPost(exchange) && (path.length == 1 || path.length == 2 && path[1].equals("batch"))) {
+            book(exchange, path.length == 2);
+        } else if (path.length == 2 && (path[1].equals("upcoming") || path[1].equals("overdue"))) {
+            gather(exchange);
+        } else {
+            HttpApi.send(exchange, 404, HttpApi.error("Not found"));
+        }
+    }
+
+    //Holds the slots on the patient's home shard so no other shard can book the patient then, books them on the doctor's shard, and releases them when that fails
+    private void book(HttpExchange exchange, boolean batch) throws IOException {
+        String raw = read(exchange);
+        Map<String, Object> body = parse(exchange, raw);
+        if (body == null) {
+            return;
+        }
+        String patientId = HttpApi.text(body, "patientId");
+        String doctorId = HttpApi.text(body, "doctorId");
+        if (patientId == null || doctorId == null) {
+            HttpApi.send(exchange, 400, HttpApi.error("patientId and doctorId are required"));
+            return;
+        }
+        List<LocalDateTime> slots;
+        try {
+            slots = batch ? HttpApi.slots(body) : List.of(LocalDateTime.parse(String.valueOf(body.get("dateTime")), FORMATTER));
+        } catch (DateTimeParseException e) {
+            HttpApi.send(exchange, 400, HttpApi.error("Invalid date format, expected yyyy-MM-dd HH:mm"));
+            return;
+        } catch (IllegalArgumentException e) {
+            HttpApi.send(exchange, 400, HttpApi.error(e.getMessage()));
+            return;
+        }
+        int duration = HttpApi.duration(body);
+        if (duration <= 0) {
+            HttpApi.send(exchange, 400, HttpApi.error("Duration must be positive"));
+            return;
+        }
+        StringBuilder hold = new StringBuilder("{\"patientId\":");
+        Json.quote(hold, patientId).append(",\"durationMinutes\":").append(duration).append(",\"slots\":[");
+        for (int i = 0; i < slots.size(); i++) {
+            Json.quote(i == 0 ? hold : hold.append(','), slots.get(i).format(FORMATTER));
+        }
+        hold.append("]}");
+
+        int home = ring.ownerOf(patientId);
+        HttpResponse<String> held = call(home, "POST", "/shard/holds", hold.toString());
+        if (held.statusCode() != 200) {
+            HttpApi.send(exchange, held.statusCode(), held.body());
+            return;
+        }
+        HttpResponse<String> booked = null;
+        try {
+            booked = call(ring.ownerOf(doctorId), "POST", batch ? "/appointments/batch" : "/appointments", raw);
+        } finally {
+            if (booked == null || booked.statusCode() != 201) {
+                call(home, "POST", "/shard/holds/release", hold.toString());
+            }
+        }
+        HttpApi.send(exchange, booked.statusCode(), booked.body());
+    }
+
+    //Answers the earliest free slot of all shards, as each has the calendars of its own doctors; ties go to the lowest doctor ID
+    private void slots(HttpExchange exchange) throws IOException {
+        Map<String, Object> earliest = null;
+        for (HttpResponse<String> r: all("GET", target(exchange), null)) {
+            if (r.statusCode() == 404) {
+                continue;
+            }
+            if (r.statusCode() != 200) {
+                HttpApi.send(exchange, r.statusCode(), r.body());
+                return;
+            }
+            Map<String, Object> slot = Json.parseObject(r.body());
+            if (earliest == null || SLOT_ORDER.compare(slot, earliest) < 0) {
+                earliest = slot;
+            }
+        }
+        if (earliest == null) {
+            HttpApi.send(exchange, 404, HttpApi.error("No free slot found"));
+            return;
+        }
+        HttpApi.send(exchange, 200, Json.write(new StringBuilder(), earliest));
+    }
+
+    private void prescriptions(HttpExchange exchange) throws IOException {
+        String[] path = HttpApi.path(exchange);
+        if (path.length != 2 || !(path[1].equals("expired") || path[1].equals("refill"))) {
+            HttpApi.send(exchange, 404, HttpApi.error("Not found"));
+            return;
+        }
+        List<Object> prescriptions = new ArrayList<>();
+        for (HttpResponse<String> r: all("GET", target(exchange), null)) {
+            if (r.statusCode() != 200) {
+                HttpApi.send(exchange, r.statusCode(), r.body());
+                return;
+            }
+            prescriptions.addAll((List<?>) Json.parse(r.body()));
+        }
+        HttpApi.send(exchange, 200, Json.write(new StringBuilder(), prescriptions));
+    }
+
+    //Adds up the totals, workloads, patient visits and hour-of-day spread of every shard. A patient's visits may be spread over several shards, and so may a specialization's doctors, so both are summed before the top one is picked
+    @SuppressWarnings("unchecked")
+    private void analytics(HttpExchange exchange) throws IOException {
+        long[] totals = new long[4];
+        String[] names = {"total", "completed", "pending", "bookedMinutes"};
+        String[] countNames = {"doctorWorkload", "specializations", "patientVisits"};
+        List<Map<String, Long>> counts = new ArrayList<>();
+        for (int i = 0; i < countNames.length; i++) {
+            counts.add(new HashMap<>());
+        }
+        long[] byHour = new long[24];
+        for (HttpResponse<String> r: all("GET", target(exchange), null)) {
+            if (r.statusCode() != 200) {
+                HttpApi.send(exchange, r.statusCode(), r.body());
+                return;
+            }
+            Map<String, Object> shard = Json.parseObject(r.body());
+            for (int i = 0; i < names.length; i++) {
+                totals[i] += ((Number) shard.get(names[i])).longValue();
+            }
+            for (int i = 0; i < countNames.length; i++) {
+                for (Map.Entry<String, Object> e: ((Map<String, Object>) shard.get(countNames[i])).entrySet()) {
+                    counts.get(i).merge(e.getKey(), ((Number) e.getValue()).longValue(), Long::sum);
+                }
+            }
+            List<?> hours = (List<?>) shard.get("byHour");
+            for (int h = 0; h < byHour.length; h++) {
+                byHour[h] += ((Number) hours.get(h)).longValue();
+            }
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            result.put(names[i], totals[i]);
+        }
+        for (int i = 0; i < countNames.length; i++) {
+            Map<String, Object> sorted = new LinkedHashMap<>();
+            counts.get(i).entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                    .forEach(e -> sorted.put(e.getKey(), e.getValue()));
+            result.put(countNames[i], sorted);
+            if (countNames[i].equals("specializations")) {
+                result.put("topSpecialization", sorted.isEmpty() ? null : sorted.keySet().iterator().next());
+            }
+        }
+        List<Object> hours = new ArrayList<>();
+        for (long h: byHour) {
+            hours.add(h);
+        }
+        result.put("byHour", hours);
+        HttpApi.send(exchange, 200, Json.write(new StringBuilder(), result));
+    }
+
+    private void shards(HttpExchange exchange) throws IOException {
+        List<Object> result = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            Map<String, Object> shard = new LinkedHashMap<>();
+            shard.put("name", ring.getShard(i));
+            shard.put("url", shards.get(i).toString());
+            result.add(shard);
+        }
+        HttpApi.send(exchange, 200, Json.write(new StringBuilder(), result));
+    }
+
+    //Asks every shard for the same page of appointments and answers the earliest of them, honouring the limit query parameter
+    @SuppressWarnings("unchecked")
+    private void gather(HttpExchange exchange) throws IOException {
+        List<Map<String, Object>> appointments = new ArrayList<>();
+        for (HttpResponse<String> r: all("GET", target(exchange), null)) {
+            if (r.statusCode() != 200) {
+                HttpApi.send(exchange, r.statusCode(), r.body());
+                return;
+            }
+            for (Object a: (List<?>) Json.parse(r.body())) {
+                appointments.add((Map<String, Object>) a);
+            }
+        }
+        String limit = HttpApi.query(exchange, "limit");
+        List<Map<String, Object>> merged = appointments.stream()
+                .sorted(Comparator.comparing((Map<String, Object> a) -> HttpApi.text(a, "dateTime")).thenComparing(a -> HttpApi.text(a, "id")))
+                .limit(limit == null ? Long.MAX_VALUE : Long.parseLong(limit))
+                .collect(Collectors.toList());
+        HttpApi.send(exchange, 200, Json.write(new StringBuilder(), merged));
+    }
+
+    //Sends the request on to one shard unchanged and answers with the shard's response
+    private void forward(HttpExchange exchange, int shard, String body) throws IOException {
+        HttpResponse<String> response = call(shard, exchange.getRequestMethod(), target(exchange), body);
+        HttpApi.send(exchange, response.statusCode(), response.body());
+    }
+
+    private HttpResponse<String> call(int shard, String method, String target, String body) {
+        try {
+            return client.send(request(shard, target).method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException("Interrupted"));
+        }
+    }
+
+    //Sends the request to every shard at once and returns the responses in shard order
+    private List<HttpResponse<String>> all(String method, String target, String body) {
+        List<CompletableFuture<HttpResponse<String>>> calls = sendAll(method, target, body);
+        List<HttpResponse<String>> responses = new ArrayList<>();
+        try {
+            for (CompletableFuture<HttpResponse<String>> c: calls) {
+                responses.add(c.join());
+            }
+        } catch (CompletionException e) {
+            throw new UncheckedIOException(e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause()));
+        }
+        return responses;
+    }
+
+    private List<CompletableFuture<HttpResponse<String>>> sendAll(String method, String target, String body) {
+        List<CompletableFuture<HttpResponse<String>>> calls = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            calls.add(client.sendAsync(request(i, target).method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body)).build(),
+                    HttpResponse.BodyHandlers.ofString()));
+        }
+        return calls;
+    }
+
+    private HttpRequest.Builder request(int shard, String target) {
+        return HttpRequest.newBuilder(shards.get(shard).resolve(target)).timeout(TIMEOUT).header("Content-Type", "application/json");
+    }
+
+    //Path and query of the request, as received
+    private static String target(HttpExchange exchange) {
+        URI uri = exchange.getRequestURI();
+        return uri.getRawQuery() == null ? uri.getRawPath() : uri.getRawPath() + "?" + uri.getRawQuery();
+    }
+
+    private static String read(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    //Parses the body as a JSON object, answering 400 and returning null when it is not one
+    private static Map<String, Object> parse(HttpExchange exchange, String raw) throws IOException {
+        try {
+            return Json.parseObject(raw);
+        } catch (IllegalArgumentException e) {
+            HttpApi.send(exchange, 400, HttpApi.error("Invalid JSON: " + e.getMessage()));
+            return null;
+        }
+    }
+
+    //Answers 502 when a shard cannot be reached, on top of the API's own guard
+    private static HttpHandler routed(HttpHandler handler) {
+        return HttpApi.guarded(exchange -> {
+            try {
+                handler.handle(exchange);
+            } catch (UncheckedIOException e) {
+                HttpApi.send(exchange, 502, HttpApi.error("Shard unavailable: " + e.getCause().getMessage()));
+            }
+        });
+    }
+}
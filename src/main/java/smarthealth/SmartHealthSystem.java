@@ -0,0 +1,1516 @@
+package smarthealth;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.io.Serializable;
+
+/**
+ * Class representing a smart health system
+ * {@code PetCareScheduler} class represents the main controller for the Smart Health Management system. It manages doctor and patients registrations, appointment scheduling, data persistence, and report generation for all registered patients.
+ * @author Paulo Aguiar
+ */
+public class SmartHealthSystem implements Serializable {
+
+    //Private fields for the repositories storing the patients, doctors and appointments, and the scanner taking user input in
+    private static PatientRepository patients = new PatientRepository();
+    private static DoctorRepository doctors = new DoctorRepository();
+    private static AppointmentRepository appointments = new AppointmentRepository(patients, doctors);
+    private static PrescriptionScheduler prescriptions = new PrescriptionScheduler(patients);
+    private static SearchIndex<Patient> patientSearch = newPatientSearch();
+    private static SearchIndex<Doctor> doctorSearch = newDoctorSearch();
+    //Number of days ahead the slot finder looks by default
+    private static final int SLOT_SEARCH_DAYS = 14;
+    //Number of search results listed on the console
+    private static final int SEARCH_RESULTS = 20;
+    //Interval at which the prescription clock is advanced so expiry and refill events fire without waiting for a query
+    private static final long PRESCRIPTION_TICK_MILLIS = 60_000;
+    //Number of rows listed at a time on the console
+    private static final int PAGE_SIZE = 20;
+    //Bus on which appointment and prescription changes are published, and the feed of recent changes subscribed to it
+    private static final EventBus events = new EventBus(16_384);
+    private static final ChangeFeed changeFeed = new ChangeFeed(10_000);
+    //Slots of the patients this process is home shard to, only used in a sharded deployment
+    private static final PatientHolds patientHolds = new PatientHolds();
+    //Number of decoded patients kept in memory, the rest are read from patients.db when needed; -Dsmarthealth.patientCache=0 keeps every patient once read
+    private static final int PATIENT_CACHE = Integer.getInteger("smarthealth.patientCache", 100_000);
+    //The patients paged in from patients.db, flushed to a new snapshot when changes pile up; null when they were read from a legacy snapshot
+    private static MappedRecordMap<Patient> pagedPatients;
+    private static final Scanner scanner = new Scanner(System.in);
+    private static Journal journal;
+    //Number of journal records after which the maps are compacted into a fresh snapshot
+    private static final long SNAPSHOT_INTERVAL = 10_000;
+    //Minutes between periodic snapshots, taken only when something changed; -Dsmarthealth.snapshotMinutes=0 turns them off
+    private static final int SNAPSHOT_MINUTES = Integer.getInteger("smarthealth.snapshotMinutes", 10);
+    //Writes snapshots in the background from the journal segments set aside by capture
+    private static final SnapshotWriter snapshots = new SnapshotWriter();
+    //Journal writes share this lock, a snapshot capture takes it exclusively so the journal is rotated between records, never within one; a patient change holds it along with its journal record, so the patients captured are exactly those journaled
+    private static final ReentrantReadWriteLock persistenceLock = new ReentrantReadWriteLock();
+    //Directory holding the snapshot and journal files, the working directory unless -Dsmarthealth.data is given
+    private static Path dataDirectory = Path.of(System.getProperty("smarthealth.data", "."));
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    static {
+        //Sizes of the in-memory maps, read only when the metrics are dumped; the lambdas read the fields, so they follow the repositories replaced by loadData
+        Metrics.gauge("patients.size", () -> patients.size());
+        Metrics.gauge("doctors.size", () -> doctors.size());
+        Metrics.gauge("appointments.size", () -> appointments.size());
+        Metrics.gauge("appointmentColumns.size", () -> appointments.getColumns() == null ? 0 : appointments.getColumns().size());
+    }
+
+    public static void main(String[] args) {
+        Metrics.registerMBean();
+        //Start the program system by loading pre-existing data, if applicable
+        loadData();
+        new Timer("prescription-clock", true).scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                prescriptions.advanceTo(LocalDateTime.now());
+            }
+        }, PRESCRIPTION_TICK_MILLIS, PRESCRIPTION_TICK_MILLIS);
+        //Build the search indexes in the background so the first search does not wait for them
+        Thread indexer = new Thread(() -> {
+            patientSearch.build();
+            doctorSearch.build();
+        }, "search-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+        events.subscribe("changes", changeFeed);
+        if (SNAPSHOT_MINUTES > 0) {
+            long period = SNAPSHOT_MINUTES * 60_000L;
+            new Timer("snapshot-clock", true).scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    requestSnapshot(1);
+                }
+            }, period, period);
+        }
+
+        //Run as one shard of a sharded deployment: serve the HTTP API without the console until standard input is closed, see ShardCluster
+        if (args.length == 2 && args[0].equals("--shard")) {
+            runShard(Integer.parseInt(args[1]));
+            return;
+        }
+
+        //Optionally serve the HTTP API next to the console, e.g. java smarthealth.SmartHealthSystem --http 8080
+        HttpApi api = null;
+        if (args.length == 2 && args[0].equals("--http")) {
+            try {
+                api = HttpApi.start(Integer.parseInt(args[1]));
+                System.out.println("HTTP API listening on port " + api.getPort());
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("Could not start the HTTP API: " + e.getMessage());
+            }
+        }
+
+        boolean running = true;
+        while(running) {
+            System.out.println("\uD83C\uDFE5 Smart Health & Appointment Management System");
+            System.out.println("------------------");
+            System.out.println("1 - Register a patient");
+            System.out.println("2 - Register a doctor");
+            System.out.println("3 - Schedule an appointment");
+            System.out.println("4 - Display records");
+            System.out.println("5 - Generate report");
+            System.out.println("6 - Mark an appointment as completed");
+            System.out.println("7 - Import records from a file");
+            System.out.println("8 - Search patients and doctors");
+            System.out.println("9 - Doctor availability");
+            System.out.println("10 - Show metrics");
+            System.out.println("11 - Exit");
+            System.out.println("-------------------");
+            System.out.println("Select your option: ");
+            int option = 0;
+            try {
+                option = Integer.parseInt(scanner.nextLine());
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid, try again.");
+            }
+            switch(option) {
+                case 1:
+                    registerPatient();
+                    continue;
+                case 2:
+                    registerDoctor();
+                    continue;
+                case 3:
+                    scheduleAppointment();
+                    continue;
+                case 4:
+                    displayRecords();
+                    continue;
+                case 5:
+                    generateReport();
+                    continue;
+                case 6:
+                    System.out.println("Appointment ID to mark as completed: ");
+                    if(completeAppointment(scanner.nextLine())) {
+                        System.out.println("Appointment marked as completed.");
+                    } else {
+                        System.out.println("No pending appointment with such ID on system.");
+                    }
+                    continue;
+                case 7:
+                    importRecords();
+                    continue;
+                case 8:
+                    search();
+                    continue;
+                case 9:
+                    availability();
+                    continue;
+                case 10:
+                    try {
+                        Metrics.dump(new OutputStreamWriter(System.out));
+                    }
+                    catch (IOException e) {
+                        System.out.println("Error in writing metrics.");
+                    }
+                    continue;
+                case 11:
+                    running = false;
+                    if (api != null) {
+                        api.stop();
+                    }
+                    events.close();
+                    closeJournal();
+                    snapshots.close();
+                    System.out.println("Thank you very much for using our Pet Care Scheduler!");
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        scanner.close();
+
+    }
+
+    //Serves the HTTP API until standard input reaches its end, which also happens when the process that started the shard exits
+    private static void runShard(int port) {
+        HttpApi api;
+        try {
+            api = HttpApi.startShard(port);
+        } catch (IOException e) {
+            System.out.println("Could not start the HTTP API: " + e.getMessage());
+            return;
+        }
+        System.out.println("Shard listening on port " + api.getPort());
+        try {
+            while(System.in.read() != -1) {
+                //Input is ignored
+            }
+        }
+        catch (IOException e) {
+            //Treated as the end of input
+        }
+        api.stop();
+        events.close();
+        closeJournal();
+        snapshots.close();
+    }
+
+    /**
+     * Registers a Patient object into the system
+     * <p>User must provide information regarding a unique ID number, a name, species, age, owner name and contact info to successfully add a new pet to the database.
+     */
+    public static void registerPatient() {
+        String id;
+        try {
+            System.out.println("Patient Unique ID: ");
+            id = scanner.nextLine();
+        }
+        catch(NullPointerException | InputMismatchException e) {
+            System.out.println("Invalid input, ending session.");
+            return;
+        }
+        if (patients.contains(id)) {
+            System.out.println("Duplicate IDs, please enter a different ID for pet.");
+            return;
+        }
+        System.out.println("Patient Name: ");
+        String name = scanner.nextLine();
+        int age;
+        try {
+            System.out.println("Patient Age: ");
+            age = scanner.nextInt();
+        }
+        catch(NumberFormatException | InputMismatchException e) {
+            System.out.println("Invalid input, ending session.");
+            return;
+        }
+        scanner.nextLine();
+        System.out.println("Patient Address: ");
+        String address = scanner.nextLine();
+        System.out.println("Patient Phone Contact: ");
+        String contact = scanner.nextLine();
+        System.out.println("Would you like to add any medical history for this patient right now or save it for later (Y/N): ");
+        String choice = scanner.nextLine().toUpperCase();
+        if (choice == "Y") {
+            boolean go = true;
+            List<String> medHist = new ArrayList<>();
+            while(go) {
+                System.out.println("Medical History (one item at a time): ");
+                medHist.add(scanner.nextLine());
+                System.out.println("Finished and exit? (Y/N) ");
+                String choice2 = scanner.nextLine().toUpperCase();
+                if (choice2 == "Y") {
+                    go = false;
+                }
+            }
+            addPatient(new Patient(id, name, age, address, contact, medHist));
+            return;
+        }
+        addPatient(new Patient(id, name, age, address, contact));
+    }
+
+    private static void addPatient(Patient patient) {
+        if (!registerPatient(patient)) {
+            System.out.println("Duplicate IDs, please enter a different ID for pet.");
+            return;
+        }
+        System.out.println("Patient registered successfully!");
+    }
+
+    /**
+     * Registers a Patient object into the system, shared by the console and the HTTP API
+     * @return true if the patient was registered, false if the ID is already taken
+     */
+    public static boolean registerPatient(Patient patient) {
+        awaitFlush();
+        persistenceLock.readLock().lock();
+        try {
+            if (!patients.add(patient)) {
+                return false;
+            }
+            patientSearch.index(patient);
+            logChange(j -> j.patientRegistered(patient));
+            return true;
+        }
+        finally {
+            persistenceLock.readLock().unlock();
+        }
+    }
+
+    //Changes a patient with its journal record under the persistence read lock, see persistenceLock; taken before the patient's own lock, never inside it, so a capture waiting for the lock cannot leave a reader stuck behind it
+    private static boolean changePatient(String id, Predicate<Patient> change) {
+        awaitFlush();
+        persistenceLock.readLock().lock();
+        try {
+            return patients.update(id, change);
+        }
+        finally {
+            persistenceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a prescription to a registered patient and schedules its expiry and refill timers
+     * <p>Prescription IDs are unique per patient, which is what lets the journal replay a prescription twice without adding it twice.
+     * @return false if there is no patient with such ID, or the patient already has a prescription with its ID
+     */
+    public static boolean addPrescription(String patientId, Prescription prescription) {
+        boolean added = changePatient(patientId, patient -> {
+            if (patient.hasPrescription(prescription.getPrescriptionId())) {
+                return false;
+            }
+            patient.addPrescription(prescription);
+            logChange(j -> j.prescriptionAdded(patientId, prescription));
+            return true;
+        });
+        if (!added) {
+            return false;
+        }
+        prescriptions.add(patientId, prescription);
+        events.prescriptionAdded(patientId, prescription);
+        return true;
+    }
+
+    /**
+     * Changes the end date and refill flag of a patient's prescription and schedules its expiry and refill timers again
+     * @return the changed prescription, or null if the patient has no prescription with such ID
+     */
+    public static Prescription updatePrescription(String patientId, int prescriptionId, LocalDateTime endDate, boolean refill) {
+        Prescription[] changed = new Prescription[1];
+        changePatient(patientId, patient -> {
+            Prescription prescription = patient.getPrescription(prescriptionId);
+            if (prescription == null) {
+                return false;
+            }
+            prescription.setEndDate(endDate);
+            prescription.setRefill(refill);
+            logChange(j -> j.prescriptionChanged(patientId, prescription));
+            changed[0] = prescription;
+            return true;
+        });
+        if (changed[0] != null) {
+            prescriptions.rescheduled(patientId, changed[0]);
+        }
+        return changed[0];
+    }
+
+    public static void registerDoctor() {
+        String id;
+        try {
+            System.out.println("Doctor Unique ID: ");
+            id = scanner.nextLine();
+        }
+        catch(NullPointerException | InputMismatchException e) {
+            System.out.println("Invalid input, ending session.");
+            return;
+        }
+        if (doctors.contains(id)) {
+            System.out.println("Duplicate IDs, please enter a different ID for doctor.");
+            return;
+        }
+        System.out.println("Doctor Name: ");
+        String name = scanner.nextLine();
+        int age;
+        try {
+            System.out.println("Doctor Age: ");
+            age = scanner.nextInt();
+        }
+        catch(NumberFormatException | InputMismatchException e) {
+            System.out.println("Invalid input, ending session.");
+            return;
+        }
+        scanner.nextLine();
+        System.out.println("Doctor Specialization: ");
+        String spec = scanner.nextLine();
+        System.out.println("Doctor Phone Contact: ");
+        String contact = scanner.nextLine();
+        System.out.println("Doctor Email: ");
+        String email = scanner.nextLine();
+        if (!registerDoctor(new Doctor(id, name, spec, age, contact, email))) {
+            System.out.println("Duplicate IDs, please enter a different ID for doctor.");
+            return;
+        }
+        System.out.println("Doctor registered successfully!");
+    }
+
+    /**
+     * Registers a Doctor object into the system, shared by the console and the HTTP API
+     * @return true if the doctor was registered, false if the ID is already taken
+     */
+    public static boolean registerDoctor(Doctor doctor) {
+        if (!doctors.add(doctor)) {
+            return false;
+        }
+        doctorSearch.index(doctor);
+        logChange(j -> j.doctorRegistered(doctor));
+        return true;
+    }
+
+    /**
+     * Changes the details of a registered patient (name, address, contact or medical history) and records the change in the journal and the search index
+     * <p>The change is given the patient held under its lock, never a copy that may have been paged out since.
+     * @return false if there is no patient with such ID
+     */
+    public static boolean updatePatient(String id, Consumer<Patient> change) {
+        return changePatient(id, patient -> {
+            change.accept(patient);
+            logChange(j -> j.patientChanged(patient));
+            patientSearch.index(patient);
+            return true;
+        });
+    }
+
+    /**
+     * Changes the details of a registered doctor and records the change in the journal and the search index
+     * <p>The journal takes the doctor's registration again, which replaces the one replayed before it.
+     * @return false if there is no doctor with such ID
+     */
+    public static boolean updateDoctor(String id, Consumer<Doctor> change) {
+        //Taken before the doctor's lock for the same reason as in changePatient
+        persistenceLock.readLock().lock();
+        try {
+            return doctors.update(id, doctor -> {
+                change.accept(doctor);
+                logChange(j -> j.doctorRegistered(doctor));
+                doctorSearch.index(doctor);
+                return true;
+            });
+        }
+        finally {
+            persistenceLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Schedules an appointment for a pet in the system
+     * <p>User must provide information regarding an ID number that traces back to a pet stored in the database, as well as an appointment type, and date and time in the future, to successfully schedule a new appointment to a pet in the system.
+     */
+    public static void scheduleAppointment() {
+        System.out.println("Patient ID for appointment setting: ");
+        String id = scanner.nextLine();
+        System.out.println("Doctor ID for appointment setting: ");
+        String idi = scanner.nextLine();
+
+        if(!patients.contains(id) || !doctors.contains(idi)) {
+            System.out.println("Invalid ID provided.");
+            return;
+        }
+
+        LocalDateTime datetime;
+        try {
+            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+            System.out.println("Appointment date (yyyy-MM-dd HH:mm): ");
+            datetime = LocalDateTime.parse(scanner.nextLine(), formatter);
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid date format.");
+            return;
+        }
+
+        System.out.println("Repeat on days, e.g. MONDAY,WEDNESDAY,FRIDAY (leave empty for a single appointment): ");
+        String repeat = scanner.nextLine().trim();
+        if(!repeat.isEmpty()) {
+            scheduleRecurring(id, idi, datetime, repeat);
+            return;
+        }
+
+        //Checked up front so the user is not asked for a reason in vain; the booking itself checks again atomically
+        if(!appointments.getAvailability().isAvailable(idi, datetime, Appointment.DEFAULT_DURATION_MINUTES)) {
+            AvailabilityCalendar.Slot next = appointments.earliestFree(List.of(idi), datetime, SLOT_SEARCH_DAYS, Appointment.DEFAULT_DURATION_MINUTES);
+            System.out.println("Doctor " + doctors.get(idi).getName() + " is not working at that time. Next free slot: " + (next == null ? "none in the next " + SLOT_SEARCH_DAYS + " days" : next.getStart()));
+            return;
+        }
+
+        if(appointments.findDoctorConflict(idi, datetime, Appointment.DEFAULT_DURATION_MINUTES) != null) {
+            System.out.println("Doctor " + doctors.get(idi).getName() + " is not available at that time - no overlapping appointments. Next free slot: " + appointments.nextFreeDoctorSlot(idi, datetime, Appointment.DEFAULT_DURATION_MINUTES));
+            return;
+        }
+
+        if(appointments.findPatientConflict(id, datetime, Appointment.DEFAULT_DURATION_MINUTES) != null) {
+            System.out.println("Patient " + patients.get(id).getName() + " is already booked for that time - no overlapping appointments." );
+            return;
+        }
+
+        System.out.println("Appointment reason: ");
+        String reason = scanner.nextLine();
+
+        BookingResult result = bookAppointment(id, idi, reason, datetime, Appointment.DEFAULT_DURATION_MINUTES);
+        switch(result.getStatus()) {
+            case BOOKED:
+                System.out.println("Appointment scheduled successfully.");
+                break;
+            case NOT_IN_FUTURE:
+                System.out.println("Appointments scheduling unsuccessfull - appointments can only be scheduled for the future.");
+                break;
+            case DOCTOR_UNAVAILABLE:
+            case PATIENT_UNAVAILABLE:
+                System.out.println("That time was just booked by someone else - no overlapping appointments.");
+                break;
+            case DOCTOR_OFF_DUTY:
+                System.out.println("That time was just blocked in the doctor's calendar.");
+                break;
+            default:
+                System.out.println("Invalid ID provided.");
+                break;
+        }
+    }
+
+    //Asks for the rest of a recurring care plan and books it whole, listing every slot that stops it
+    private static void scheduleRecurring(String id, String idi, LocalDateTime datetime, String repeat) {
+        Recurrence recurrence;
+        try {
+            EnumSet<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+            for(String day: repeat.toUpperCase(Locale.ROOT).split(",")) {
+                days.add(DayOfWeek.valueOf(day.trim()));
+            }
+            System.out.println("Every how many weeks (1 for every week): ");
+            int interval = Integer.parseInt(scanner.nextLine().trim());
+            System.out.println("Number of appointments: ");
+            int count = Integer.parseInt(scanner.nextLine().trim());
+            recurrence = new Recurrence(datetime, days, interval, count);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid recurrence - " + e.getMessage());
+            return;
+        }
+
+        System.out.println("Appointment reason: ");
+        String reason = scanner.nextLine();
+
+        BatchBookingResult result = bookRecurring(id, idi, reason, recurrence, Appointment.DEFAULT_DURATION_MINUTES);
+        if(result.isBooked()) {
+            System.out.println(result.getAppointments().size() + " appointments scheduled successfully, from " + result.getAppointments().get(0).getDateTime()
+                    + " to " + result.getAppointments().get(result.getAppointments().size() - 1).getDateTime() + ".");
+            return;
+        }
+        System.out.println("No appointments scheduled - " + result.getRejected().size() + " of " + recurrence.getCount() + " slots cannot be booked:");
+        for(Map.Entry<LocalDateTime, BookingResult> e: result.getRejected().entrySet()) {
+            switch(e.getValue().getStatus()) {
+                case NOT_IN_FUTURE:
+                    System.out.println(e.getKey() + " - not in the future");
+                    break;
+                case DOCTOR_OFF_DUTY:
+                    System.out.println(e.getKey() + " - doctor not working");
+                    break;
+                case DOCTOR_UNAVAILABLE:
+                    System.out.println(e.getKey() + " - doctor booked from " + e.getValue().getAppointment().getDateTime());
+                    break;
+                default:
+                    System.out.println(e.getKey() + " - patient booked from " + e.getValue().getAppointment().getDateTime());
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Sets a doctor's working hours or blocked time, or finds the earliest free slot for a specialization
+     */
+    public static void availability() {
+        System.out.println("1 - Set a doctor's working hours");
+        System.out.println("2 - Block a doctor's time");
+        System.out.println("3 - Free a doctor's blocked time");
+        System.out.println("4 - Earliest free slot for a specialization");
+        System.out.println("Select your option: ");
+        String option = scanner.nextLine().trim();
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        try {
+            switch(option) {
+                case "1": {
+                    String id = askDoctorId();
+                    if(id == null) {
+                        return;
+                    }
+                    System.out.println("Working days, e.g. MONDAY-FRIDAY: ");
+                    String[] days = scanner.nextLine().trim().toUpperCase(Locale.ROOT).split("-");
+                    System.out.println("Working hours, e.g. 09:00-17:00: ");
+                    String[] hours = scanner.nextLine().trim().split("-");
+                    setWorkingHours(id, AvailabilityCalendar.WorkingHours.of(DayOfWeek.valueOf(days[0]), DayOfWeek.valueOf(days[days.length - 1]),
+                            LocalTime.parse(hours[0]), LocalTime.parse(hours[1])));
+                    System.out.println("Working hours set.");
+                    break;
+                }
+                case "2":
+                case "3": {
+                    String id = askDoctorId();
+                    if(id == null) {
+                        return;
+                    }
+                    System.out.println("From (yyyy-MM-dd HH:mm): ");
+                    LocalDateTime from = LocalDateTime.parse(scanner.nextLine(), formatter);
+                    System.out.println("To (yyyy-MM-dd HH:mm): ");
+                    LocalDateTime to = LocalDateTime.parse(scanner.nextLine(), formatter);
+                    if(option.equals("2")) {
+                        blockTime(id, from, to);
+                        System.out.println("Time blocked.");
+                    } else {
+                        System.out.println(unblockTime(id, from, to) + " blocks removed.");
+                    }
+                    break;
+                }
+                case "4": {
+                    System.out.println("Specialization: ");
+                    String specialization = scanner.nextLine().trim();
+                    System.out.println("Appointment length in minutes (leave empty for " + Appointment.DEFAULT_DURATION_MINUTES + "): ");
+                    String length = scanner.nextLine().trim();
+                    int duration = length.isEmpty() ? Appointment.DEFAULT_DURATION_MINUTES : Integer.parseInt(length);
+                    AvailabilityCalendar.Slot slot = earliestFreeSlot(specialization, SLOT_SEARCH_DAYS, duration);
+                    if(slot == null) {
+                        System.out.println("No " + specialization + " doctor is free in the next " + SLOT_SEARCH_DAYS + " days.");
+                    } else {
+                        System.out.println("Earliest free slot: " + slot.getStart().format(formatter) + " with " + doctors.get(slot.getDoctorId()).getName() + " (" + slot.getDoctorId() + ")");
+                    }
+                    break;
+                }
+                default:
+                    System.out.println("Invalid selection!");
+                    break;
+            }
+        }
+        catch (DateTimeParseException | IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("Invalid input, ending session.");
+        }
+    }
+
+    private static String askDoctorId() {
+        System.out.println("Doctor ID: ");
+        String id = scanner.nextLine();
+        if(!doctors.contains(id)) {
+            System.out.println("No doctors with such ID on system.");
+            return null;
+        }
+        return id;
+    }
+
+    /**
+     * Replaces a doctor's working hours; bookings outside them are refused from then on
+     */
+    public static void setWorkingHours(String doctorId, AvailabilityCalendar.WorkingHours hours) {
+        appointments.setWorkingHours(doctorId, hours);
+        saveAvailability();
+    }
+
+    /**
+     * Blocks a doctor's time, e.g. for a meeting or a holiday, so it can no longer be booked
+     */
+    public static void blockTime(String doctorId, LocalDateTime from, LocalDateTime to) {
+        appointments.block(doctorId, from, to);
+        saveAvailability();
+    }
+
+    /**
+     * Frees the doctor's blocked time overlapping the given interval
+     * @return the number of blocks removed
+     */
+    public static int unblockTime(String doctorId, LocalDateTime from, LocalDateTime to) {
+        int removed = appointments.unblock(doctorId, from, to);
+        saveAvailability();
+        return removed;
+    }
+
+    /**
+     * Returns the earliest slot from now over the next {@code days} days at which any doctor of the specialization is free for {@code duration} minutes, or null when there is none
+     */
+    public static AvailabilityCalendar.Slot earliestFreeSlot(String specialization, int days, int duration) {
+        List<String> ids = new ArrayList<>();
+        for (Doctor d: doctors.all()) {
+            if (d.getSpecialization() != null && d.getSpecialization().equalsIgnoreCase(specialization)) {
+                ids.add(d.getId());
+            }
+        }
+        return appointments.earliestFree(ids, LocalDateTime.now(), days, duration);
+    }
+
+    //Working hours and blocked time are few and change rarely, so they are rewritten as a whole on every change
+    private static synchronized void saveAvailability() {
+        Path file = dataDirectory.resolve("availability.txt");
+        Path temporary = dataDirectory.resolve("availability.txt.tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(temporary)) {
+                appointments.getAvailability().save(out);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            System.out.println("Error in saving doctor availability.");
+        }
+    }
+
+    /**
+     * Imports patients, doctors or appointments from a CSV or NDJSON file, see {@link BulkImporter}
+     */
+    public static void importRecords() {
+        System.out.println("Import patients, doctors or appointments? ");
+        BulkImporter.Kind kind;
+        try {
+            kind = BulkImporter.Kind.valueOf(scanner.nextLine().trim().toUpperCase(Locale.ROOT));
+        }
+        catch (IllegalArgumentException e) {
+            System.out.println("Invalid input, ending session.");
+            return;
+        }
+        System.out.println("File to import (.csv with a header row, or .ndjson): ");
+        Path file = Path.of(scanner.nextLine().trim());
+        try {
+            BulkImporter.run(file, kind, Runtime.getRuntime().availableProcessors()).print(System.out);
+        }
+        catch (IOException e) {
+            System.out.println("Error in reading " + file + ".");
+        }
+    }
+
+    /**
+     * Books an appointment, shared by the console and the HTTP API
+     * <p>The conflict checks and the insert are atomic, see {@link AppointmentRepository#book}.
+     */
+    public static BookingResult bookAppointment(String patientId, String doctorId, String reason, LocalDateTime datetime, int duration) {
+        return appointments.book(patientId, doctorId, reason, datetime, duration);
+    }
+
+    /**
+     * Books a series of appointments for one patient and doctor, all of them or none, shared by the console and the HTTP API
+     * <p>See {@link AppointmentRepository#bookAll}. The journal records of the series are written together, see {@link #inBatch}.
+     * @throws IllegalArgumentException if there are no slots or two of them overlap each other
+     */
+    public static BatchBookingResult bookAppointments(String patientId, String doctorId, String reason, Collection<LocalDateTime> starts, int duration) {
+        BatchBookingResult[] result = new BatchBookingResult[1];
+        inBatch(() -> result[0] = appointments.bookAll(patientId, doctorId, reason, starts, duration));
+        return result[0];
+    }
+
+    /**
+     * Books every appointment of a recurrence rule, or none of them, see {@link #bookAppointments}
+     */
+    public static BatchBookingResult bookRecurring(String patientId, String doctorId, String reason, Recurrence recurrence, int duration) {
+        return bookAppointments(patientId, doctorId, reason, recurrence.slots(), duration);
+    }
+
+    /**
+     * Moves an existing appointment to a new date and time
+     * @return true if the appointment was rescheduled, false if the ID is unknown or the new slot overlaps another appointment
+     */
+    public static boolean rescheduleAppointment(String appointmentId, LocalDateTime datetime) {
+        return appointments.reschedule(appointmentId, datetime);
+    }
+
+    /**
+     * Marks an appointment as completed
+     * @return true if the appointment was marked, false if the ID is unknown or it was already completed
+     */
+    public static boolean completeAppointment(String appointmentId) {
+        return appointments.complete(appointmentId);
+    }
+
+    /**
+     * Displays the records of patients and appointments in the system
+     * <p>User must provide information regarding a unique ID number, a name, species, age, owner name and contact info to successfully add a new pet to the database.
+     */
+    public static void displayRecords() {
+        System.out.println("1 - View all registered patients");
+        System.out.println("2 - View all registered doctors");
+        System.out.println("3 - All appointments for a specific patient");
+        System.out.println("4 - All appointments for a specific doctor");
+        System.out.println("5 - Upcoming appointments for all doctors");
+        System.out.println("6 - Overdue or missed appointments");
+        System.out.println("7 - All prescriptions for a specific patient");
+        System.out.println("8 - Expired prescriptions");
+        System.out.println("9 - Prescriptions requiring a refill soon");
+        System.out.println("-------------------");
+        System.out.println("Select your option: ");
+        int option = 0;
+        try {
+            option = Integer.parseInt(scanner.nextLine());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid, try again.");
+        }
+        switch(option) {
+            case 1:
+                show("Patients registered: ", patientCursor(), RecordExporter.PATIENTS);
+                break;
+            case 2:
+                show("Doctors registered: ", doctorCursor(), RecordExporter.DOCTORS);
+                break;
+            case 3:
+                System.out.println("Patient ID for appointment showing: ");
+                String id = scanner.nextLine();
+                if(!patients.contains(id)) {
+                    System.out.println("No patients with such ID on system.");
+                    return;
+                }
+                show("All appointments for " + patients.get(id).getName() + ": ", patientAppointmentCursor(id), RecordExporter.APPOINTMENTS);
+                break;
+            case 4:
+                System.out.println("Doctor ID for appointment showing: ");
+                String idt = scanner.nextLine();
+                if(!doctors.contains(idt)) {
+                    System.out.println("No doctors with such ID on system.");
+                    return;
+                }
+                show("All appointments for " + doctors.get(idt).getName() + ": ", doctorAppointmentCursor(idt), RecordExporter.APPOINTMENTS);
+                break;
+            case 5:
+                System.out.println("Show the next how many days? (leave empty for all): ");
+                String days = scanner.nextLine().trim();
+                ResultCursor<Appointment> upcoming;
+                try {
+                    upcoming = days.isEmpty() ? upcomingCursor() : upcomingCursor(Integer.parseInt(days));
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid number of days.");
+                    return;
+                }
+                show("All upcoming appointments:", upcoming, RecordExporter.APPOINTMENTS);
+                break;
+            case 6:
+                show("Overdue or missed appointments:", overdueCursor(), RecordExporter.APPOINTMENTS);
+                break;
+            case 7:
+                System.out.println("Patient ID for prescription showing: ");
+                String ide = scanner.nextLine();
+                if(!patients.contains(ide)) {
+                    System.out.println("No patients with such ID on system.");
+                    return;
+                }
+                show("All prescriptions for " + patients.get(ide).getName() + ": ", ResultCursor.of(patientPrescriptions(ide)), RecordExporter.PRESCRIPTIONS);
+                break;
+            case 8:
+                show("Expired prescriptions:", ResultCursor.of(expiredPrescriptions()), RecordExporter.PRESCRIPTIONS);
+                break;
+            case 9:
+                show("Prescriptions needing a refill soon:", ResultCursor.of(refillPrescriptions()), RecordExporter.PRESCRIPTIONS);
+                break;
+            default:
+                System.out.println("Invalid selection!");
+                break;
+        }
+    }
+
+    //Shows a listing PAGE_SIZE rows at a time, or streams it to a file when the user names one
+    private static <T> void show(String title, ResultCursor<T> rows, RecordExporter<T> exporter) {
+        System.out.println("Press Enter to show on screen, or type a file name ending in .csv, .json or .ndjson to export: ");
+        String target = scanner.nextLine().trim();
+        if(!target.isEmpty()) {
+            RecordExporter.Format format = RecordExporter.Format.forFile(target);
+            if(format == null) {
+                System.out.println("Unknown file type, use .csv, .json or .ndjson.");
+                return;
+            }
+            try (Writer out = Files.newBufferedWriter(Path.of(target))) {
+                System.out.println(exporter.export(rows, format, out) + " records exported to " + target + ".");
+            }
+            catch (IOException e) {
+                System.out.println("Error in writing " + target + ".");
+            }
+            return;
+        }
+        System.out.println(title);
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+        while(true) {
+            for (T row: rows.nextPage(PAGE_SIZE)) {
+                out.println(row);
+            }
+            out.flush();
+            if(!rows.hasNext()) {
+                return;
+            }
+            System.out.println("Press Enter for more, or type q to stop: ");
+            if(scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Searches patients and doctors by name, phone number and the other indexed fields, and lists the best matches
+     * <p>Names match on any prefix of a word, and words of four letters or more also within a typo or two.
+     */
+    public static void search() {
+        System.out.println("Search for: ");
+        String query = scanner.nextLine();
+        List<Patient> foundPatients = searchPatients(query, SEARCH_RESULTS);
+        List<Doctor> foundDoctors = searchDoctors(query, SEARCH_RESULTS);
+        if(foundPatients.isEmpty() && foundDoctors.isEmpty()) {
+            System.out.println("No patients or doctors match your search.");
+            return;
+        }
+        if(!foundPatients.isEmpty()) {
+            System.out.println("Patients found: ");
+            foundPatients.forEach(System.out::println);
+        }
+        if(!foundDoctors.isEmpty()) {
+            System.out.println("Doctors found: ");
+            foundDoctors.forEach(System.out::println);
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} patients matching every word of the query by name, contact, address or medical history, best match first
+     */
+    public static List<Patient> searchPatients(String query, int limit) {
+        List<Patient> found = new ArrayList<>();
+        for (SearchIndex.Hit hit: patientSearch.search(query, limit)) {
+            Patient patient = patients.get(hit.getId());
+            if (patient != null) {
+                found.add(patient);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns up to {@code limit} doctors matching every word of the query by name, specialization, contact or email, best match first
+     */
+    public static List<Doctor> searchDoctors(String query, int limit) {
+        List<Doctor> found = new ArrayList<>();
+        for (SearchIndex.Hit hit: doctorSearch.search(query, limit)) {
+            Doctor doctor = doctors.get(hit.getId());
+            if (doctor != null) {
+                found.add(doctor);
+            }
+        }
+        return found;
+    }
+
+    //Names weigh most, then phone numbers; changes made through updatePatient and updateDoctor are indexed again
+    private static SearchIndex<Patient> newPatientSearch() {
+        SearchIndex<Patient> index = new SearchIndex<>(Patient::getId, List.of(
+                SearchIndex.Field.text(3, p -> List.of(Objects.toString(p.getName(), ""))),
+                SearchIndex.Field.phone(2, p -> List.of(Objects.toString(p.getContact(), ""))),
+                SearchIndex.Field.text(1, p -> List.of(Objects.toString(p.getAddress(), ""))),
+                SearchIndex.Field.text(1, Patient::getMedicalHistory)), () -> patients.all());
+        return index;
+    }
+
+    private static SearchIndex<Doctor> newDoctorSearch() {
+        SearchIndex<Doctor> index = new SearchIndex<>(Doctor::getId, List.of(
+                SearchIndex.Field.text(3, d -> List.of(Objects.toString(d.getName(), ""))),
+                SearchIndex.Field.text(3, d -> List.of(Objects.toString(d.getSpecialization(), ""))),
+                SearchIndex.Field.phone(2, d -> List.of(Objects.toString(d.getContact(), ""))),
+                SearchIndex.Field.text(1, d -> List.of(Objects.toString(d.getEmail(), "")))), () -> doctors.all());
+        return index;
+    }
+
+    public static Patient getPatient(String id) { return patients.get(id); }
+    public static Doctor getDoctor(String id) { return doctors.get(id); }
+    public static Collection<Patient> allPatients() { return patients.all(); }
+    public static Collection<Doctor> allDoctors() { return doctors.all(); }
+
+    public static List<Appointment> patientAppointments(String patientId) {
+        return timed("query.patientAppointments", () -> appointments.forPatient(patientId, null, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Returns up to {@code limit} of the patient's appointments in time order, starting after the given time (null for the first page)
+     */
+    public static List<Appointment> patientAppointments(String patientId, LocalDateTime after, int limit) {
+        return timed("query.patientAppointments", () -> appointments.forPatient(patientId, after, limit));
+    }
+
+    public static List<Appointment> doctorAppointments(String doctorId) {
+        return timed("query.doctorAppointments", () -> appointments.forDoctor(doctorId, null, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Returns up to {@code limit} of the doctor's appointments in time order, starting after the given time (null for the first page)
+     */
+    public static List<Appointment> doctorAppointments(String doctorId, LocalDateTime after, int limit) {
+        return timed("query.doctorAppointments", () -> appointments.forDoctor(doctorId, after, limit));
+    }
+
+    public static List<Appointment> upcomingAppointments() {
+        return timed("query.upcoming", () -> appointments.upcoming(LocalDateTime.now()));
+    }
+
+    public static List<Appointment> upcomingAppointments(int days) {
+        LocalDateTime now = LocalDateTime.now();
+        return timed("query.upcoming", () -> appointments.between(now, now.plusDays(days)));
+    }
+
+    public static List<Appointment> overdueAppointments() {
+        return timed("query.overdue", () -> appointments.overdue(LocalDateTime.now()));
+    }
+
+    public static ResultCursor<Patient> patientCursor() {
+        return ResultCursor.of(patients.all().iterator()).timed(Metrics.timer("query.patients"));
+    }
+
+    public static ResultCursor<Doctor> doctorCursor() {
+        return ResultCursor.of(doctors.all().iterator()).timed(Metrics.timer("query.doctors"));
+    }
+
+    public static ResultCursor<Appointment> patientAppointmentCursor(String patientId) {
+        return appointments.patientCursor(patientId, PAGE_SIZE).timed(Metrics.timer("query.patientAppointments"));
+    }
+
+    public static ResultCursor<Appointment> doctorAppointmentCursor(String doctorId) {
+        return appointments.doctorCursor(doctorId, PAGE_SIZE).timed(Metrics.timer("query.doctorAppointments"));
+    }
+
+    public static ResultCursor<Appointment> upcomingCursor() {
+        return appointments.upcomingCursor(LocalDateTime.now()).timed(Metrics.timer("query.upcoming"));
+    }
+
+    public static ResultCursor<Appointment> upcomingCursor(int days) {
+        LocalDateTime now = LocalDateTime.now();
+        return appointments.betweenCursor(now, now.plusDays(days)).timed(Metrics.timer("query.upcoming"));
+    }
+
+    public static ResultCursor<Appointment> overdueCursor() {
+        return appointments.overdueCursor(LocalDateTime.now()).timed(Metrics.timer("query.overdue"));
+    }
+
+    public static List<Prescription> patientPrescriptions(String patientId) {
+        return timed("query.patientPrescriptions", () -> {
+            Patient patient = patients.get(patientId);
+            return patient == null ? List.<Prescription>of() : patient.getRecentPrescriptions();
+        });
+    }
+
+    public static List<Prescription> expiredPrescriptions() {
+        return timed("query.expiredPrescriptions", () -> prescriptions.expired(LocalDateTime.now()));
+    }
+
+    public static List<Prescription> refillPrescriptions() {
+        return timed("query.refillPrescriptions", () -> prescriptions.refillDue(LocalDateTime.now()));
+    }
+
+    //Runs a query, recording its time in the named timer
+    private static <T> T timed(String timer, Supplier<T> query) {
+        long start = Metrics.start();
+        T result = query.get();
+        Metrics.timer(timer).stop(start);
+        return result;
+    }
+
+    /**
+     * Returns the totals of the appointments starting in [from, to), scanned from the appointment columns
+     */
+    public static AppointmentColumns.Summary appointmentSummary(LocalDateTime from, LocalDateTime to) {
+        return appointments.summary(from, to);
+    }
+
+    /**
+     * Returns the number of appointments starting in [from, to) per doctor ID, busiest first
+     */
+    public static Map<String, Integer> doctorWorkload(LocalDateTime from, LocalDateTime to) {
+        return appointments.doctorWorkload(from, to);
+    }
+
+    /**
+     * Returns the number of appointments starting in [from, to) per specialization of their doctor, busiest first
+     */
+    public static Map<String, Integer> specializationWorkload(LocalDateTime from, LocalDateTime to) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map.Entry<String, Integer> e: doctorWorkload(from, to).entrySet()) {
+            Doctor d = doctors.get(e.getKey());
+            if (d != null && d.getSpecialization() != null) {
+                counts.merge(d.getSpecialization(), e.getValue(), Integer::sum);
+            }
+        }
+        Map<String, Integer> result = new LinkedHashMap<>();
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .forEach(e -> result.put(e.getKey(), e.getValue()));
+        return result;
+    }
+
+    /**
+     * Returns the number of appointments starting in [from, to) per patient ID, most frequent first
+     */
+    public static Map<String, Integer> patientVisits(LocalDateTime from, LocalDateTime to) {
+        return appointments.patientVisits(from, to);
+    }
+
+    /**
+     * Returns how many appointments starting in [from, to) begin in each hour of the day
+     */
+    public static int[] appointmentsByHour(LocalDateTime from, LocalDateTime to) {
+        return appointments.hourOfDay(from, to);
+    }
+
+    public static AppointmentRepository getAppointments() {
+        return appointments;
+    }
+
+    public static PrescriptionScheduler getPrescriptionScheduler() {
+        return prescriptions;
+    }
+
+    /**
+     * Returns the bus on which every appointment and prescription change is published, for projections to subscribe to
+     */
+    public static EventBus getEvents() {
+        return events;
+    }
+
+    public static ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    public static PatientHolds getPatientHolds() {
+        return patientHolds;
+    }
+
+    /**
+     * Stores a full snapshot of the system data, waiting for it to be written
+     * <p>See {@link #snapshot()}. Without a journal the live maps are written directly while changes go on, so a change made during the save may or may not be in it; nothing else saves it then. Each map is written as a {@link RecordFile} through a temporary file that is moved into place, so a crash mid-save leaves the previous snapshot intact.
+     */
+    public static void storeData() {
+        long start = Metrics.start();
+        try {
+            if(journal != null) {
+                snapshot().get();
+            } else {
+                RecordFile.write(dataDirectory.resolve("patients.db"), RecordFile.PATIENTS, patients.asMap());
+                RecordFile.write(dataDirectory.resolve("doctors.db"), RecordFile.DOCTORS, doctors.asMap());
+                RecordFile.write(dataDirectory.resolve("appointments.db"), RecordFile.APPOINTMENTS, appointments.asMap());
+            }
+            System.out.println("Pet System Data saved successfully!");
+        }
+        catch (IOException | ExecutionException e) {
+            System.out.println("Error in saving system data.");
+            Metrics.counter("storeData.errors").increment();
+            e.printStackTrace();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            Metrics.timer("storeData").stop(start);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the system data, captured once any snapshot being written is done and written in the background while changes go on
+     * <p>The capture only rotates the journal, see {@link SnapshotWriter}, so changes are held off for as long as it takes to rename a file, whatever the size of the data. Once written, the paged patients are read from the new file and the changed ones held in memory are let go.
+     * @return completes once the snapshot is written, or with the error that stopped it
+     */
+    public static Future<?> snapshot() {
+        Path directory = dataDirectory;
+        MappedRecordMap<Patient> paged = pagedPatients;
+        return snapshots.submit(directory, PATIENT_CACHE, () -> capture(0), captured -> flushed(paged, directory, captured));
+    }
+
+    //Takes a snapshot once the journal holds at least minRecords records, unless one is already waiting; the capture runs on the writer thread, so this may be called with the persistence read lock held
+    private static Future<?> requestSnapshot(long minRecords) {
+        Path directory = dataDirectory;
+        MappedRecordMap<Patient> paged = pagedPatients;
+        return snapshots.request(directory, PATIENT_CACHE, () -> capture(minRecords), captured -> flushed(paged, directory, captured));
+    }
+
+    //Sets the journal aside for the next snapshot once it holds at least minRecords records, returning the version of the paged patients every journaled change came before, or -1 when it did not
+    private static long capture(long minRecords) {
+        long start = Metrics.start();
+        persistenceLock.writeLock().lock();
+        try {
+            if(journal == null || journal.getRecordCount() < minRecords) {
+                return -1;
+            }
+            if(journal.getRecordCount() > 0) {
+                journal.rotate(snapshots.nextSegment(dataDirectory));
+            }
+            return pagedPatients == null ? 0 : pagedPatients.version();
+        }
+        catch (IOException e) {
+            System.out.println("Error in saving system data.");
+            Metrics.counter("storeData.errors").increment();
+            e.printStackTrace();
+            return -1;
+        }
+        finally {
+            persistenceLock.writeLock().unlock();
+            Metrics.timer("snapshot.capture").stop(start);
+        }
+    }
+
+    //Holds a patient change back while the paged patients hold twice the cache size of changes, until a snapshot flushes them, so a bulk import cannot outrun the writer; not with the read lock held, as the capture waits for it
+    private static void awaitFlush() {
+        MappedRecordMap<Patient> paged = pagedPatients;
+        if(paged == null || journal == null || PATIENT_CACHE == 0 || paged.held() <= 2L * PATIENT_CACHE || persistenceLock.getReadHoldCount() > 0) {
+            return;
+        }
+        try {
+            requestSnapshot(1).get();
+        }
+        catch (ExecutionException e) {
+            //Counted by the writer; the change goes ahead and the next one asks again
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //Reads the paged patients from the snapshot just written, letting go of the changed and added ones held until they were in it
+    private static void flushed(MappedRecordMap<Patient> paged, Path directory, long captured) throws IOException {
+        if(paged != null) {
+            paged.flushed(RecordFile.open(directory.resolve("patients.db")), captured);
+        }
+    }
+
+    //A journal write, which may fail with an IOException
+    private interface JournalWrite {
+        void write(Journal journal) throws IOException;
+    }
+
+    /**
+     * Appends a change to the journal, compacting the journal into a snapshot once it grows past {@link #SNAPSHOT_INTERVAL} records
+     */
+    private static void logChange(JournalWrite change) {
+        if(journal == null) {
+            return;
+        }
+        persistenceLock.readLock().lock();
+        try {
+            change.write(journal);
+        }
+        catch (IOException e) {
+            System.out.println("Error in saving system data.");
+            e.printStackTrace();
+            return;
+        }
+        finally {
+            persistenceLock.readLock().unlock();
+        }
+        if(journal.getRecordCount() >= SNAPSHOT_INTERVAL) {
+            compact();
+        }
+    }
+
+    /**
+     * Runs a batch of registrations and bookings, writing their journal records together once the batch is done, see {@link Journal#startBatch()}
+     * <p>The persistence read lock is held for the whole batch, as its changes are made before their journal records are written.
+     */
+    public static void inBatch(Runnable action) {
+        Journal batchJournal = journal;
+        if(batchJournal == null) {
+            action.run();
+            return;
+        }
+        awaitFlush();
+        persistenceLock.readLock().lock();
+        try {
+            batchJournal.startBatch();
+            try {
+                action.run();
+            }
+            finally {
+                try {
+                    batchJournal.commitBatch();
+                }
+                catch (IOException e) {
+                    System.out.println("Error in saving system data.");
+                    e.printStackTrace();
+                }
+            }
+        }
+        finally {
+            persistenceLock.readLock().unlock();
+        }
+        if(batchJournal.getRecordCount() >= SNAPSHOT_INTERVAL) {
+            compact();
+        }
+    }
+
+    //Another thread may have captured since, in which case the journal is short again and nothing is done
+    private static void compact() {
+        requestSnapshot(SNAPSHOT_INTERVAL);
+    }
+
+    private static void closeJournal() {
+        if(journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+            System.out.println("Pet System Data saved successfully!");
+        }
+        catch (IOException e) {
+            System.out.println("Error in saving system data.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Generates a report of doctor workload, the most sought specialization and patient visit frequency
+     * <p>Aggregates are read from the live {@link ClinicStatistics} by {@link ReportEngine} and streamed to the console; a report over a period is counted from the appointment columns in parallel instead.
+     */
+    public static void generateReport() {
+        System.out.println("Report from date (yyyy-MM-dd, leave empty for all time): ");
+        String from = scanner.nextLine().trim();
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+            if (from.isEmpty()) {
+                generateReport(out);
+            } else {
+                System.out.println("Report to date, inclusive (yyyy-MM-dd): ");
+                String to = scanner.nextLine().trim();
+                generateReport(out, LocalDate.parse(from).atStartOfDay(), LocalDate.parse(to).plusDays(1).atStartOfDay());
+            }
+        }
+        catch (DateTimeParseException e) {
+            System.out.println("Invalid date format. Please use yyyy-MM-dd.");
+        }
+        catch (IOException e) {
+            System.out.println("Error in generating report.");
+        }
+    }
+
+    /**
+     * Writes the report to the given writer
+     */
+    public static void generateReport(Writer out) throws IOException {
+        long start = Metrics.start();
+        new ReportEngine(patients.asMap(), doctors.asMap(), appointments.getStatistics()).write(out);
+        Metrics.timer("report").stop(start);
+    }
+
+    /**
+     * Writes the report over the appointments starting in [from, to) only, counted in parallel on the common fork-join pool
+     * @param from start of the period, or null for no lower bound
+     * @param to end of the period (exclusive), or null for no upper bound
+     */
+    public static void generateReport(Writer out, LocalDateTime from, LocalDateTime to) throws IOException {
+        generateReport(out, from, to, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Writes the report over the appointments starting in [from, to) only, counted in parallel on the given pool, one shard per worker
+     */
+    public static void generateReport(Writer out, LocalDateTime from, LocalDateTime to, ForkJoinPool pool) throws IOException {
+        long start = Metrics.start();
+        new ReportEngine(patients.asMap(), doctors.asMap(), appointments.aggregate(from, to, LocalDateTime.now(), pool)).write(out);
+        Metrics.timer("report.period").stop(start);
+    }
+
+    /**
+     * Loads the pet scheduler system data from a file in the system
+     * <p>The last snapshot is mapped into memory, with records decoded only when first accessed, and the journal of changes made since then is replayed on top of it, after any segments of a snapshot that did not finish, which are then written into a new one.
+     */
+    public static void loadData() {
+        long start = Metrics.start();
+        //A snapshot still being written would replace the files and delete the segments while they are read below
+        snapshots.awaitWritten();
+        closeJournal();
+        journal = null;
+        Map<String, Patient> loadedPatients = loadRecords("patients", "Patients", PATIENT_CACHE);
+        //A new system pages its patients from an empty file, so the ones it takes on are flushed like any other change
+        if(PATIENT_CACHE > 0 && loadedPatients.isEmpty() && !(loadedPatients instanceof MappedRecordMap)
+                && !Files.exists(dataDirectory.resolve("patients.db")) && !Files.exists(dataDirectory.resolve("patients.ser"))) {
+            try {
+                RecordFile.write(dataDirectory.resolve("patients.db"), RecordFile.PATIENTS, Map.of());
+                MappedRecordMap<Patient> empty = new MappedRecordMap<>(RecordFile.open(dataDirectory.resolve("patients.db")), PATIENT_CACHE);
+                empty.registerMetrics("patients");
+                loadedPatients = empty;
+            }
+            catch (IOException e) {
+                System.out.println("Error in saving system data.");
+            }
+        }
+        pagedPatients = loadedPatients instanceof MappedRecordMap ? (MappedRecordMap<Patient>) loadedPatients : null;
+        Map<String, Doctor> loadedDoctors = loadRecords("doctors", "Doctors", 0);
+        Map<String, Appointment> loadedAppointments = loadRecords("appointments", "Appointments", 0);
+        //Segments left by snapshots that did not finish come between the snapshot files and the journal
+        List<Path> segments = List.of();
+        try {
+            segments = snapshots.recover(dataDirectory);
+            for (Path segment: segments) {
+                Journal.replay(segment, loadedPatients, loadedDoctors, loadedAppointments);
+            }
+        }
+        catch (IOException e) {
+            System.out.println("Error in loading journal data.");
+        }
+        try {
+            journal = Journal.open(dataDirectory.resolve("journal.log"), loadedPatients, loadedDoctors, loadedAppointments);
+        }
+        catch (IOException e) {
+            System.out.println("Error in loading journal data - changes will not be saved this session.");
+        }
+        patients = new PatientRepository(loadedPatients);
+        doctors = new DoctorRepository(loadedDoctors);
+        appointments = new AppointmentRepository(loadedAppointments, patients, doctors);
+        Path availability = dataDirectory.resolve("availability.txt");
+        if(Files.exists(availability)) {
+            try (BufferedReader in = Files.newBufferedReader(availability)) {
+                appointments.getAvailability().load(in);
+            }
+            catch (IOException | RuntimeException e) {
+                System.out.println("Error in loading doctor availability.");
+            }
+        }
+        prescriptions = new PrescriptionScheduler(patients);
+        patientSearch = newPatientSearch();
+        doctorSearch = newDoctorSearch();
+        appointments.addListener(new AppointmentRepository.Listener() {
+            @Override
+            public void booked(Appointment appointment) {
+                logChange(j -> j.appointmentBooked(appointment));
+            }
+
+            @Override
+            public void rescheduled(Appointment appointment) {
+                logChange(j -> j.appointmentRescheduled(appointment));
+            }
+
+            @Override
+            public void completed(Appointment appointment) {
+                logChange(j -> j.appointmentCompleted(appointment));
+            }
+        });
+        appointments.addListener(events);
+        prescriptions.addListener(events);
+        if(!segments.isEmpty()) {
+            Path directory = dataDirectory;
+            MappedRecordMap<Patient> paged = pagedPatients;
+            snapshots.submit(directory, PATIENT_CACHE, () -> 0, captured -> flushed(paged, directory, captured));
+        }
+        //Without a journal there is nothing to capture, so changed patients stay in memory
+        if(pagedPatients != null && journal != null) {
+            pagedPatients.onFull(() -> requestSnapshot(1));
+        }
+        Metrics.timer("loadData").stop(start);
+    }
+
+    @SuppressWarnings("unchecked")
+    //Maps a record file keeping at most cacheSize decoded records (all of them when 0), or reads a legacy snapshot
+    private static <V> Map<String, V> loadRecords(String name, String label, int cacheSize) {
+        try {
+            Map<String, V> data = readRecords(dataDirectory, name, cacheSize);
+            if(data == null) {
+                System.out.println("No saved data for " + name + " found. Starting a new fresh system database.");
+                return new HashMap<>();
+            }
+            if(data instanceof MappedRecordMap) {
+                ((MappedRecordMap<V>) data).registerMetrics(name);
+            }
+            System.out.println(label + " Data loaded successfully!");
+            return data;
+        }
+        catch (IOException | ClassNotFoundException e) {
+            System.out.println("Error in loading " + name + " system data.");
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Maps the record file of the given name in the directory, or reads its legacy snapshot, shared by loading and by the {@link SnapshotWriter}
+     * @return null when neither exists
+     */
+    @SuppressWarnings("unchecked")
+    static <V> Map<String, V> readRecords(Path directory, String name, int cacheSize) throws IOException, ClassNotFoundException {
+        Path records = directory.resolve(name + ".db");
+        if(Files.exists(records)) {
+            return new MappedRecordMap<>(RecordFile.open(records), cacheSize);
+        }
+        //Snapshots saved before the record format existed are read once and replaced by a record file on the next save
+        try (ObjectInputStream in = new LegacyObjectInputStream(new BufferedInputStream(new FileInputStream(directory.resolve(name + ".ser").toFile())))) {
+            return (HashMap<String, V>) in.readObject();
+        }
+        catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    //Snapshots written before the classes moved into the smarthealth package name them without a package
+    private static final class LegacyObjectInputStream extends ObjectInputStream {
+        private LegacyObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (desc.getName().indexOf('.') < 0) {
+                try {
+                    return Class.forName(SmartHealthSystem.class.getPackageName() + "." + desc.getName());
+                }
+                catch (ClassNotFoundException e) {
+                    //Not one of ours, e.g. a primitive type
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+
+    /**
+     * Sets the directory the snapshot and journal files are read from and written to, taking effect on the next {@link #loadData()}
+     */
+    public static void setDataDirectory(Path directory) {
+        dataDirectory = directory;
+    }
+
+    /**
+     * Returns a new unique appointment ID
+     * <p>IDs come from a monotonic sequence restored on {@link #loadData()}, so allocation is constant time and never reuses the ID of a saved appointment.
+     */
+    public static String idGenerator() {
+        return appointments.nextId();
+    }
+
+}
@@ -0,0 +1,183 @@
+package smarthealth;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Class representing the writer of the snapshot files of the smart health system, which works in the background while the system keeps taking changes
+ * <p>A snapshot is never read from the live maps, which change under it. It is captured by rotating the journal instead: the records appended so far are set aside in a numbered segment ({@code journal-<n>.log}) and new records go to an empty journal. The previous snapshot files and the segments never change again, so together they are a consistent point-in-time version of the data, captured in O(1) whatever its size. The writer thread then loads that version into maps of its own, by mapping the previous snapshot files and replaying the segments on top, writes them as the new snapshot files and deletes the segments.
+ * <p>A crash in the middle of a snapshot leaves the segments in place; they are replayed between the snapshot files and the journal on start-up and folded into the next snapshot. Snapshots run one at a time, each folding every segment there is. The capture runs on the writer thread too, just before the write, so it can be asked for by a thread holding a lock the capture waits for.
+ */
+public class SnapshotWriter implements AutoCloseable {
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final Metrics.Timer WRITE = Metrics.timer("snapshot.write");
+    private static final Metrics.Counter ERRORS = Metrics.counter("snapshot.errors");
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //Number of the last segment handed out
+    private final AtomicLong generation = new AtomicLong();
+    //The snapshot asked for by request that is waiting to start, if any; guarded by this
+    private Future<?> requested;
+
+    /**
+     * Told on the writer thread once a snapshot is written, with the value its capture returned
+     */
+    public interface Listener {
+        void written(long captured) throws IOException;
+    }
+
+    /**
+     * Returns the segments left in the directory, oldest first, and makes sure new segments are numbered after them
+     */
+    public List<Path> recover(Path directory) throws IOException {
+        List<Path> segments = segments(directory);
+        if (!segments.isEmpty()) {
+            generation.accumulateAndGet(number(segments.get(segments.size() - 1)), Math::max);
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the path to rotate the journal of the directory into
+     */
+    public Path nextSegment(Path directory) {
+        return directory.resolve(SEGMENT_PREFIX + generation.incrementAndGet() + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Has a snapshot of the directory written on the writer thread, from its snapshot files and the segments in it at the time the snapshot starts
+     * @param patientCache decoded patients kept in memory while writing, see {@link MappedRecordMap}
+     * @param capture run first, sets the journal aside as a segment; a negative value means there is nothing to snapshot and nothing is written
+     * @return completes once the snapshot is written, or with the error that stopped it
+     */
+    public Future<?> submit(Path directory, int patientCache, LongSupplier capture, Listener listener) {
+        return executor.submit(() -> {
+            run(directory, patientCache, capture, listener);
+            return null;
+        });
+    }
+
+    /**
+     * Has a snapshot written like {@link #submit}, unless one asked for this way is still waiting to start, which then captures what this one would have
+     * @return completes once the snapshot is written, or with the error that stopped it
+     */
+    public synchronized Future<?> request(Path directory, int patientCache, LongSupplier capture, Listener listener) {
+        if (requested == null) {
+            requested = executor.submit(() -> {
+                synchronized (this) {
+                    requested = null;
+                }
+                run(directory, patientCache, capture, listener);
+                return null;
+            });
+        }
+        return requested;
+    }
+
+    /**
+     * Waits until every snapshot submitted so far is written, or has failed
+     */
+    public void awaitWritten() {
+        try {
+            executor.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void run(Path directory, int patientCache, LongSupplier capture, Listener listener) throws IOException, ClassNotFoundException {
+        try {
+            long captured = capture.getAsLong();
+            if (captured >= 0) {
+                write(directory, patientCache);
+                listener.written(captured);
+            }
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            ERRORS.increment();
+            throw e;
+        }
+    }
+
+    private static void write(Path directory, int patientCache) throws IOException, ClassNotFoundException {
+        List<Path> segments = segments(directory);
+        long start = Metrics.start();
+        Map<String, Patient> patients = read(directory, "patients", patientCache);
+        Map<String, Doctor> doctors = read(directory, "doctors", 0);
+        Map<String, Appointment> appointments = read(directory, "appointments", 0);
+        for (Path segment: segments) {
+            Journal.replay(segment, patients, doctors, appointments);
+        }
+        RecordFile.write(directory.resolve("patients.db"), RecordFile.PATIENTS, patients);
+        RecordFile.write(directory.resolve("doctors.db"), RecordFile.DOCTORS, doctors);
+        RecordFile.write(directory.resolve("appointments.db"), RecordFile.APPOINTMENTS, appointments);
+        //Only once every file is in place; until then a restart replays the segments again, which is harmless as replaying a record is idempotent (see Journal)
+        for (Path segment: segments) {
+            Files.delete(segment);
+        }
+        WRITE.stop(start);
+    }
+
+    //An unreadable previous snapshot stops the write, as writing the segments alone would lose everything before them
+    private static <V> Map<String, V> read(Path directory, String name, int cacheSize) throws IOException, ClassNotFoundException {
+        Map<String, V> data = SmartHealthSystem.readRecords(directory, name, cacheSize);
+        return data == null ? new HashMap<>() : data;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(SnapshotWriter::isSegment).forEach(segments::add);
+        }
+        segments.sort(Comparator.comparingLong(SnapshotWriter::number));
+        return segments;
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)
+                && name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()).matches("[0-9]+");
+    }
+
+    private static long number(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Lets the snapshot being written, and any already submitted, finish
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package smarthealth;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class representing a shared dictionary of low-cardinality strings, such as specializations, appointment reasons and medical conditions
+ * <p>Each distinct value is stored once and given a small integer code, so entities hold an int (or a reference to the single shared instance) instead of their own copy of the string. Codes are handed out in first-seen order and never reused; they are only meaningful within one run, so they are never persisted.
+ * <p>A dictionary never shrinks. Fields that are free text but usually repeat, such as appointment reasons and medical conditions, use a dictionary with a capacity and only {@link #intern}: the first values seen are shared, and once it is full any other value is kept by its entity as it is, so unique text costs no more than it did without the dictionary.
+ */
+public final class StringDictionary {
+
+    //Distinct values shared per free-text dictionary
+    private static final int FREE_TEXT_CAPACITY = 4096;
+
+    public static final StringDictionary SPECIALIZATIONS = new StringDictionary();
+    public static final StringDictionary REASONS = new StringDictionary(FREE_TEXT_CAPACITY);
+    public static final StringDictionary CONDITIONS = new StringDictionary(FREE_TEXT_CAPACITY);
+    //Medication names and dosages
+    public static final StringDictionary MEDICATIONS = new StringDictionary();
+    public static final StringDictionary DOCTOR_IDS = new StringDictionary();
+
+    //Code of null, so optional fields can be coded too
+    public static final int NONE = -1;
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[16];
+    private int size;
+    //Values beyond this are not added by intern
+    private final int capacity;
+
+    public StringDictionary() {
+        this(Integer.MAX_VALUE);
+    }
+
+    public StringDictionary(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the code of a value, adding it to the dictionary when it is new, whatever its capacity
+     */
+    public int code(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        Integer code = codes.get(value);
+        return code != null ? code : add(value);
+    }
+
+    /**
+     * Returns the code of a value, or {@link #NONE} when it is not in the dictionary; unlike {@link #code} it never adds the value
+     */
+    public int find(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        Integer code = codes.get(value);
+        return code != null ? code : NONE;
+    }
+
+    /**
+     * Returns the value of a code handed out by {@link #code}
+     */
+    public String value(int code) {
+        return code == NONE ? null : values[code];
+    }
+
+    /**
+     * Returns the dictionary's single instance of a value, or the value itself when it is new and the dictionary is full
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        Integer code = codes.get(value);
+        if (code != null) {
+            return values[code];
+        }
+        return size() < capacity ? value(add(value)) : value;
+    }
+
+    public int size() {
+        return codes.size();
+    }
+
+    private synchronized int add(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        //The array slot is written before the code is published, so a reader that sees the code also sees the value
+        values[size] = value;
+        codes.put(value, size);
+        return size++;
+    }
+}
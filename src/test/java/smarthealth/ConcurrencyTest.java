@@ -0,0 +1,231 @@
+package smarthealth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Stress test running many bookings and prescriptions at once through {@link SmartHealthSystem}
+ * <p>Every thread is held at a gate until all are ready, so the calls really overlap. The patient cache is kept tiny, so patients are evicted and decoded again while they are being changed.
+ */
+class ConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int DOCTORS = 3;
+    private static final int PATIENTS = 4;
+
+    static {
+        //Read once when SmartHealthSystem is first used, which is after this
+        System.setProperty("smarthealth.patientCache", "2");
+    }
+
+    @TempDir
+    Path dataDirectory;
+
+    @BeforeEach
+    void loadEmptySystem() {
+        SmartHealthSystem.setDataDirectory(dataDirectory);
+        SmartHealthSystem.loadData();
+        for (int i = 0; i < DOCTORS; i++) {
+            assertTrue(SmartHealthSystem.registerDoctor(new Doctor("D" + i, "Doctor " + i, "General", 40, "555-010" + i, "d" + i + "@clinic.test")));
+        }
+        for (int i = 0; i < PATIENTS; i++) {
+            assertTrue(SmartHealthSystem.registerPatient(new Patient("P" + i, "Patient " + i, 30 + i, "Street " + i, "555-020" + i)));
+        }
+    }
+
+    //Snapshots are written in the background, so one may still be writing into the directory when the test ends
+    @AfterEach
+    void awaitSnapshots() throws Exception {
+        SmartHealthSystem.snapshot().get(1, TimeUnit.MINUTES);
+    }
+
+    @Test
+    void concurrentBookingsNeverOverlap() throws Exception {
+        //A Monday morning well ahead, inside the default working hours
+        LocalDateTime morning = LocalDate.now().plusWeeks(2).with(TemporalAdjusters.next(DayOfWeek.MONDAY)).atTime(9, 0);
+        ConcurrentLinkedQueue<Appointment> booked = new ConcurrentLinkedQueue<>();
+        runTogether(THREADS, thread -> {
+            Random random = new Random(thread);
+            for (int i = 0; i < 200; i++) {
+                //Slots a quarter of an hour apart over two hours, so most attempts clash with another
+                LocalDateTime start = morning.plusMinutes(15L * random.nextInt(8));
+                BookingResult result = SmartHealthSystem.bookAppointment("P" + random.nextInt(PATIENTS), "D" + random.nextInt(DOCTORS),
+                        "Check-up", start, 15 * (1 + random.nextInt(3)));
+                if (result.isBooked()) {
+                    booked.add(result.getAppointment());
+                } else {
+                    assertTrue(result.getStatus() == BookingResult.Status.DOCTOR_UNAVAILABLE || result.getStatus() == BookingResult.Status.PATIENT_UNAVAILABLE,
+                            "Unexpected rejection " + result.getStatus());
+                    assertNotNull(result.getAppointment());
+                }
+            }
+        });
+
+        assertFalse(booked.isEmpty());
+        int listed = 0;
+        for (int i = 0; i < DOCTORS; i++) {
+            List<Appointment> schedule = SmartHealthSystem.doctorAppointments("D" + i);
+            assertNoOverlap(schedule);
+            listed += schedule.size();
+        }
+        assertEquals(booked.size(), listed);
+        for (int i = 0; i < PATIENTS; i++) {
+            assertNoOverlap(SmartHealthSystem.patientAppointments("P" + i));
+        }
+    }
+
+    @Test
+    void concurrentPrescriptionsAreAllKept() throws Exception {
+        int perThread = 100;
+        LocalDateTime start = LocalDateTime.now();
+        AtomicBoolean adding = new AtomicBoolean(true);
+        //Reads every patient in turn while the prescriptions are added, so the tiny cache keeps evicting them
+        Thread reader = new Thread(() -> {
+            for (int i = 0; adding.get(); i++) {
+                SmartHealthSystem.getPatient("P" + (i % PATIENTS));
+            }
+        });
+        reader.start();
+        try {
+            runTogether(THREADS, thread -> {
+                for (int i = 0; i < perThread; i++) {
+                    int id = thread * perThread + i;
+                    assertTrue(SmartHealthSystem.addPrescription("P" + (id % PATIENTS),
+                            new Prescription(id, 0, id % PATIENTS, "Medicine " + id, "1 daily", start, start.plusDays(30))));
+                }
+            });
+        }
+        finally {
+            adding.set(false);
+            reader.join();
+        }
+
+        assertPrescriptions(THREADS * perThread);
+        assertFalse(SmartHealthSystem.addPrescription("P0", new Prescription(0, 0, 0, "Medicine 0", "1 daily", start, start.plusDays(30))));
+
+        //The journal holds them all too
+        SmartHealthSystem.loadData();
+        assertPrescriptions(THREADS * perThread);
+    }
+
+    @Test
+    void slowListenerDoesNotHoldUpBookings() throws Exception {
+        LocalDateTime morning = LocalDate.now().plusWeeks(2).with(TemporalAdjusters.next(DayOfWeek.MONDAY)).atTime(9, 0);
+        CountDownLatch listening = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SmartHealthSystem.getAppointments().addListener(new AppointmentRepository.Listener() {
+            @Override
+            public void booked(Appointment appointment) {
+                if (appointment.getDoctorId().equals("D0")) {
+                    listening.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+
+            @Override
+            public void rescheduled(Appointment appointment) {
+            }
+
+            @Override
+            public void completed(Appointment appointment) {
+            }
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<BookingResult> stuck = pool.submit(() -> SmartHealthSystem.bookAppointment("P0", "D0", "Check-up", morning, 30));
+            assertTrue(listening.await(1, TimeUnit.MINUTES));
+            //The same patient with another doctor, while the first booking's listener is still running
+            Future<BookingResult> other = pool.submit(() -> SmartHealthSystem.bookAppointment("P0", "D1", "Check-up", morning.plusHours(1), 30));
+            assertTrue(other.get(10, TimeUnit.SECONDS).isBooked());
+            release.countDown();
+            assertTrue(stuck.get(1, TimeUnit.MINUTES).isBooked());
+        }
+        finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    private static void assertPrescriptions(int total) {
+        for (int p = 0; p < PATIENTS; p++) {
+            Set<Integer> ids = new TreeSet<>();
+            for (Prescription prescription: SmartHealthSystem.patientPrescriptions("P" + p)) {
+                assertTrue(ids.add(prescription.getPrescriptionId()), "Prescription " + prescription.getPrescriptionId() + " held twice");
+            }
+            Set<Integer> expected = new TreeSet<>();
+            for (int id = p; id < total; id += PATIENTS) {
+                expected.add(id);
+            }
+            assertEquals(expected, ids, "Prescriptions of P" + p);
+        }
+    }
+
+    private static void assertNoOverlap(List<Appointment> schedule) {
+        List<Appointment> sorted = new ArrayList<>(schedule);
+        sorted.sort(Comparator.comparing(Appointment::getDateTime));
+        for (int i = 1; i < sorted.size(); i++) {
+            Appointment before = sorted.get(i - 1);
+            Appointment after = sorted.get(i);
+            assertFalse(after.getDateTime().isBefore(before.getEndDateTime()), before + " overlaps " + after);
+        }
+    }
+
+    //Runs the task on each of the threads at once, failing with the first error any of them hit
+    private static void runTogether(int threads, IntConsumer task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch gate = new CountDownLatch(1);
+        try {
+            List<Future<?>> running = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                running.add(pool.submit(() -> {
+                    gate.await();
+                    task.accept(thread);
+                    return null;
+                }));
+            }
+            gate.countDown();
+            for (Future<?> future: running) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        }
+        finally {
+            pool.shutdownNow();
+            if (!pool.awaitTermination(10, TimeUnit.SECONDS)) {
+                fail("Threads still running");
+            }
+        }
+    }
+}
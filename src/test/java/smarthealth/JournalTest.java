@@ -0,0 +1,73 @@
+package smarthealth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of writing {@link Journal} records and replaying them
+ */
+class JournalTest {
+
+    @TempDir
+    Path dataDirectory;
+
+    @Test
+    void stringsLongerThan64KbAreKept() throws Exception {
+        Path file = dataDirectory.resolve("journal.log");
+        //Three bytes per character in UTF-8, well past what writeUTF can take
+        String history = "€".repeat(100_000);
+        try (Journal journal = Journal.open(file, new HashMap<>(), new HashMap<>(), new HashMap<>())) {
+            journal.patientRegistered(new Patient("P1", "Patient 1", 40, "Street 1", "555-0101", List.of(history, "Asthma")));
+        }
+
+        Map<String, Patient> patients = new HashMap<>();
+        try (Journal journal = Journal.open(file, patients, new HashMap<>(), new HashMap<>())) {
+            assertEquals(List.of(history, "Asthma"), patients.get("P1").getMedicalHistory());
+        }
+    }
+
+    @Test
+    void recordsOfOlderJournalsAreReplayed() throws Exception {
+        //A patient registration as written before strings were length-prefixed
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(1);
+        out.writeUTF("P1");
+        writeOldString(out, "Patient 1");
+        out.writeInt(40);
+        writeOldString(out, "Street 1");
+        writeOldString(out, "555-0101");
+        writeOldString(out, "2024-01-01T09:30");
+        out.writeInt(1);
+        writeOldString(out, "Asthma");
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        Path file = dataDirectory.resolve("journal.log");
+        Files.write(file, ByteBuffer.allocate(8 + payload.length).putInt(payload.length).putInt((int) crc.getValue()).put(payload).array());
+
+        Map<String, Patient> patients = new HashMap<>();
+        try (Journal journal = Journal.open(file, patients, new HashMap<>(), new HashMap<>())) {
+            Patient patient = patients.get("P1");
+            assertEquals("Street 1", patient.getAddress());
+            assertEquals(List.of("Asthma"), patient.getMedicalHistory());
+        }
+    }
+
+    private static void writeOldString(DataOutputStream out, String value) throws Exception {
+        out.writeBoolean(true);
+        out.writeUTF(value);
+    }
+}
@@ -0,0 +1,67 @@
+package smarthealth;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of a small {@link LoadGenerator} run against an in-process {@link HttpApi} on a free loopback port
+ */
+class LoadGeneratorTest {
+
+    @TempDir
+    Path dataDirectory;
+
+    private HttpApi api;
+
+    @BeforeEach
+    void startApi() throws Exception {
+        SmartHealthSystem.setDataDirectory(dataDirectory);
+        SmartHealthSystem.loadData();
+        api = HttpApi.start(0);
+    }
+
+    @AfterEach
+    void stopApi() throws Exception {
+        api.stop();
+        SmartHealthSystem.snapshot().get(1, TimeUnit.MINUTES);
+    }
+
+    @Test
+    void concurrentBookingsOverHttpNeverOverlap() throws Exception {
+        //Few doctors and patients for the bookings, so many requests aim at the same slots
+        LoadGenerator.run("http://127.0.0.1:" + api.getPort(), 32, 500, 4, 20);
+
+        List<Appointment> booked = new ArrayList<>();
+        for (Doctor doctor: SmartHealthSystem.allDoctors()) {
+            List<Appointment> appointments = SmartHealthSystem.doctorAppointments(doctor.getId());
+            assertNoOverlap(doctor.getId(), appointments);
+            booked.addAll(appointments);
+        }
+        assertFalse(booked.isEmpty());
+        for (Patient patient: SmartHealthSystem.allPatients()) {
+            assertNoOverlap(patient.getId(), SmartHealthSystem.patientAppointments(patient.getId()));
+        }
+    }
+
+    private static void assertNoOverlap(String owner, List<Appointment> appointments) {
+        List<Appointment> sorted = new ArrayList<>(appointments);
+        sorted.sort(Comparator.comparing(Appointment::getDateTime));
+        for (int i = 1; i < sorted.size(); i++) {
+            Appointment previous = sorted.get(i - 1);
+            if (previous.getEndDateTime().isAfter(sorted.get(i).getDateTime())) {
+                fail(owner + " is double booked: " + previous.getAppointmentId() + " and " + sorted.get(i).getAppointmentId());
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package smarthealth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of {@link PrescriptionScheduler} over patients paged from a {@link RecordFile}, which hands out a new copy of a patient each time it is decoded
+ */
+class PrescriptionSchedulerTest {
+
+    //Rows 0 and 16 share a cache segment, so with one record per segment reading one evicts the other
+    private static final int PATIENTS = 17;
+
+    @TempDir
+    Path dataDirectory;
+
+    @Test
+    void updateOnAnotherCopyReschedules() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, Patient> saved = new TreeMap<>();
+        for (int i = 0; i < PATIENTS; i++) {
+            saved.put(id(i), new Patient(id(i), "Patient " + i, 30, "Street " + i, "555-0100"));
+        }
+        Prescription original = new Prescription(1, 0, 0, "Medicine", "1 daily", now.minusDays(20), now.plusDays(10));
+        original.setRefill(true);
+        saved.get(id(0)).addPrescription(original);
+        Path file = dataDirectory.resolve("patients.db");
+        RecordFile.write(file, RecordFile.PATIENTS, saved);
+        PatientRepository patients = new PatientRepository(new MappedRecordMap<>(RecordFile.open(file), 1));
+
+        PrescriptionScheduler scheduler = new PrescriptionScheduler(patients);
+        List<String> events = new ArrayList<>();
+        scheduler.addListener(new PrescriptionScheduler.Listener() {
+            @Override
+            public void refillDue(String patientId, Prescription prescription) {
+                events.add("refill " + prescription.getEndDate().toLocalDate());
+            }
+
+            @Override
+            public void expired(String patientId, Prescription prescription) {
+                events.add("expired " + prescription.getEndDate().toLocalDate());
+            }
+        });
+        //Builds the timers from the copies read now
+        scheduler.advanceTo(now);
+
+        Patient before = patients.get(id(0));
+        patients.get(id(16));
+        assertNotSame(before, patients.get(id(0)), "patient was not evicted");
+
+        LocalDateTime extended = now.plusDays(60);
+        Prescription[] changed = new Prescription[1];
+        assertTrue(patients.update(id(0), p -> {
+            changed[0] = p.getPrescription(1);
+            changed[0].setEndDate(extended);
+            return true;
+        }));
+        scheduler.rescheduled(id(0), changed[0]);
+
+        //Past the old refill notice and end date, nothing is due any more
+        assertEquals(List.of(), scheduler.refillDue(now.plusDays(11)));
+        assertEquals(List.of(), scheduler.expired(now.plusDays(11)));
+        assertEquals(List.of(), events);
+
+        assertEquals(1, scheduler.refillDue(now.plusDays(54)).size());
+        assertEquals(1, scheduler.expired(now.plusDays(61)).size());
+        assertEquals(List.of(), scheduler.refillDue(now.plusDays(61)));
+        assertEquals(List.of("refill " + extended.toLocalDate(), "expired " + extended.toLocalDate()), events);
+    }
+
+    @Test
+    void historyIsNotReported() throws Exception {
+        LocalDateTime now = LocalDateTime.now();
+        Patient patient = new Patient(id(0), "Patient 0", 30, "Street 0", "555-0100");
+        patient.addPrescription(new Prescription(1, 0, 0, "Long gone", "1 daily", now.minusDays(400), now.minusDays(200)));
+        patient.addPrescription(new Prescription(2, 0, 0, "Recent", "1 daily", now.minusDays(40), now.minusDays(10)));
+        patient.addPrescription(new Prescription(3, 0, 0, "Current", "1 daily", now.minusDays(25), now.plusDays(5)));
+        PatientRepository patients = new PatientRepository();
+        patients.add(patient);
+
+        PrescriptionScheduler scheduler = new PrescriptionScheduler(patients);
+        List<String> events = new ArrayList<>();
+        scheduler.addListener(new PrescriptionScheduler.Listener() {
+            @Override
+            public void refillDue(String patientId, Prescription prescription) {
+                events.add("refill " + prescription.getMedicationName());
+            }
+
+            @Override
+            public void expired(String patientId, Prescription prescription) {
+                events.add("expired " + prescription.getMedicationName());
+            }
+        });
+
+        //Expired within the retention window, but before the scheduler was built
+        assertEquals(List.of("Recent"), names(scheduler.expired(now)));
+        assertEquals(List.of(), events);
+
+        assertEquals(List.of("Recent", "Current"), names(scheduler.expired(now.plusDays(6))));
+        assertEquals(List.of("expired Current"), events);
+    }
+
+    private static List<String> names(List<Prescription> prescriptions) {
+        List<String> names = new ArrayList<>();
+        for (Prescription prescription: prescriptions) {
+            names.add(prescription.getMedicationName());
+        }
+        return names;
+    }
+
+    private static String id(int i) {
+        return String.format("P%02d", i);
+    }
+}
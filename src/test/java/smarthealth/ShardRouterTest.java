@@ -0,0 +1,111 @@
+package smarthealth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of a {@link ShardRouter} in front of two shard JVMs on loopback, started by {@link ShardCluster}
+ */
+class ShardRouterTest {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    @TempDir
+    Path dataDirectory;
+
+    private ShardCluster cluster;
+    private HttpClient client;
+    //Two doctors the ring puts on different shards
+    private String first;
+    private String second;
+
+    @BeforeEach
+    void startCluster() throws Exception {
+        cluster = ShardCluster.start(2, 0, dataDirectory);
+        client = HttpClient.newHttpClient();
+        ShardRing ring = cluster.getRouter().getRing();
+        first = "D0";
+        for (int i = 1; second == null; i++) {
+            if (ring.ownerOf("D" + i) != ring.ownerOf(first)) {
+                second = "D" + i;
+            }
+        }
+        assertEquals(201, post("/patients", "{\"id\":\"P1\",\"name\":\"Patient 1\",\"age\":40,\"address\":\"Street 1\",\"contact\":\"555-0101\"}").statusCode());
+        assertEquals(201, post("/doctors", doctor(first, "Cardiology")).statusCode());
+        assertEquals(201, post("/doctors", doctor(second, "Dermatology")).statusCode());
+    }
+
+    @AfterEach
+    void stopCluster() {
+        cluster.close();
+    }
+
+    @Test
+    void patientCannotBeBookedTwiceAcrossShards() throws Exception {
+        LocalDateTime morning = LocalDate.now().plusWeeks(2).with(TemporalAdjusters.next(DayOfWeek.MONDAY)).atTime(9, 0);
+        assertNotEquals(cluster.getRouter().getRing().ownerOf(first), cluster.getRouter().getRing().ownerOf(second));
+
+        assertEquals(201, post("/appointments", appointment(first, morning, "30")).statusCode());
+        //Overlaps the first appointment, which the second doctor's shard knows nothing of
+        HttpResponse<String> clash = post("/appointments", appointment(second, morning.plusMinutes(15), "\"30\""));
+        assertEquals(409, clash.statusCode(), clash.body());
+        //Right after it is free, and the rejected slot was released again
+        assertEquals(201, post("/appointments", appointment(second, morning.plusMinutes(30), "30")).statusCode());
+
+        List<?> appointments = (List<?>) Json.parse(get("/patients/P1/appointments").body());
+        assertEquals(2, appointments.size());
+    }
+
+    @Test
+    void analyticsAreAddedUpAcrossShards() throws Exception {
+        LocalDateTime morning = LocalDate.now().plusWeeks(2).with(TemporalAdjusters.next(DayOfWeek.MONDAY)).atTime(9, 0);
+        assertEquals(201, post("/appointments", appointment(first, morning, "30")).statusCode());
+        assertEquals(201, post("/appointments", appointment(second, morning.plusHours(1), "30")).statusCode());
+        assertEquals(201, post("/appointments", appointment(second, morning.plusHours(2), "30")).statusCode());
+
+        LocalDate day = morning.toLocalDate();
+        Map<String, Object> analytics = Json.parseObject(get("/analytics?from=" + day + "&to=" + day).body());
+        assertEquals(3, ((Number) analytics.get("total")).intValue());
+        assertEquals(3, ((Number) ((Map<?, ?>) analytics.get("patientVisits")).get("P1")).intValue());
+        assertEquals("Dermatology", analytics.get("topSpecialization"));
+
+        Map<String, Object> slot = Json.parseObject(get("/slots?specialization=Cardiology").body());
+        assertEquals(first, slot.get("doctorId"));
+        assertEquals(404, get("/slots?specialization=Neurology").statusCode());
+    }
+
+    private static String doctor(String id, String specialization) {
+        return "{\"id\":\"" + id + "\",\"name\":\"Doctor " + id + "\",\"specialization\":\"" + specialization + "\",\"age\":50,\"contact\":\"555-0200\",\"email\":\"" + id + "@clinic.test\"}";
+    }
+
+    private static String appointment(String doctorId, LocalDateTime start, String duration) {
+        return "{\"patientId\":\"P1\",\"doctorId\":\"" + doctorId + "\",\"reason\":\"Check-up\",\"dateTime\":\"" + start.format(FORMATTER) + "\",\"durationMinutes\":" + duration + "}";
+    }
+
+    private HttpResponse<String> post(String path, String body) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(cluster.getUrl() + path)).POST(HttpRequest.BodyPublishers.ofString(body)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create(cluster.getUrl() + path)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+}